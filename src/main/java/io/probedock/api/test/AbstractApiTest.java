@@ -1,27 +1,44 @@
 package io.probedock.api.test;
 
+import io.probedock.api.test.rules.ApiTestClassClientsRule;
 import io.probedock.api.test.rules.ApiTestClientRule;
+import io.probedock.api.test.rules.ApiTestClientScope;
 import io.probedock.api.test.rules.ApiTestHeaderConfigurationRule;
-import com.jayway.jsonassert.JsonAssert;
 import com.jayway.jsonassert.JsonAsserter;
+import com.jayway.jsonpath.JsonPath;
+import io.probedock.api.test.client.ApiEntryPoint;
+import io.probedock.api.test.client.ApiEntryPointBalancer;
+import io.probedock.api.test.client.ApiTestClient;
 import io.probedock.api.test.client.ApiTestMultipartFormData;
 import io.probedock.api.test.client.ApiTestFormUrlEncoded;
 import io.probedock.api.test.rules.ApiTestHeadersManagerRule;
 import io.probedock.api.test.client.ApiTestRequest;
 import io.probedock.api.test.client.ApiTestRequestBody;
+import io.probedock.api.test.client.ApiTestRequestTemplate;
 import io.probedock.api.test.client.ApiUriBuilder;
+import io.probedock.api.test.client.ApiUriTemplate;
 import io.probedock.api.test.client.ApiTestResponse;
+import io.probedock.api.test.client.IApiEntryPointSelector;
 import io.probedock.api.test.client.IApiTestClientConfiguration;
+import io.probedock.api.test.client.RoundRobinApiEntryPointSelector;
 import io.probedock.api.test.headers.ApiHeader;
 import io.probedock.api.test.headers.ApiHeaderConfigurator;
 import io.probedock.api.test.headers.ApiHeadersManager;
 import io.probedock.api.test.headers.IApiHeaderConfiguration;
 import io.probedock.api.test.headers.IApiHeaderConfiguratorLocator;
+import io.probedock.api.test.utils.CompiledJsonAsserter;
+import io.probedock.api.test.utils.JsonPaths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.json.JsonStructure;
 import org.apache.http.HttpHeaders;
 import org.apache.http.entity.ContentType;
+import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.rules.RuleChain;
 import org.junit.rules.TestRule;
@@ -30,19 +47,34 @@ import org.junit.rules.TestRule;
  * Abstract API test implementation with utilities to make API calls, customize headers and make
  * assertions on JSON responses.
  *
- * <p>An API client is automatically created before each test and closed after each test.</p>
+ * <p>An API client is automatically created before each test and closed after each test. To reuse
+ * connections between tests, implementations can share the underlying HTTP client between the
+ * tests of a class or of the whole JVM (see {@link #getClientScope()}).</p>
  *
  * <p>Methods such as <tt>getResource</tt> and <tt>postResource</tt> are provided for GET, POST,
  * PUT, PATCH and DELETE. They perform the request (with a body for POST, PUT and PATCH) and return
- * an API test response.</p>
+ * an API test response. Asynchronous variants such as <tt>getResourceAsync</tt> return a future
+ * response instead of blocking, so that many requests can be in flight at the same time. Batches
+ * of requests can be performed concurrently with <tt>getResources</tt> and <tt>executeAll</tt>.</p>
  *
  * <p>A JsonPath asserter (see https://code.google.com/p/json-path/) is returned by
- * <tt>withJson</tt> methods. They can be used to run assertions on the response body.</p>
+ * <tt>withJson</tt> methods. They can be used to run assertions on the response body. Paths are
+ * compiled once and cached for the whole JVM (see {@link JsonPaths}).</p>
+ *
+ * <p>Requests can be distributed among several nodes of the tested API by overriding
+ * {@link #getEntryPoints()} and {@link #getEntryPointSelector()}. The latency and errors of the
+ * requests sent to each node are then recorded in its entry point.</p>
  *
  * @author Simon Oulevay (simon.oulevay@probedock.io)
  * @author Laurent Prevost, laurent.prevost@probedock.io
  */
 public abstract class AbstractApiTest {
+	/**
+	 * JUnit class rule to release the HTTP client shared by the tests of a class.
+	 */
+	@ClassRule
+	public static final ApiTestClassClientsRule classClientsRule = new ApiTestClassClientsRule();
+
 	/**
 	 * JUnit rule to create and release an HTTP client for each test.
 	 */
@@ -60,11 +92,11 @@ public abstract class AbstractApiTest {
 	private ApiTestHeaderConfigurationRule headerConfigurationRule;
 	
 	/**
-	 * The default API entry point (must be provided by implementations).
+	 * The balancer selecting the API entry point of each request.
 	 *
-	 * @see #getEntryPoint()
+	 * @see #getEntryPoints()
 	 */
-	private String entryPoint;
+	private ApiEntryPointBalancer balancer;
 	
 	/**
 	 * Chain of JUnit rules to apply to each test.
@@ -86,21 +118,11 @@ public abstract class AbstractApiTest {
 	private void build() {
 		preBuild();
 
-		// cache entry point
-		entryPoint = getEntryPoint();
+		// cache entry points
+		balancer = new ApiEntryPointBalancer(getEntryPoints(), getEntryPointSelector());
 
-		// Configure the Proxy for URL Connection if necessary
-		IApiTestClientConfiguration clientConfiguration = getClientConfiguration();
-		if (clientConfiguration != null && clientConfiguration.isProxyEnabled()) {
-			System.setProperty("http.proxyHost", clientConfiguration.getProxyHost());
-			System.setProperty("https.proxyHost", clientConfiguration.getProxyHost());
-			System.setProperty("http.proxyPort", clientConfiguration.getProxyPort() + "");
-			System.setProperty("https.proxyPort", clientConfiguration.getProxyPort() + "");
-		}
-		
-		
 		// create rules
-		clientRule = new ApiTestClientRule(getClientConfiguration());
+		clientRule = new ApiTestClientRule(getClientConfiguration(), getClientScope());
 		headersManagerRule = new ApiTestHeadersManagerRule();
 		headerConfigurationRule = new ApiTestHeaderConfigurationRule(getHeaderConfiguratorLocator(), headersManagerRule);
 
@@ -134,11 +156,45 @@ public abstract class AbstractApiTest {
 	 * @see #uri(java.lang.String[])
 	 */
 	protected abstract String getEntryPoint();
+
+	/**
+	 * Returns the API entry points among which requests are distributed. By default, there is only
+	 * the entry point returned by {@link #getEntryPoint()}. Entry points can be shared by several
+	 * test classes to collect their statistics for a whole test suite.
+	 *
+	 * @return a non-empty list of entry points
+	 * @see #getEntryPointSelector()
+	 */
+	protected List<ApiEntryPoint> getEntryPoints() {
+		return Collections.singletonList(new ApiEntryPoint(getEntryPoint()));
+	}
+
+	/**
+	 * Returns the strategy selecting the entry point of each request when there are several entry
+	 * points. By default, entry points are selected in turn.
+	 *
+	 * @return an entry point selector
+	 * @see #getEntryPoints()
+	 */
+	protected IApiEntryPointSelector getEntryPointSelector() {
+		return new RoundRobinApiEntryPointSelector();
+	}
 	
 	/**
 	 * @return The configuration for the client
 	 */
 	protected abstract IApiTestClientConfiguration getClientConfiguration();
+
+	/**
+	 * Returns the lifecycle of the HTTP client. By default, a new client is created for each test.
+	 * With a shared client, connections are kept open and reused between tests while cookies and
+	 * headers remain specific to each test.
+	 *
+	 * @return the client scope
+	 */
+	protected ApiTestClientScope getClientScope() {
+		return ApiTestClientScope.TEST;
+	}
 	
 	/**
 	 * Returns the operations that must be run after the HTTP client and headers manager have been
@@ -169,14 +225,74 @@ public abstract class AbstractApiTest {
 
 	//<editor-fold defaultstate="collapsed" desc="Helpers: URIs">
 	/**
-	 * Returns an URI builder relative to the default API entry point.
+	 * Returns the balancer selecting the API entry point of each request, e.g. to inspect the
+	 * statistics of its entry points.
+	 *
+	 * @return the entry point balancer
+	 * @see #getEntryPoints()
+	 */
+	protected ApiEntryPointBalancer getBalancer() {
+		return balancer;
+	}
+
+	/**
+	 * Returns an URI builder relative to the API entry points. The entry point is selected when
+	 * the URI is built.
 	 *
 	 * @param pathElements initial path elements (optional)
 	 * @return an URI builder
-	 * @see #getEntryPoint()
+	 * @see #getEntryPoints()
 	 */
 	protected ApiUriBuilder uri(String... pathElements) {
-		return new ApiUriBuilder(entryPoint).path(pathElements);
+		return new ApiUriBuilder(balancer).path(pathElements);
+	}
+
+	/**
+	 * Returns an URI builder relative to the API entry points, starting with an expanded
+	 * URI template:
+	 *
+	 * <pre>
+	 * private static final ApiUriTemplate ORDERS = ApiUriTemplate.compile("/users/{id}/orders{?page,size}");
+	 *
+	 * getResource(uri(ORDERS, 42, 1, 20));
+	 * </pre>
+	 *
+	 * @param template the URI template
+	 * @param values the values of the variables of the template, in order of first appearance
+	 * @return an URI builder
+	 * @see #getEntryPoints()
+	 */
+	protected ApiUriBuilder uri(ApiUriTemplate template, Object... values) {
+		return new ApiUriBuilder(balancer).expand(template, values);
+	}
+
+	/**
+	 * Returns an URI builder relative to the API entry points, starting with an expanded
+	 * URI template.
+	 *
+	 * @param template the URI template
+	 * @param values the values of the variables of the template by name
+	 * @return an URI builder
+	 * @see #getEntryPoints()
+	 */
+	protected ApiUriBuilder uri(ApiUriTemplate template, Map<String, ?> values) {
+		return new ApiUriBuilder(balancer).expand(template, values);
+	}
+
+	/**
+	 * Starts building a request template relative to the API entry points. The
+	 * <tt>Accept</tt> header of the template is set to <tt>application/json</tt>. Execute the
+	 * requests of the template with {@link #execute(ApiTestRequest)} so that request headers are
+	 * configured by the headers manager rule.
+	 *
+	 * @param method the HTTP method
+	 * @param pathTemplate the path of the requests, which may contain variables (e.g.
+	 * <tt>/users/{id}</tt>)
+	 * @return a request template builder
+	 * @see #getEntryPoints()
+	 */
+	protected ApiTestRequestTemplate.Builder requestTemplate(String method, String pathTemplate) {
+		return ApiTestRequestTemplate.builder(method, balancer, pathTemplate).header(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
 	}
 	//</editor-fold>
 
@@ -363,6 +479,143 @@ public abstract class AbstractApiTest {
 	}
 	//</editor-fold>
 
+	//<editor-fold defaultstate="collapsed" desc="Helpers: asynchronous HTTP requests">
+	/**
+	 * Performs a GET request on a resource without waiting for the response.
+	 *
+	 * @param singlePath a single path element
+	 * @return the future API response
+	 */
+	protected CompletableFuture<ApiTestResponse> getResourceAsync(String singlePath) {
+		return getResourceAsync(uri(singlePath));
+	}
+
+	/**
+	 * Performs a GET request on a resource without waiting for the response.
+	 *
+	 * @param uriBuilder URI builder
+	 * @return the future API response
+	 */
+	protected CompletableFuture<ApiTestResponse> getResourceAsync(ApiUriBuilder uriBuilder) {
+		return executeStandardRequestAsync(ApiTestRequest.GET, uriBuilder, null);
+	}
+
+	/**
+	 * Performs a POST request on a resource without waiting for the response.
+	 *
+	 * @param body the request body
+	 * @param singlePath a single path element
+	 * @return the future API response
+	 */
+	protected CompletableFuture<ApiTestResponse> postResourceAsync(JsonStructure body, String singlePath) {
+		return postResourceAsync(body, uri(singlePath));
+	}
+
+	/**
+	 * Performs a POST request on a resource without waiting for the response.
+	 *
+	 * @param body the request body
+	 * @param uriBuilder URI builder
+	 * @return the future API response
+	 */
+	protected CompletableFuture<ApiTestResponse> postResourceAsync(JsonStructure body, ApiUriBuilder uriBuilder) {
+		return executeStandardRequestAsync(ApiTestRequest.POST, uriBuilder, body != null ? ApiTestRequestBody.from(body) : null);
+	}
+
+	/**
+	 * Performs a POST request on a resource without waiting for the response.
+	 *
+	 * @param body the request body
+	 * @param uriBuilder URI builder
+	 * @return the future API response
+	 */
+	protected CompletableFuture<ApiTestResponse> postResourceAsync(ApiTestFormUrlEncoded body, ApiUriBuilder uriBuilder) {
+		return executeStandardRequestAsync(ApiTestRequest.POST, uriBuilder, body != null ? ApiTestRequestBody.from(body) : null);
+	}
+
+	/**
+	 * Performs a POST request on a resource without waiting for the response.
+	 *
+	 * @param body the request body
+	 * @param uriBuilder URI builder
+	 * @return the future API response
+	 */
+	protected CompletableFuture<ApiTestResponse> postResourceAsync(ApiTestMultipartFormData body, ApiUriBuilder uriBuilder) {
+		return executeStandardRequestAsync(ApiTestRequest.POST, uriBuilder, body != null ? ApiTestRequestBody.from(body) : null);
+	}
+
+	/**
+	 * Performs GET requests on many resources concurrently. Headers configured for the next request
+	 * only apply to the first one.
+	 *
+	 * @param uriBuilders URI builders
+	 * @return the API responses, in the same order as the URI builders
+	 * @see ApiTestClient#executeAll(java.util.Collection)
+	 */
+	protected List<ApiTestResponse> getResources(Collection<ApiUriBuilder> uriBuilders) {
+		final List<ApiTestRequest> requests = new ArrayList<>(uriBuilders.size());
+		for (ApiUriBuilder uriBuilder : uriBuilders) {
+			requests.add(buildStandardRequest(ApiTestRequest.GET, uriBuilder, null));
+		}
+
+		return clientRule.getClient().executeAll(requests);
+	}
+
+	/**
+	 * Performs an API request, e.g. built from a request template. Request headers are configured
+	 * by the headers manager rule.
+	 *
+	 * @param request the request to execute
+	 * @return the API response
+	 */
+	protected ApiTestResponse execute(ApiTestRequest request) {
+		headersManagerRule.getHeadersManager().applyConfiguration(request);
+		return clientRule.getClient().execute(request);
+	}
+
+	/**
+	 * Asynchronously performs an API request. Request headers are configured in the calling
+	 * thread, before the request is sent.
+	 *
+	 * @param request the request to execute
+	 * @return the future API response
+	 */
+	protected CompletableFuture<ApiTestResponse> executeAsync(ApiTestRequest request) {
+		headersManagerRule.getHeadersManager().applyConfiguration(request);
+		return clientRule.getClient().executeAsync(request);
+	}
+
+	/**
+	 * Performs API requests concurrently. Request headers are configured by the headers manager
+	 * rule; headers configured for the next request only apply to the first one.
+	 *
+	 * @param requests the requests to execute
+	 * @return the API responses, in the same order as the requests
+	 * @see ApiTestClient#executeAll(java.util.Collection)
+	 */
+	protected List<ApiTestResponse> executeAll(Collection<ApiTestRequest> requests) {
+		for (ApiTestRequest request : requests) {
+			headersManagerRule.getHeadersManager().applyConfiguration(request);
+		}
+
+		return clientRule.getClient().executeAll(requests);
+	}
+	//</editor-fold>
+
+	//<editor-fold defaultstate="collapsed" desc="Helpers: deadline">
+	/**
+	 * Limits the time left for the requests of the current test. Requests still in flight when the
+	 * deadline expires are cancelled, and subsequent requests fail immediately. This overrides the
+	 * deadline of the client configuration.
+	 *
+	 * @param timeout the time from now after which requests can no longer be made
+	 * @param unit the unit of the timeout
+	 */
+	protected void setDeadline(long timeout, TimeUnit unit) {
+		clientRule.getClient().setDeadline(timeout, unit);
+	}
+	//</editor-fold>
+
 	//<editor-fold defaultstate="collapsed" desc="Helpers: header configuration">
 	/**
 	 * Set a header for all subsequent requests. Previous headers with the same name are
@@ -521,6 +774,29 @@ public abstract class AbstractApiTest {
 	protected void removeHeadersForNextRequest(IApiHeaderConfiguration headerConfiguration) {
 		headersManagerRule.getHeadersManager().configure(ApiHeadersManager.Operation.REMOVE, headerConfiguration, false);
 	}
+
+	/**
+	 * Set a header for a specific request, e.g. a request executed concurrently with others.
+	 * Previous headers with the same name are overwritten (for that request). The header is
+	 * applied when the request is executed by this test.
+	 *
+	 * @param request the request to configure
+	 * @param header the header to set
+	 */
+	protected void setHeaderForRequest(ApiTestRequest request, ApiHeader header) {
+		headersManagerRule.getHeadersManager().configure(ApiHeadersManager.Operation.SET, header, request);
+	}
+
+	/**
+	 * Removes a header for a specific request. All headers with the specified name are removed
+	 * (for that request).
+	 *
+	 * @param request the request to configure
+	 * @param name name of the header to remove
+	 */
+	protected void removeHeaderForRequest(ApiTestRequest request, String name) {
+		headersManagerRule.getHeadersManager().configure(ApiHeadersManager.Operation.REMOVE, new ApiHeader(name, null), request);
+	}
 	//</editor-fold>
 
 	//<editor-fold defaultstate="collapsed" desc="Helpers: JSON assertions">
@@ -532,18 +808,19 @@ public abstract class AbstractApiTest {
 	 * @link https://code.google.com/p/json-path/
 	 */
 	protected JsonAsserter withJson(String response) {
-		return JsonAssert.with(response);
+		return new CompiledJsonAsserter(JsonPath.parse(response).json());
 	}
 
 	/**
-	 * Returns a JsonPath asserter for an API response.
+	 * Returns a JsonPath asserter for an API response. The response body is only parsed once for
+	 * all the assertions made on the same response.
 	 *
 	 * @param response the response whose body to run assertions on
 	 * @return a JSON asserter
 	 * @link https://code.google.com/p/json-path/
 	 */
 	protected JsonAsserter withJson(ApiTestResponse response) {
-		return withJson(response.getResponseAsString());
+		return new CompiledJsonAsserter(response.getJsonDocument().json());
 	}
 	//</editor-fold>
 
@@ -623,6 +900,33 @@ public abstract class AbstractApiTest {
 	 * @return the API response
 	 */
 	private ApiTestResponse executeStandardRequest(String method, ApiUriBuilder uriBuilder, ApiTestRequestBody entity) {
+		return clientRule.getClient().execute(buildStandardRequest(method, uriBuilder, entity));
+	}
+
+	/**
+	 * Asynchronously executes an API request that expects a JSON response. Request headers are
+	 * configured in the calling thread, before the request is sent.
+	 *
+	 * @param method the HTTP method
+	 * @param uriBuilder the URI builder
+	 * @param entity the entity to use as request body (it defines the <tt>Content-Type</tt> header)
+	 * @return the future API response
+	 * @see #executeStandardRequest(java.lang.String, io.probedock.api.test.client.ApiUriBuilder, io.probedock.api.test.client.ApiTestRequestBody)
+	 */
+	private CompletableFuture<ApiTestResponse> executeStandardRequestAsync(String method, ApiUriBuilder uriBuilder, ApiTestRequestBody entity) {
+		return clientRule.getClient().executeAsync(buildStandardRequest(method, uriBuilder, entity));
+	}
+
+	/**
+	 * Builds an API request that expects a JSON response. The <tt>Accept</tt> header is set to
+	 * <tt>application/json</tt> and request headers are configured by the headers manager rule.
+	 *
+	 * @param method the HTTP method
+	 * @param uriBuilder the URI builder
+	 * @param entity the entity to use as request body (it defines the <tt>Content-Type</tt> header)
+	 * @return the API request
+	 */
+	private ApiTestRequest buildStandardRequest(String method, ApiUriBuilder uriBuilder, ApiTestRequestBody entity) {
 
 		// build request and set Accept header
 		final ApiTestRequest request = new ApiTestRequest(method, uriBuilder, entity);
@@ -631,8 +935,7 @@ public abstract class AbstractApiTest {
 		// configure request headers
 		headersManagerRule.getHeadersManager().applyConfiguration(request);
 
-		// perform the request and return the response
-		return clientRule.getClient().execute(request);
+		return request;
 	}
 
 	/**
@@ -0,0 +1,634 @@
+package io.probedock.api.test.client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Transport based on Apache HTTP client (HTTP/1.1).
+ *
+ * <p>The blocking client uses a pooled connection manager configured by
+ * {@link IApiTestClientConfiguration} so that keep-alive connections can be reused by subsequent
+ * requests. Asynchronous requests are performed by a non-blocking client which is started on
+ * first use, so that a single thread can keep many requests in flight.</p>
+ *
+ * <p>All the phases of blocking requests are measured (see {@link ApiTestTiming}). The connection
+ * lease wait, connect and TLS handshake of asynchronous requests are not measured.</p>
+ *
+ * <p>The bodies of blocking requests are written to a temporary file while they are received if
+ * they exceed the spill threshold of the configuration. The non-blocking client buffers the whole
+ * body before it is written to a file.</p>
+ *
+ * <p>The non-blocking client sends file request bodies directly from the file to the connection
+ * where the platform allows it. Streaming bodies are generated by a separate thread while they are
+ * sent.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public class ApacheApiTestTransport implements IApiTestTransport {
+	/**
+	 * The timing of the request being executed by the blocking client on the current thread.
+	 */
+	private static final ThreadLocal<ApiTestTimingRecorder> CURRENT_TIMING = new ThreadLocal<>();
+
+	/**
+	 * The client configuration.
+	 */
+	private final IApiTestClientConfiguration clientConfiguration;
+
+	/**
+	 * The internal Apache HTTP client.
+	 */
+	private final CloseableHttpClient client;
+
+	/**
+	 * The transport owning the internal HTTP clients (this transport unless it is a session).
+	 */
+	private final ApacheApiTestTransport owner;
+
+	/**
+	 * The internal non-blocking Apache HTTP client (created on first use by the owner).
+	 */
+	private CloseableHttpAsyncClient asyncClient;
+
+	/**
+	 * The cookies received through this transport.
+	 */
+	private final CookieStore cookieStore;
+
+	/**
+	 * Constructs a new transport. The transport should be released with {@link #close()} when no
+	 * longer useful.
+	 *
+	 * @param clientConfiguration the client configuration
+	 */
+	public ApacheApiTestTransport(IApiTestClientConfiguration clientConfiguration) {
+		this.clientConfiguration = clientConfiguration;
+		this.client = buildHttpClient(clientConfiguration);
+		this.owner = this;
+		this.cookieStore = new BasicCookieStore();
+	}
+
+	/**
+	 * Constructs a new session of an existing transport.
+	 *
+	 * @param owner the transport owning the internal HTTP clients
+	 */
+	private ApacheApiTestTransport(ApacheApiTestTransport owner) {
+		this.clientConfiguration = owner.clientConfiguration;
+		this.client = owner.client;
+		this.owner = owner;
+		this.cookieStore = new BasicCookieStore();
+	}
+
+	@Override
+	public IApiTestTransport newSession() {
+		return new ApacheApiTestTransport(owner);
+	}
+
+	@Override
+	public void close() {
+		cookieStore.clear();
+
+		// the connection pool of a session belongs to the transport that created it
+		if (owner != this) {
+			return;
+		}
+
+		try {
+			client.close();
+
+			synchronized (this) {
+				if (asyncClient != null) {
+					asyncClient.close();
+				}
+			}
+		} catch (IOException ex) {
+			throw new ApiTestException("Could not close the HTTP client", ex);
+		}
+	}
+
+	@Override
+	public ApiTestResponse execute(ApiTestRequest request) {
+
+		final ApiTestTimingRecorder timing = new ApiTestTimingRecorder();
+		CURRENT_TIMING.set(timing);
+
+		final CloseableHttpResponse response;
+		try {
+
+			// execute the Apache request object
+			response = client.execute(request.getRequestObject(), createContext(request));
+
+			// build and return the API response
+			return buildResponse(response).enrichFromRequest(request).withTiming(timing.end());
+
+		} catch (IOException ioe) {
+			throw new ApiTestException("Could not complete request " + request, ioe);
+		} finally {
+			CURRENT_TIMING.remove();
+		}
+	}
+
+	@Override
+	public CompletableFuture<ApiTestResponse> executeAsync(final ApiTestRequest request) {
+
+		final CompletableFuture<ApiTestResponse> result = new CompletableFuture<>();
+		final ApiTestTimingRecorder timing = new ApiTestTimingRecorder();
+
+		// execute the Apache request object with a consumer that buffers the response body
+		final Future<HttpResponse> future = owner.getAsyncClient().execute(
+			new TimedRequestProducer(createRequestProducer(request.getRequestObject()), timing),
+			new TimedResponseConsumer(timing),
+			createContext(request),
+			new FutureCallback<HttpResponse>() {
+				@Override
+				public void completed(HttpResponse response) {
+					try {
+						result.complete(new ApiTestResponse(response, clientConfiguration.getResponseSpillThreshold()).enrichFromRequest(request).withTiming(timing.end()));
+					} catch (IOException ioe) {
+						result.completeExceptionally(new ApiTestException("Could not complete request " + request, ioe));
+					}
+				}
+
+				@Override
+				public void failed(Exception ex) {
+					result.completeExceptionally(new ApiTestException("Could not complete request " + request, ex));
+				}
+
+				@Override
+				public void cancelled() {
+					result.cancel(false);
+				}
+			});
+
+		// abort the request if the caller is no longer interested in the response
+		result.whenComplete((response, error) -> {
+			if (result.isCancelled()) {
+				future.cancel(true);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Creates the producer of an asynchronous request, using a dedicated producer for the body if
+	 * it has one.
+	 *
+	 * @param request the Apache request object
+	 * @return a request producer
+	 */
+	private static HttpAsyncRequestProducer createRequestProducer(HttpUriRequest request) {
+		if (request instanceof HttpEntityEnclosingRequest) {
+			final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			final HttpAsyncContentProducer contentProducer = entity != null ? ApiTestRequestBody.createAsyncProducer(entity) : null;
+			if (contentProducer != null) {
+				return new ContentRequestProducer(request, contentProducer);
+			}
+		}
+
+		return HttpAsyncMethods.create(request);
+	}
+
+	/**
+	 * Builds an API response wrapper from an Apache HTTP response. Ensures the HTTP response is
+	 * fully consumed and closed.
+	 *
+	 * @param response the HTTP response to consume
+	 * @return an API response
+	 * @throws IOException
+	 */
+	private ApiTestResponse buildResponse(CloseableHttpResponse response) throws IOException {
+
+		final ApiTestResponse responseWrapper;
+		try {
+			responseWrapper = new ApiTestResponse(response, clientConfiguration.getResponseSpillThreshold());
+			EntityUtils.consume(response.getEntity());
+		} finally {
+			response.close();
+		}
+
+		return responseWrapper;
+	}
+
+	/**
+	 * Creates the execution context of a request, bound to the state of this transport.
+	 *
+	 * @param request the request to execute
+	 * @return an HTTP context
+	 */
+	private HttpClientContext createContext(ApiTestRequest request) {
+		final HttpClientContext context = HttpClientContext.create();
+		context.setCookieStore(cookieStore);
+
+		// override the default timeouts of the client
+		if (request.getConnectTimeout() >= 0 || request.getSocketTimeout() >= 0) {
+			final RequestConfig.Builder requestConfig = RequestConfig.copy(buildRequestConfig(clientConfiguration));
+			if (request.getConnectTimeout() >= 0) {
+				requestConfig.setConnectTimeout(request.getConnectTimeout());
+			}
+			if (request.getSocketTimeout() >= 0) {
+				requestConfig.setSocketTimeout(request.getSocketTimeout());
+			}
+			context.setRequestConfig(requestConfig.build());
+		}
+
+		return context;
+	}
+
+	/**
+	 * Returns the internal non-blocking HTTP client, creating and starting it if necessary.
+	 *
+	 * @return a started Apache asynchronous HTTP client
+	 * @throws ApiTestException if the client could not be created
+	 */
+	private synchronized CloseableHttpAsyncClient getAsyncClient() {
+		if (asyncClient == null) {
+			asyncClient = buildAsyncHttpClient(clientConfiguration);
+			asyncClient.start();
+		}
+
+		return asyncClient;
+	}
+
+	/**
+	 * Builds the internal Apache HTTP client with a pooled connection manager.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return an Apache HTTP client
+	 */
+	private static CloseableHttpClient buildHttpClient(final IApiTestClientConfiguration clientConfiguration) {
+		// compression is negotiated and decoded by ApiTestClient and ApiTestResponse
+		final HttpClientBuilder builder = HttpClients.custom()
+			.disableContentCompression()
+			.setRequestExecutor(new TimedRequestExecutor())
+			.setDefaultRequestConfig(buildRequestConfig(clientConfiguration))
+			.setConnectionManager(buildConnectionManager(clientConfiguration))
+			.setKeepAliveStrategy(buildKeepAliveStrategy(clientConfiguration))
+			.setRoutePlanner(buildRoutePlanner(clientConfiguration));
+
+		// close idle and expired connections in the background
+		if (clientConfiguration.getIdleConnectionTimeout() >= 0) {
+			builder.evictExpiredConnections().evictIdleConnections(clientConfiguration.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Builds the internal non-blocking Apache HTTP client with a pooled connection manager.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return an Apache asynchronous HTTP client (not started)
+	 * @throws ApiTestException if the I/O reactor could not be created
+	 */
+	private static CloseableHttpAsyncClient buildAsyncHttpClient(IApiTestClientConfiguration clientConfiguration) {
+		final PoolingNHttpClientConnectionManager connectionManager;
+		try {
+			connectionManager = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT),
+				null,
+				RegistryBuilder.<SchemeIOSessionStrategy>create()
+					.register("http", NoopIOSessionStrategy.INSTANCE)
+					.register("https", SSLIOSessionStrategy.getDefaultStrategy())
+					.build(),
+				null,
+				null,
+				clientConfiguration.getConnectionTimeToLive(),
+				TimeUnit.MILLISECONDS);
+		} catch (IOReactorException ioe) {
+			throw new ApiTestException("Could not create the asynchronous HTTP client", ioe);
+		}
+
+		connectionManager.setMaxTotal(clientConfiguration.getMaxTotalConnections());
+		connectionManager.setDefaultMaxPerRoute(clientConfiguration.getMaxConnectionsPerRoute());
+
+		return HttpAsyncClients.custom()
+			.setDefaultRequestConfig(buildRequestConfig(clientConfiguration))
+			.setConnectionManager(connectionManager)
+			.setKeepAliveStrategy(buildKeepAliveStrategy(clientConfiguration))
+			.setRoutePlanner(buildRoutePlanner(clientConfiguration))
+			.build();
+	}
+
+	/**
+	 * Builds the default request configuration with the configured timeouts.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return a request configuration
+	 */
+	private static RequestConfig buildRequestConfig(IApiTestClientConfiguration clientConfiguration) {
+		return RequestConfig.custom()
+			.setConnectTimeout(clientConfiguration.getConnectTimeout())
+			.setSocketTimeout(clientConfiguration.getSocketTimeout())
+			.build();
+	}
+
+	/**
+	 * Builds the connection pool of the internal Apache HTTP client.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return a pooled connection manager
+	 */
+	private static PoolingHttpClientConnectionManager buildConnectionManager(IApiTestClientConfiguration clientConfiguration) {
+		final Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+			.register("http", PlainConnectionSocketFactory.getSocketFactory())
+			.register("https", new TimedSSLConnectionSocketFactory())
+			.build();
+
+		final PoolingHttpClientConnectionManager connectionManager = new TimedConnectionManager(socketFactories, clientConfiguration.getConnectionTimeToLive());
+		connectionManager.setMaxTotal(clientConfiguration.getMaxTotalConnections());
+		connectionManager.setDefaultMaxPerRoute(clientConfiguration.getMaxConnectionsPerRoute());
+		connectionManager.setValidateAfterInactivity(clientConfiguration.getValidateAfterInactivity());
+		return connectionManager;
+	}
+
+	/**
+	 * Builds a keep-alive strategy that honors the <tt>Keep-Alive</tt> timeout sent by the server
+	 * and falls back to the configured duration otherwise.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return a keep-alive strategy
+	 */
+	private static ConnectionKeepAliveStrategy buildKeepAliveStrategy(IApiTestClientConfiguration clientConfiguration) {
+		final long keepAliveDuration = clientConfiguration.getKeepAliveDuration();
+		return new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				final long duration = super.getKeepAliveDuration(response, context);
+				return duration >= 0 ? duration : keepAliveDuration;
+			}
+		};
+	}
+
+	/**
+	 * Builds a route planner sending requests through the configured proxy, except for the proxy
+	 * exceptions.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return a proxy route planner, or null if no proxy is enabled
+	 */
+	private static HttpRoutePlanner buildRoutePlanner(IApiTestClientConfiguration clientConfiguration) {
+		if (!clientConfiguration.isProxyEnabled()) {
+			return null;
+		}
+
+		final HttpHost proxy = new HttpHost(clientConfiguration.getProxyHost(), clientConfiguration.getProxyPort());
+		final ApiProxyExceptions proxyExceptions = ApiProxyExceptions.compile(clientConfiguration.getProxyExceptions());
+
+		// Create a proxy route planner to check if host should force to avoid using proxy
+		return new DefaultProxyRoutePlanner(proxy) {
+			@Override
+			protected HttpHost determineProxy(HttpHost target, HttpRequest request, HttpContext context) throws HttpException {
+				return proxyExceptions.matches(target.getHostName()) ? null : super.determineProxy(target, request, context);
+			}
+		};
+	}
+
+	/**
+	 * Connection pool measuring the connection lease wait and connect phases of blocking requests.
+	 */
+	private static class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+		TimedConnectionManager(Registry<ConnectionSocketFactory> socketFactories, long timeToLive) {
+			super(socketFactories, null, null, null, timeToLive, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+			final ConnectionRequest connectionRequest = super.requestConnection(route, state);
+
+			final ApiTestTimingRecorder timing = CURRENT_TIMING.get();
+			if (timing == null) {
+				return connectionRequest;
+			}
+
+			return new ConnectionRequest() {
+				@Override
+				public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+					final long start = System.nanoTime();
+					try {
+						return connectionRequest.get(timeout, tunit);
+					} finally {
+						timing.addLeaseWait(System.nanoTime() - start);
+					}
+				}
+
+				@Override
+				public boolean cancel() {
+					return connectionRequest.cancel();
+				}
+			};
+		}
+
+		@Override
+		public void connect(HttpClientConnection conn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+			final ApiTestTimingRecorder timing = CURRENT_TIMING.get();
+			if (timing == null) {
+				super.connect(conn, route, connectTimeout, context);
+				return;
+			}
+
+			// the TLS handshake of direct HTTPS connections happens while connecting
+			final long tlsBefore = Math.max(timing.getTlsHandshake(), 0);
+			final long start = System.nanoTime();
+			try {
+				super.connect(conn, route, connectTimeout, context);
+			} finally {
+				final long tls = Math.max(timing.getTlsHandshake(), 0) - tlsBefore;
+				timing.addConnect(System.nanoTime() - start - tls);
+			}
+		}
+	}
+
+	/**
+	 * Socket factory measuring the TLS handshake of blocking requests.
+	 */
+	private static class TimedSSLConnectionSocketFactory extends SSLConnectionSocketFactory {
+		TimedSSLConnectionSocketFactory() {
+			super(SSLContexts.createDefault(), getDefaultHostnameVerifier());
+		}
+
+		@Override
+		public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+			final ApiTestTimingRecorder timing = CURRENT_TIMING.get();
+			final long start = System.nanoTime();
+			try {
+				return super.createLayeredSocket(socket, target, port, context);
+			} finally {
+				if (timing != null) {
+					timing.addTlsHandshake(System.nanoTime() - start);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Request executor measuring the request write and time to first byte of blocking requests.
+	 */
+	private static class TimedRequestExecutor extends HttpRequestExecutor {
+		@Override
+		protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+			final ApiTestTimingRecorder timing = CURRENT_TIMING.get();
+			final long start = System.nanoTime();
+			try {
+				return super.doSendRequest(request, conn, context);
+			} finally {
+				if (timing != null) {
+					timing.addRequestWrite(System.nanoTime() - start);
+				}
+			}
+		}
+
+		@Override
+		protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context) throws HttpException, IOException {
+			final HttpResponse response = super.doReceiveResponse(request, conn, context);
+
+			final ApiTestTimingRecorder timing = CURRENT_TIMING.get();
+			if (timing != null) {
+				timing.firstByte();
+			}
+
+			return response;
+		}
+	}
+
+	/**
+	 * Request producer writing the body of an asynchronous request with a separate content producer.
+	 */
+	private static class ContentRequestProducer extends BasicAsyncRequestProducer {
+		ContentRequestProducer(HttpUriRequest request, HttpAsyncContentProducer contentProducer) {
+			super(URIUtils.extractHost(request.getURI()), (HttpEntityEnclosingRequest) request, contentProducer);
+		}
+	}
+
+	/**
+	 * Request producer measuring the request write of asynchronous requests.
+	 */
+	private static class TimedRequestProducer implements HttpAsyncRequestProducer {
+		private final HttpAsyncRequestProducer producer;
+		private final ApiTestTimingRecorder timing;
+		private long writeStart = -1;
+
+		TimedRequestProducer(HttpAsyncRequestProducer producer, ApiTestTimingRecorder timing) {
+			this.producer = producer;
+			this.timing = timing;
+		}
+
+		@Override
+		public HttpHost getTarget() {
+			return producer.getTarget();
+		}
+
+		@Override
+		public HttpRequest generateRequest() throws IOException, HttpException {
+			writeStart = System.nanoTime();
+			return producer.generateRequest();
+		}
+
+		@Override
+		public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+			producer.produceContent(encoder, ioctrl);
+		}
+
+		@Override
+		public void requestCompleted(HttpContext context) {
+			if (writeStart >= 0) {
+				timing.addRequestWrite(System.nanoTime() - writeStart);
+			}
+			producer.requestCompleted(context);
+		}
+
+		@Override
+		public void failed(Exception ex) {
+			producer.failed(ex);
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return producer.isRepeatable();
+		}
+
+		@Override
+		public void resetRequest() throws IOException {
+			producer.resetRequest();
+		}
+
+		@Override
+		public void close() throws IOException {
+			producer.close();
+		}
+	}
+
+	/**
+	 * Response consumer measuring the time to first byte of asynchronous requests.
+	 */
+	private static class TimedResponseConsumer extends BasicAsyncResponseConsumer {
+		private final ApiTestTimingRecorder timing;
+
+		TimedResponseConsumer(ApiTestTimingRecorder timing) {
+			this.timing = timing;
+		}
+
+		@Override
+		protected void onResponseReceived(HttpResponse response) throws IOException {
+			timing.firstByte();
+			super.onResponseReceived(response);
+		}
+	}
+}
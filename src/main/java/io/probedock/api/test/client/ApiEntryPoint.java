@@ -0,0 +1,189 @@
+package io.probedock.api.test.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * API entry point (base URI of one node of the tested API) with the statistics of the requests
+ * sent to it.
+ *
+ * <p>Requests are counted when they are executed by an {@link ApiTestClient} and their URI was
+ * built through an {@link ApiEntryPointBalancer}. A request is an error if it could not be
+ * completed (including timeouts and cancellations) or if its response has a <tt>5xx</tt> status.
+ * The latency of a request is the time from sending it to reading the whole response.</p>
+ *
+ * <p>Entry points are thread-safe. The same entry points can be shared by several tests to collect
+ * statistics for a whole test suite.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class ApiEntryPoint {
+	/**
+	 * The base URI.
+	 */
+	private final String uri;
+
+	/**
+	 * The number of requests in flight.
+	 */
+	private final AtomicInteger outstandingRequests = new AtomicInteger();
+
+	/**
+	 * The number of completed requests.
+	 */
+	private final LongAdder requestCount = new LongAdder();
+
+	/**
+	 * The number of completed requests which failed.
+	 */
+	private final LongAdder errorCount = new LongAdder();
+
+	/**
+	 * The sum of the latencies of completed requests, in nanoseconds.
+	 */
+	private final LongAdder totalLatency = new LongAdder();
+
+	/**
+	 * The highest latency of a completed request, in nanoseconds.
+	 */
+	private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Constructs a new entry point.
+	 *
+	 * @param uri the base URI (e.g. <tt>http://node1.example.com/api</tt>)
+	 */
+	public ApiEntryPoint(String uri) {
+		if (uri == null) {
+			throw new NullPointerException("Entry point URI is required");
+		}
+
+		this.uri = uri;
+	}
+
+	/**
+	 * Returns new entry points for the specified base URIs.
+	 *
+	 * @param uris the base URIs
+	 * @return a list of entry points, in the same order as the URIs
+	 */
+	public static List<ApiEntryPoint> of(String... uris) {
+		final List<ApiEntryPoint> entryPoints = new ArrayList<>(uris.length);
+		for (String uri : uris) {
+			entryPoints.add(new ApiEntryPoint(uri));
+		}
+
+		return entryPoints;
+	}
+
+	/**
+	 * Returns the base URI of this entry point.
+	 *
+	 * @return a base URI
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Returns the number of requests to this entry point which are in flight.
+	 *
+	 * @return a number of requests
+	 */
+	public int getOutstandingRequests() {
+		return outstandingRequests.get();
+	}
+
+	/**
+	 * Returns the number of completed requests to this entry point, including errors.
+	 *
+	 * @return a number of requests
+	 */
+	public long getRequestCount() {
+		return requestCount.sum();
+	}
+
+	/**
+	 * Returns the number of requests to this entry point which failed or received a <tt>5xx</tt>
+	 * response.
+	 *
+	 * @return a number of requests
+	 */
+	public long getErrorCount() {
+		return errorCount.sum();
+	}
+
+	/**
+	 * Returns the sum of the latencies of completed requests.
+	 *
+	 * @param unit the unit of the returned duration
+	 * @return a duration
+	 */
+	public long getTotalLatency(TimeUnit unit) {
+		return unit.convert(totalLatency.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the average latency of completed requests.
+	 *
+	 * @param unit the unit of the returned duration
+	 * @return a duration, or 0 if no request has completed
+	 */
+	public long getAverageLatency(TimeUnit unit) {
+		final long count = requestCount.sum();
+		return count > 0 ? unit.convert(totalLatency.sum() / count, TimeUnit.NANOSECONDS) : 0;
+	}
+
+	/**
+	 * Returns the highest latency of a completed request.
+	 *
+	 * @param unit the unit of the returned duration
+	 * @return a duration, or 0 if no request has completed
+	 */
+	public long getMaxLatency(TimeUnit unit) {
+		return unit.convert(maxLatency.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Resets the statistics of completed requests. Requests in flight are still counted when they
+	 * complete.
+	 */
+	public void resetStatistics() {
+		requestCount.reset();
+		errorCount.reset();
+		totalLatency.reset();
+		maxLatency.reset();
+	}
+
+	/**
+	 * Records that a request to this entry point has been sent.
+	 */
+	void requestStarted() {
+		outstandingRequests.incrementAndGet();
+	}
+
+	/**
+	 * Records that a request to this entry point has completed.
+	 *
+	 * @param latency the latency of the request in nanoseconds
+	 * @param failed whether the request failed or received a <tt>5xx</tt> response
+	 */
+	void requestCompleted(long latency, boolean failed) {
+		outstandingRequests.decrementAndGet();
+		requestCount.increment();
+		totalLatency.add(latency);
+		maxLatency.accumulate(latency);
+		if (failed) {
+			errorCount.increment();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return uri + " (requests: " + getRequestCount() + ", errors: " + getErrorCount() + ", outstanding: " + getOutstandingRequests() + ", average latency: " + getAverageLatency(TimeUnit.MILLISECONDS) + "ms)";
+	}
+}
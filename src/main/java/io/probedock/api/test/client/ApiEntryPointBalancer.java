@@ -0,0 +1,93 @@
+package io.probedock.api.test.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Client-side load balancer distributing requests among several entry points of an API (e.g. the
+ * nodes of a horizontally scaled cluster).
+ *
+ * <p>URI builders created with a balancer (see {@link ApiUriBuilder#ApiUriBuilder(ApiEntryPointBalancer)})
+ * select an entry point each time they build an URI; load-aware strategies select it again when
+ * the request is executed. The selection strategy is pluggable: see
+ * {@link RoundRobinApiEntryPointSelector}, {@link LeastOutstandingApiEntryPointSelector} and
+ * {@link ConsistentHashApiEntryPointSelector}. The latency and errors of the requests sent to each
+ * entry point are recorded in the entry point (see {@link ApiEntryPoint}).</p>
+ *
+ * <p>Balancers are thread-safe if their selector is.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class ApiEntryPointBalancer {
+	/**
+	 * The entry points.
+	 */
+	private final List<ApiEntryPoint> entryPoints;
+
+	/**
+	 * The selection strategy.
+	 */
+	private final IApiEntryPointSelector selector;
+
+	/**
+	 * Constructs a balancer for a single entry point.
+	 *
+	 * @param entryPoint the base URI of the API
+	 */
+	public ApiEntryPointBalancer(String entryPoint) {
+		this(ApiEntryPoint.of(entryPoint), new RoundRobinApiEntryPointSelector());
+	}
+
+	/**
+	 * Constructs a balancer.
+	 *
+	 * @param entryPoints the entry points
+	 * @param selector the selection strategy
+	 * @throws ApiTestException if there is no entry point
+	 */
+	public ApiEntryPointBalancer(List<ApiEntryPoint> entryPoints, IApiEntryPointSelector selector) {
+		if (entryPoints.isEmpty()) {
+			throw new ApiTestException("At least one entry point is required");
+		}
+
+		this.entryPoints = Collections.unmodifiableList(new ArrayList<>(entryPoints));
+		this.selector = selector;
+	}
+
+	/**
+	 * Returns the entry points of this balancer.
+	 *
+	 * @return an unmodifiable list of entry points
+	 */
+	public List<ApiEntryPoint> getEntryPoints() {
+		return entryPoints;
+	}
+
+	/**
+	 * Selects the entry point of a request. The selector is not used if there is only one entry
+	 * point.
+	 *
+	 * @param routingKey the routing key of the request (may be null)
+	 * @return an entry point
+	 */
+	public ApiEntryPoint select(String routingKey) {
+		return entryPoints.size() == 1 ? entryPoints.get(0) : selector.select(entryPoints, routingKey);
+	}
+
+	/**
+	 * Indicates whether the entry point of requests must be selected again when they are executed
+	 * (see {@link IApiEntryPointSelector#isLoadAware()}).
+	 *
+	 * @return true if the selector depends on the requests in flight and there are several entry
+	 * points
+	 */
+	public boolean isLoadAware() {
+		return entryPoints.size() > 1 && selector.isLoadAware();
+	}
+
+	@Override
+	public String toString() {
+		return entryPoints.toString();
+	}
+}
@@ -0,0 +1,267 @@
+package io.probedock.api.test.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled list of hosts which must be reached without going through the proxy.
+ *
+ * <p>The following exception formats are supported (case-insensitive):</p>
+ * <ul>
+ * <li>an exact host name or IP address, e.g. <tt>localhost</tt> or <tt>127.0.0.1</tt>;</li>
+ * <li>a domain suffix, e.g. <tt>*.example.com</tt> or <tt>.example.com</tt>, which matches
+ * <tt>example.com</tt> and all its subdomains;</li>
+ * <li>an IPv4 or IPv6 CIDR range, e.g. <tt>10.0.0.0/8</tt> or <tt>fd00::/8</tt>, which only
+ * matches IP address hosts (host names are never resolved).</li>
+ * </ul>
+ *
+ * <p>Exceptions are compiled once into hash sets so that matching a host does not depend on the
+ * number of exceptions, and decisions are cached per host. Instances are thread-safe.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class ApiProxyExceptions {
+	/**
+	 * The maximum number of cached decisions.
+	 */
+	private static final int MAX_CACHED_HOSTS = 1024;
+
+	/**
+	 * Exact host names and IP addresses.
+	 */
+	private final Set<String> hosts = new HashSet<>();
+
+	/**
+	 * Domain suffixes (without the leading wildcard and dot).
+	 */
+	private final Set<String> domains = new HashSet<>();
+
+	/**
+	 * IP address ranges.
+	 */
+	private final List<CidrRange> ranges = new ArrayList<>();
+
+	/**
+	 * Cached decisions per host.
+	 */
+	private final ConcurrentMap<String, Boolean> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Compiles proxy exceptions.
+	 *
+	 * @param exceptions the proxy exceptions (null, blank and empty values are ignored)
+	 * @return compiled proxy exceptions
+	 * @throws ApiTestException if a CIDR range is invalid
+	 */
+	public static ApiProxyExceptions compile(String[] exceptions) {
+		final ApiProxyExceptions compiled = new ApiProxyExceptions();
+
+		if (exceptions != null) {
+			for (String exception : exceptions) {
+				compiled.add(exception);
+			}
+		}
+
+		return compiled;
+	}
+
+	private ApiProxyExceptions() {
+	}
+
+	/**
+	 * Indicates whether the specified host must be reached without going through the proxy.
+	 *
+	 * @param host a host name or IP address (IPv6 addresses may be enclosed in brackets)
+	 * @return true if the host matches one of the exceptions
+	 */
+	public boolean matches(String host) {
+		if (host == null) {
+			return false;
+		}
+
+		final Boolean cached = cache.get(host);
+		if (cached != null) {
+			return cached;
+		}
+
+		final boolean matches = match(normalize(host));
+
+		// the cache is only a shortcut; simply start over if too many hosts are seen
+		if (cache.size() >= MAX_CACHED_HOSTS) {
+			cache.clear();
+		}
+		cache.put(host, matches);
+
+		return matches;
+	}
+
+	private boolean match(String host) {
+		if (hosts.contains(host)) {
+			return true;
+		}
+
+		if (!domains.isEmpty()) {
+			for (int i = host.indexOf('.'); i >= 0; i = host.indexOf('.', i + 1)) {
+				if (domains.contains(host.substring(i + 1))) {
+					return true;
+				}
+			}
+
+			if (domains.contains(host)) {
+				return true;
+			}
+		}
+
+		if (!ranges.isEmpty()) {
+			final byte[] address = parseAddress(host);
+			if (address != null) {
+				for (CidrRange range : ranges) {
+					if (range.contains(address)) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private void add(String exception) {
+		if (exception == null || exception.trim().isEmpty()) {
+			return;
+		}
+
+		final String normalized = normalize(exception);
+
+		final int slash = normalized.indexOf('/');
+		if (slash >= 0) {
+			ranges.add(parseRange(exception, normalized.substring(0, slash), normalized.substring(slash + 1)));
+		} else if (normalized.startsWith("*.")) {
+			domains.add(normalized.substring(2));
+		} else if (normalized.startsWith(".")) {
+			domains.add(normalized.substring(1));
+		} else {
+			hosts.add(normalized);
+		}
+	}
+
+	private static CidrRange parseRange(String exception, String network, String prefixLength) {
+		final byte[] address = parseAddress(network);
+		if (address == null) {
+			throw new ApiTestException("Invalid proxy exception " + exception + ": " + network + " is not an IP address");
+		}
+
+		final int prefix;
+		try {
+			prefix = Integer.parseInt(prefixLength);
+		} catch (NumberFormatException nfe) {
+			throw new ApiTestException("Invalid proxy exception " + exception + ": bad prefix length", nfe);
+		}
+
+		if (prefix < 0 || prefix > address.length * 8) {
+			throw new ApiTestException("Invalid proxy exception " + exception + ": bad prefix length");
+		}
+
+		return new CidrRange(address, prefix);
+	}
+
+	/**
+	 * Parses an IP address literal without performing any name resolution.
+	 *
+	 * @param host a host
+	 * @return the address bytes, or null if the host is not an IP address
+	 */
+	private static byte[] parseAddress(String host) {
+		if (host.indexOf(':') >= 0) {
+			for (char c : host.toCharArray()) {
+				if (Character.digit(c, 16) < 0 && c != ':' && c != '.' && c != '%') {
+					return null;
+				}
+			}
+
+			try {
+				// IPv6 literals are never resolved
+				return InetAddress.getByName(host).getAddress();
+			} catch (UnknownHostException | SecurityException e) {
+				return null;
+			}
+		}
+
+		final String[] parts = host.split("\\.", -1);
+		if (parts.length != 4) {
+			return null;
+		}
+
+		final byte[] address = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			if (parts[i].isEmpty() || parts[i].length() > 3) {
+				return null;
+			}
+
+			int value = 0;
+			for (char c : parts[i].toCharArray()) {
+				if (c < '0' || c > '9') {
+					return null;
+				}
+				value = value * 10 + (c - '0');
+			}
+
+			if (value > 255) {
+				return null;
+			}
+
+			address[i] = (byte) value;
+		}
+
+		return address;
+	}
+
+	private static String normalize(String host) {
+		String normalized = host.trim().toLowerCase(Locale.ENGLISH);
+		if (normalized.startsWith("[") && normalized.endsWith("]")) {
+			normalized = normalized.substring(1, normalized.length() - 1);
+		}
+		return normalized;
+	}
+
+	/**
+	 * An IP address range.
+	 */
+	private static class CidrRange {
+		private final byte[] network;
+		private final int prefix;
+
+		CidrRange(byte[] network, int prefix) {
+			this.network = network;
+			this.prefix = prefix;
+		}
+
+		boolean contains(byte[] address) {
+			if (address.length != network.length) {
+				return false;
+			}
+
+			final int fullBytes = prefix / 8;
+			for (int i = 0; i < fullBytes; i++) {
+				if (address[i] != network[i]) {
+					return false;
+				}
+			}
+
+			final int remainingBits = prefix % 8;
+			if (remainingBits == 0) {
+				return true;
+			}
+
+			final int mask = (0xff << (8 - remainingBits)) & 0xff;
+			return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+		}
+	}
+}
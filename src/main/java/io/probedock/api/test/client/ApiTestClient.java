@@ -1,28 +1,76 @@
 package io.probedock.api.test.client;
 
-import java.io.IOException;
-import org.apache.http.HttpException;
-import org.apache.http.HttpHost;
-import org.apache.http.HttpRequest;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.conn.routing.HttpRoute;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
-import org.apache.http.protocol.HttpContext;
-import org.apache.http.util.EntityUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.HttpHeaders;
 
 /**
  * HTTP client wrapper.
  *
+ * <p>Requests are sent through a transport created by
+ * {@link IApiTestClientConfiguration#createTransport()}: by default Apache HTTP client (HTTP/1.1)
+ * with a pooled connection manager, or {@link JdkApiTestTransport} to multiplex requests over
+ * HTTP/2 connections. A client can be shared by several tests through sessions (see
+ * {@link #newSession()}): all sessions use the same connections but each one has its own state
+ * (e.g. cookies).</p>
+ *
+ * <p>Requests can also be executed asynchronously with {@link #executeAsync(ApiTestRequest)}.
+ * Batches of independent requests can be executed with {@link #executeAll(java.util.Collection)}.</p>
+ *
+ * <p>Requests are cancelled if they do not complete within their overall timeout (see
+ * {@link ApiTestRequest#setRequestTimeout(long)}) or before the deadline of the client (see
+ * {@link #setDeadline(long, java.util.concurrent.TimeUnit)}). Blocking requests are still
+ * executed on the calling thread and are aborted when they expire (see
+ * {@link ApiTestRequest#abort()}).</p>
+ *
+ * <p>The latency and errors of requests whose URI was built through an
+ * {@link ApiEntryPointBalancer} are recorded in their entry point (see
+ * {@link ApiTestRequest#getEntryPoint()}).</p>
+ *
  * @author Simon Oulevay <simon.oulevay@probedock.io>
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  */
 public class ApiTestClient {
 	/**
-	 * The internal Apache HTTP client.
+	 * Expires the requests of all clients which do not complete in time.
 	 */
-	private final CloseableHttpClient client;
+	private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER = buildTimeoutScheduler();
+
+	/**
+	 * The client configuration.
+	 */
+	private final IApiTestClientConfiguration clientConfiguration;
+
+	/**
+	 * The transport used to send requests.
+	 */
+	private final IApiTestTransport transport;
+
+	/**
+	 * The time (see {@link System#nanoTime()}) after which requests can no longer be made.
+	 */
+	private volatile long deadline;
+
+	/**
+	 * Whether a deadline is set.
+	 */
+	private volatile boolean deadlineEnabled;
+
+	/**
+	 * The responses whose body was written to a temporary file, released when the client is closed.
+	 */
+	private final Queue<ApiTestResponse> spilledResponses = new ConcurrentLinkedQueue<>();
 
 	/**
 	 * Constructs a new client. The client should be released with {@link #close()} when no longer
@@ -31,44 +79,45 @@ public class ApiTestClient {
 	 * @param clientConfiguration  The client configuration
 	 */
 	public ApiTestClient(final IApiTestClientConfiguration clientConfiguration) {
-		if (clientConfiguration.isProxyEnabled()) {
-			HttpHost proxy = new HttpHost(clientConfiguration.getProxyHost(), clientConfiguration.getProxyPort());
-
-			// Create a proxy route planner to check if host should force to avoid using proxy
-			DefaultProxyRoutePlanner routePlanner = new DefaultProxyRoutePlanner(proxy) {
-				@Override
-				public HttpRoute determineRoute(HttpHost host, HttpRequest request, HttpContext context) throws HttpException {
-					// Retrieve the host name
-					String hostname = host.getHostName();
-					
-					// Check each exceptions
-					for (String hostToCheck : clientConfiguration.getProxyExceptions()) {
-						if (hostname.equals(hostToCheck)) {
-							return new HttpRoute(host);
-						}
-					}
-					
-					return super.determineRoute(host, request, context);
-				}
-			};
-			
-			client = HttpClients.custom().setRoutePlanner(routePlanner).build();
-		}
-		else {
-			client = HttpClients.createDefault();
-		}
+		this(clientConfiguration, clientConfiguration.createTransport());
+	}
+
+	/**
+	 * Constructs a new client using the specified transport. The client should be released with
+	 * {@link #close()} when no longer useful; this also closes the transport.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @param transport the transport used to send requests
+	 */
+	public ApiTestClient(final IApiTestClientConfiguration clientConfiguration, final IApiTestTransport transport) {
+		this.clientConfiguration = clientConfiguration;
+		this.transport = transport;
+	}
+
+	/**
+	 * Returns a new session of this client. The session shares the connections of this client,
+	 * so that open connections can be reused, but has its own state. Closing the session only
+	 * clears its state; the connections are released when this client is closed.
+	 *
+	 * @return a new API test client sharing the connections of this client
+	 */
+	public ApiTestClient newSession() {
+		return new ApiTestClient(clientConfiguration, transport.newSession());
 	}
 	
 	/**
-	 * Closes this client and all associated resources.
+	 * Closes this client and all associated resources, including the temporary files of the
+	 * responses it received (see {@link ApiTestResponse#release()}).
 	 *
 	 * @throws ApiTestException if the client could not be closed
 	 */
 	public void close() {
 		try {
-			client.close();
-		} catch (IOException ex) {
-			throw new ApiTestException("Could not close the HTTP client", ex);
+			for (ApiTestResponse response = spilledResponses.poll(); response != null; response = spilledResponses.poll()) {
+				response.release();
+			}
+		} finally {
+			transport.close();
 		}
 	}
 
@@ -80,39 +129,377 @@ public class ApiTestClient {
 	 * @throws ApiTestException if an error occurred executing the request or consuming the response
 	 */
 	public ApiTestResponse execute(ApiTestRequest request) {
+		final long timeout = getTimeout(request);
+		if (timeout <= 0) {
+			return track(executeAndRecord(prepare(request)));
+		}
+
+		// abort the request from the scheduler if it does not complete in time
+		final RequestExpiry expiry = new RequestExpiry(request);
+		final ScheduledFuture<?> expiryTask = TIMEOUT_SCHEDULER.schedule(expiry, timeout, TimeUnit.MILLISECONDS);
+
+		final ApiTestResponse response;
+		try {
+			response = executeAndRecord(prepare(request));
+		} catch (ApiTestException ate) {
+			throw expiry.complete() ? ate : new ApiTestException(getTimeoutMessage(request, timeout), ate);
+		} finally {
+			expiryTask.cancel(false);
+		}
+
+		// some transports (e.g. in-process) cannot be interrupted once the request has been sent
+		if (!expiry.complete()) {
+			response.release();
+			throw new ApiTestException(getTimeoutMessage(request, timeout));
+		}
+
+		return track(response);
+	}
 
-		final CloseableHttpResponse response;
+	/**
+	 * Performs an API request without blocking the calling thread. The response body is fully
+	 * read before the returned future completes. Cancelling the future aborts the request.
+	 *
+	 * @param request the request to execute
+	 * @return a future API response, completed exceptionally with an {@link ApiTestException} if
+	 * an error occurred executing the request or consuming the response
+	 */
+	public CompletableFuture<ApiTestResponse> executeAsync(ApiTestRequest request) {
 		try {
+			return executeAsync(request, getTimeout(request));
+		} catch (ApiTestException ate) {
+			final CompletableFuture<ApiTestResponse> result = new CompletableFuture<>();
+			result.completeExceptionally(ate);
+			return result;
+		}
+	}
+
+	/**
+	 * Sets a deadline for all subsequent requests of this client. Requests which are still in
+	 * flight when the deadline expires are cancelled, and requests made after it has expired fail
+	 * immediately. This is typically used to limit the time spent by a test.
+	 *
+	 * @param timeout the time from now after which requests can no longer be made
+	 * @param unit the unit of the timeout
+	 */
+	public void setDeadline(long timeout, TimeUnit unit) {
+		deadline = System.nanoTime() + unit.toNanos(timeout);
+		deadlineEnabled = true;
+	}
+
+	/**
+	 * Removes the deadline of this client.
+	 */
+	public void clearDeadline() {
+		deadlineEnabled = false;
+	}
+
+	/**
+	 * Performs a batch of API requests concurrently and waits for all responses. The number of
+	 * requests in flight is limited by {@link IApiTestClientConfiguration#getMaxConcurrentRequests()}.
+	 *
+	 * @param requests the requests to execute
+	 * @return the API responses, in the same order as the requests
+	 * @throws ApiTestException if an error occurred executing one of the requests (the other
+	 * requests are then cancelled)
+	 * @see #executeAll(java.util.Collection, int)
+	 */
+	public List<ApiTestResponse> executeAll(Collection<ApiTestRequest> requests) {
+		return executeAll(requests, clientConfiguration.getMaxConcurrentRequests());
+	}
+
+	/**
+	 * Performs a batch of API requests concurrently and waits for all responses. Requests are
+	 * executed asynchronously (see {@link #executeAsync(ApiTestRequest)}) so no thread is used per
+	 * request in flight. As soon as a request fails, no other request is sent and the requests in
+	 * flight are cancelled.
+	 *
+	 * @param requests the requests to execute
+	 * @param maxConcurrency the maximum number of requests in flight
+	 * @return the API responses, in the same order as the requests
+	 * @throws IllegalArgumentException if the maximum number of requests in flight is lower than 1
+	 * @throws ApiTestException if an error occurred executing one of the requests (the other
+	 * requests are then cancelled)
+	 */
+	public List<ApiTestResponse> executeAll(Collection<ApiTestRequest> requests, int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Maximum concurrency must be at least 1");
+		}
+
+		final List<CompletableFuture<ApiTestResponse>> futures = new ArrayList<>(requests.size());
+		final Semaphore permits = new Semaphore(maxConcurrency);
+
+		// completed exceptionally by the first failed request
+		final CompletableFuture<Void> failure = new CompletableFuture<>();
+
+		try {
+			for (ApiTestRequest request : requests) {
+
+				// wait until a request completes if too many are in flight
+				permits.acquire();
+				if (failure.isDone()) {
+					break;
+				}
+
+				final CompletableFuture<ApiTestResponse> future = executeAsync(request);
+				future.whenComplete((response, error) -> {
+					// record the failure before a waiting request can be sent
+					if (error != null) {
+						failure.completeExceptionally(error);
+					}
+
+					permits.release();
+				});
+
+				futures.add(future);
+			}
+
+			// wait for all responses or for the first failure
+			CompletableFuture.anyOf(failure, CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))).join();
+		} catch (InterruptedException ie) {
+			cancelAll(futures);
+			Thread.currentThread().interrupt();
+			throw new ApiTestException("Interrupted while executing requests", ie);
+		} catch (CompletionException | CancellationException e) {
+			cancelAll(futures);
+
+			final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			throw cause instanceof ApiTestException ? (ApiTestException) cause : new ApiTestException("Could not complete requests", cause);
+		} catch (RuntimeException re) {
+			cancelAll(futures);
+			throw re;
+		}
 
-			// execute the Apache request object
-			response = client.execute(request.getRequestObject());
+		final List<ApiTestResponse> responses = new ArrayList<>(futures.size());
+		for (CompletableFuture<ApiTestResponse> future : futures) {
+			responses.add(future.join());
+		}
 
-			// build and return the API response
-			return buildResponse(response).enrichFromRequest(request);
+		return responses;
+	}
 
-		} catch (IOException ioe) {
-			throw new ApiTestException("Could not complete request " + request, ioe);
+	/**
+	 * Cancels requests that are still in flight.
+	 *
+	 * @param futures the future responses of the requests
+	 */
+	private static void cancelAll(List<CompletableFuture<ApiTestResponse>> futures) {
+		for (CompletableFuture<ApiTestResponse> future : futures) {
+			future.cancel(true);
 		}
 	}
 
 	/**
-	 * Builds an API response wrapper from an Apache HTTP response. Ensures the HTTP response is
-	 * fully consumed and closed.
+	 * Performs an API request asynchronously, cancelling it if it does not complete in time.
 	 *
-	 * @param response the HTTP response to consume
-	 * @return an API response
-	 * @throws IOException
+	 * @param request the request to execute
+	 * @param timeout the overall timeout of the request in milliseconds (0 for no timeout)
+	 * @return a future API response
 	 */
-	private ApiTestResponse buildResponse(CloseableHttpResponse response) throws IOException {
+	private CompletableFuture<ApiTestResponse> executeAsync(final ApiTestRequest request, final long timeout) {
+		final CompletableFuture<ApiTestResponse> future = executeAsyncAndRecord(prepare(request));
+		future.thenAccept(this::track);
+		if (timeout <= 0) {
+			return future;
+		}
+
+		final CompletableFuture<ApiTestResponse> result = new CompletableFuture<>();
+		future.whenComplete((response, error) -> {
+			if (error != null) {
+				result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+			} else {
+				result.complete(response);
+			}
+		});
+
+		// abort the request when it expires or if the caller is no longer interested in it
+		final ScheduledFuture<?> expiryTask = TIMEOUT_SCHEDULER.schedule(() -> {
+			result.completeExceptionally(new ApiTestException(getTimeoutMessage(request, timeout)));
+		}, timeout, TimeUnit.MILLISECONDS);
+		result.whenComplete((response, error) -> {
+			expiryTask.cancel(false);
+			if (error != null) {
+				future.cancel(true);
+			}
+		});
+
+		return result;
+	}
 
-		final ApiTestResponse responseWrapper;
+	/**
+	 * Performs a request through the transport, recording its latency and outcome in its entry
+	 * point.
+	 *
+	 * @param request the request to execute
+	 * @return the API response
+	 */
+	private ApiTestResponse executeAndRecord(ApiTestRequest request) {
+		request.reselectEntryPoint();
+
+		final ApiEntryPoint entryPoint = request.getEntryPoint();
+		if (entryPoint == null) {
+			return transport.execute(request);
+		}
+
+		entryPoint.requestStarted();
+		final long start = System.nanoTime();
+
+		boolean failed = true;
 		try {
-			responseWrapper = new ApiTestResponse(response);
-			EntityUtils.consume(response.getEntity());
+			final ApiTestResponse response = transport.execute(request);
+			failed = response.getStatus() >= 500;
+			return response;
 		} finally {
-			response.close();
+			entryPoint.requestCompleted(System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Performs a request asynchronously through the transport, recording its latency and outcome
+	 * in its entry point.
+	 *
+	 * @param request the request to execute
+	 * @return a future API response
+	 */
+	private CompletableFuture<ApiTestResponse> executeAsyncAndRecord(ApiTestRequest request) {
+		request.reselectEntryPoint();
+
+		final ApiEntryPoint entryPoint = request.getEntryPoint();
+		if (entryPoint == null) {
+			return transport.executeAsync(request);
+		}
+
+		entryPoint.requestStarted();
+		final long start = System.nanoTime();
+
+		final CompletableFuture<ApiTestResponse> future;
+		try {
+			future = transport.executeAsync(request);
+		} catch (RuntimeException e) {
+			entryPoint.requestCompleted(System.nanoTime() - start, true);
+			throw e;
+		}
+
+		// cancelled requests are completed exceptionally and recorded as errors
+		future.whenComplete((response, error) -> entryPoint.requestCompleted(System.nanoTime() - start, error != null || response.getStatus() >= 500));
+		return future;
+	}
+
+	/**
+	 * Returns the overall timeout of a request, taking into account the deadline of this client.
+	 *
+	 * @param request the request to execute
+	 * @return a timeout in milliseconds, or 0 for no timeout
+	 * @throws ApiTestException if the deadline has expired
+	 */
+	private long getTimeout(ApiTestRequest request) {
+		long timeout = request.getRequestTimeout();
+		if (timeout < 0) {
+			timeout = clientConfiguration != null ? clientConfiguration.getRequestTimeout() : 0;
+		}
+
+		if (deadlineEnabled) {
+			final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				throw new ApiTestException("Deadline expired before request " + request);
+			}
+
+			timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+		}
+
+		return timeout;
+	}
+
+	/**
+	 * Returns the message of the exception thrown when a request expires.
+	 *
+	 * @param request the expired request
+	 * @param timeout the timeout of the request in milliseconds
+	 * @return an error message
+	 */
+	private static String getTimeoutMessage(ApiTestRequest request, long timeout) {
+		return "Request " + request + " did not complete within " + timeout + "ms";
+	}
+
+	/**
+	 * Keeps track of a response so that its temporary file is released when this client is closed.
+	 *
+	 * @param response an API response
+	 * @return the same response
+	 */
+	private ApiTestResponse track(ApiTestResponse response) {
+		if (response.isSpilled()) {
+			spilledResponses.add(response);
+		}
+
+		return response;
+	}
+
+	/**
+	 * Applies the compression settings of the client configuration to a request.
+	 *
+	 * @param request the request to send
+	 * @return the same request
+	 */
+	private ApiTestRequest prepare(ApiTestRequest request) {
+		if (clientConfiguration == null) {
+			return request;
 		}
 
-		return responseWrapper;
+		if (clientConfiguration.isResponseCompressionEnabled() && !request.getRequestObject().containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+			request.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+		}
+
+		if (clientConfiguration.isRequestCompressionEnabled()) {
+			request.compressBody();
+		}
+
+		return request;
+	}
+
+	/**
+	 * Builds the scheduler expiring requests. Its thread is a daemon so that it does not prevent the
+	 * JVM from exiting, and cancelled tasks are removed immediately so that the requests which
+	 * complete in time are not retained until their timeout.
+	 *
+	 * @return a scheduled executor
+	 */
+	private static ScheduledThreadPoolExecutor buildTimeoutScheduler() {
+		final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+			final Thread thread = new Thread(runnable, "api-test-client-timeouts");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+	/**
+	 * Aborts a blocking request when it expires, unless it has completed first.
+	 */
+	private static class RequestExpiry implements Runnable {
+		private final ApiTestRequest request;
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		RequestExpiry(ApiTestRequest request) {
+			this.request = request;
+		}
+
+		@Override
+		public void run() {
+			if (done.compareAndSet(false, true)) {
+				request.abort();
+			}
+		}
+
+		/**
+		 * Marks the request as completed.
+		 *
+		 * @return true if the request completed before it expired
+		 */
+		boolean complete() {
+			return done.compareAndSet(false, true);
+		}
 	}
 }
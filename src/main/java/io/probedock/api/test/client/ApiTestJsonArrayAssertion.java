@@ -0,0 +1,358 @@
+package io.probedock.api.test.client;
+
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+
+/**
+ * Streaming assertions on the elements of a response body which is a JSON array.
+ *
+ * <p>The body is read with a JSON parser when {@link #verify()} is called: each element of the
+ * array is built, checked against all element matchers and accumulated by all collectors, then
+ * discarded. Neither the whole array nor a string of the body is ever built, so memory usage only
+ * depends on the size of the largest element. Verification stops at the first element which does
+ * not match.</p>
+ *
+ * <pre>
+ * response.assertJsonArray()
+ *   .each(hasKey("id"))
+ *   .each(item -&gt; ((JsonObject) item).getString("status"), isIn(STATUSES))
+ *   .collect("total", Collectors.summingLong(item -&gt; ((JsonObject) item).getJsonNumber("amount").longValue()), equalTo(1234L))
+ *   .size(greaterThan(0))
+ *   .verify();
+ * </pre>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestJsonArrayAssertion {
+	/**
+	 * The factory of the builders of elements (looking up the JSON provider for each builder is
+	 * slow).
+	 */
+	private static final JsonBuilderFactory BUILDERS = Json.createBuilderFactory(null);
+
+	/**
+	 * The response whose body is verified.
+	 */
+	private final ApiTestResponse response;
+
+	/**
+	 * The checks applied to each element.
+	 */
+	private final List<ElementCheck<?>> elementChecks = new ArrayList<>();
+
+	/**
+	 * The aggregations of the elements.
+	 */
+	private final List<Aggregation<?, ?>> aggregations = new ArrayList<>();
+
+	/**
+	 * The matcher of the number of elements (null if it is not checked).
+	 */
+	private Matcher<? super Integer> sizeMatcher;
+
+	/**
+	 * Constructs new assertions on the body of a response.
+	 *
+	 * @param response the response to verify
+	 * @see ApiTestResponse#assertJsonArray()
+	 */
+	protected ApiTestJsonArrayAssertion(ApiTestResponse response) {
+		this.response = response;
+	}
+
+	/**
+	 * Checks that each element of the array matches.
+	 *
+	 * @param matcher the matcher of an element (a <tt>javax.json.JsonValue</tt>, usually a
+	 * <tt>JsonObject</tt>)
+	 * @return this
+	 */
+	public ApiTestJsonArrayAssertion each(Matcher<?> matcher) {
+		elementChecks.add(new ElementCheck<>(null, Function.identity(), matcher));
+		return this;
+	}
+
+	/**
+	 * Checks that a value extracted from each element of the array matches.
+	 *
+	 * @param <T> the type of the extracted value
+	 * @param extractor the function extracting the value to check from an element
+	 * @param matcher the matcher of the extracted value
+	 * @return this
+	 */
+	public <T> ApiTestJsonArrayAssertion each(Function<? super JsonValue, T> extractor, Matcher<? super T> matcher) {
+		elementChecks.add(new ElementCheck<>("value extracted from ", extractor, matcher));
+		return this;
+	}
+
+	/**
+	 * Aggregates all elements of the array and checks the result once the whole array has been
+	 * read. Elements are accumulated one by one as they are read, so collectors such as
+	 * <tt>Collectors.toList()</tt> should be avoided for large arrays.
+	 *
+	 * @param <R> the type of the result
+	 * @param description the description of the result, used in assertion errors
+	 * @param collector the collector of the elements
+	 * @param matcher the matcher of the result
+	 * @return this
+	 */
+	public <R> ApiTestJsonArrayAssertion collect(String description, Collector<? super JsonValue, ?, R> collector, Matcher<? super R> matcher) {
+		aggregations.add(new Aggregation<>(description, collector, matcher));
+		return this;
+	}
+
+	/**
+	 * Checks the number of elements of the array once the whole array has been read.
+	 *
+	 * @param matcher the matcher of the number of elements
+	 * @return this
+	 */
+	public ApiTestJsonArrayAssertion size(Matcher<? super Integer> matcher) {
+		this.sizeMatcher = matcher;
+		return this;
+	}
+
+	/**
+	 * Reads the response body and verifies all assertions.
+	 *
+	 * @throws AssertionError if the body is not a JSON array or if an assertion fails
+	 * @throws JsonException if the body is not valid JSON
+	 * @throws ApiTestException if the body of the response has been released
+	 */
+	public void verify() {
+		final List<Aggregation<?, ?>.State> states = new ArrayList<>(aggregations.size());
+		for (Aggregation<?, ?> aggregation : aggregations) {
+			states.add(aggregation.start());
+		}
+
+		int size = 0;
+		try (JsonParser parser = Json.createParser(new InputStreamReader(response.getResponseAsStream(), response.getCharset()))) {
+			if (!parser.hasNext() || parser.next() != JsonParser.Event.START_ARRAY) {
+				throw new AssertionError("Expected response body to be a JSON array");
+			}
+
+			for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_ARRAY; event = parser.next()) {
+				final JsonValue element = readElement(parser, event);
+
+				for (ElementCheck<?> check : elementChecks) {
+					check.verify(size, element);
+				}
+
+				for (Aggregation<?, ?>.State state : states) {
+					state.accumulate(element);
+				}
+
+				size++;
+			}
+		}
+
+		if (sizeMatcher != null && !sizeMatcher.matches(size)) {
+			throw new AssertionError(describeMismatch("array size", sizeMatcher, size));
+		}
+
+		for (Aggregation<?, ?>.State state : states) {
+			state.verify();
+		}
+	}
+
+	/**
+	 * Builds the array element starting at the current event of a parser.
+	 *
+	 * @param parser the parser
+	 * @param event the first event of the element
+	 * @return the JSON element
+	 */
+	private static JsonValue readElement(JsonParser parser, JsonParser.Event event) {
+
+		// JSON-P 1.0 can only create values through builders
+		final JsonArrayBuilder builder = BUILDERS.createArrayBuilder();
+		readValue(parser, event, builder);
+		return builder.build().get(0);
+	}
+
+	/**
+	 * Reads the value starting at the current event of a parser and adds it to an array.
+	 *
+	 * @param parser the parser
+	 * @param event the first event of the value
+	 * @param array the array builder
+	 */
+	private static void readValue(JsonParser parser, JsonParser.Event event, JsonArrayBuilder array) {
+		switch (event) {
+			case START_OBJECT:
+				array.add(readObject(parser));
+				break;
+			case START_ARRAY:
+				array.add(readArray(parser));
+				break;
+			case VALUE_STRING:
+				array.add(parser.getString());
+				break;
+			case VALUE_NUMBER:
+				array.add(parser.getBigDecimal());
+				break;
+			case VALUE_TRUE:
+				array.add(JsonValue.TRUE);
+				break;
+			case VALUE_FALSE:
+				array.add(JsonValue.FALSE);
+				break;
+			case VALUE_NULL:
+				array.addNull();
+				break;
+			default:
+				throw new JsonException("Unexpected JSON parser event " + event);
+		}
+	}
+
+	/**
+	 * Reads an object whose start has just been parsed.
+	 *
+	 * @param parser the parser
+	 * @return an object builder containing all the fields of the object
+	 */
+	private static JsonObjectBuilder readObject(JsonParser parser) {
+		final JsonObjectBuilder object = BUILDERS.createObjectBuilder();
+
+		for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_OBJECT; event = parser.next()) {
+			final String name = parser.getString();
+
+			final JsonParser.Event valueEvent = parser.next();
+			switch (valueEvent) {
+				case START_OBJECT:
+					object.add(name, readObject(parser));
+					break;
+				case START_ARRAY:
+					object.add(name, readArray(parser));
+					break;
+				case VALUE_STRING:
+					object.add(name, parser.getString());
+					break;
+				case VALUE_NUMBER:
+					object.add(name, parser.getBigDecimal());
+					break;
+				case VALUE_TRUE:
+					object.add(name, JsonValue.TRUE);
+					break;
+				case VALUE_FALSE:
+					object.add(name, JsonValue.FALSE);
+					break;
+				case VALUE_NULL:
+					object.addNull(name);
+					break;
+				default:
+					throw new JsonException("Unexpected JSON parser event " + valueEvent);
+			}
+		}
+
+		return object;
+	}
+
+	/**
+	 * Reads an array whose start has just been parsed.
+	 *
+	 * @param parser the parser
+	 * @return an array builder containing all the elements of the array
+	 */
+	private static JsonArrayBuilder readArray(JsonParser parser) {
+		final JsonArrayBuilder array = BUILDERS.createArrayBuilder();
+
+		for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_ARRAY; event = parser.next()) {
+			readValue(parser, event, array);
+		}
+
+		return array;
+	}
+
+	private static String describeMismatch(String subject, Matcher<?> matcher, Object actual) {
+		final Description description = new StringDescription();
+		description.appendText("Expected " + subject + " to be ").appendDescriptionOf(matcher).appendText("\n     but: ");
+		matcher.describeMismatch(actual, description);
+		return description.toString();
+	}
+
+	/**
+	 * A check of each element.
+	 *
+	 * @param <T> the type of the checked value
+	 */
+	private static class ElementCheck<T> {
+		private final String subject;
+		private final Function<? super JsonValue, T> extractor;
+		private final Matcher<?> matcher;
+
+		ElementCheck(String subject, Function<? super JsonValue, T> extractor, Matcher<?> matcher) {
+			this.subject = subject != null ? subject : "";
+			this.extractor = extractor;
+			this.matcher = matcher;
+		}
+
+		void verify(int index, JsonValue element) {
+			final T value = extractor.apply(element);
+			if (!matcher.matches(value)) {
+				throw new AssertionError(describeMismatch(subject + "element " + index, matcher, value));
+			}
+		}
+	}
+
+	/**
+	 * An aggregation of all elements.
+	 *
+	 * @param <A> the type of the accumulation
+	 * @param <R> the type of the result
+	 */
+	private static class Aggregation<A, R> {
+		private final String description;
+		private final Collector<? super JsonValue, A, R> collector;
+		private final Matcher<? super R> matcher;
+
+		@SuppressWarnings("unchecked")
+		Aggregation(String description, Collector<? super JsonValue, ?, R> collector, Matcher<? super R> matcher) {
+			this.description = description;
+			this.collector = (Collector<? super JsonValue, A, R>) collector;
+			this.matcher = matcher;
+		}
+
+		State start() {
+			return new State(collector.supplier().get());
+		}
+
+		/**
+		 * The accumulation of one verification.
+		 */
+		private class State {
+			private final A container;
+			private final BiConsumer<A, ? super JsonValue> accumulator;
+
+			State(A container) {
+				this.container = container;
+				this.accumulator = collector.accumulator();
+			}
+
+			void accumulate(JsonValue element) {
+				accumulator.accept(container, element);
+			}
+
+			void verify() {
+				final R result = collector.finisher().apply(container);
+				if (!matcher.matches(result)) {
+					throw new AssertionError(describeMismatch(description, matcher, result));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,608 @@
+package io.probedock.api.test.client;
+
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * Binds JSON documents to Java objects directly from a streaming parser, without building a JSON
+ * tree first.
+ *
+ * <p>The following types are supported: strings, primitives and their wrappers,
+ * <tt>BigDecimal</tt>, <tt>BigInteger</tt>, enums (by constant name), arrays, collections and maps
+ * with string keys (typed by their generic parameters), <tt>Object</tt> (bound to strings,
+ * <tt>BigDecimal</tt>s, booleans, lists and maps), and classes with a constructor without
+ * arguments. The fields of such classes, including inherited and private fields but not static or
+ * transient ones, are bound to the JSON properties with the same name; other properties are
+ * ignored, as are null values for primitive fields.</p>
+ *
+ * <p>The binder of a class, including the reflection metadata of its fields, is built the first
+ * time the class is bound and is then reused.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+final class ApiTestJsonBinder {
+	/**
+	 * The factory of JSON parsers (looking up the JSON provider for each parser is slow).
+	 */
+	private static final JsonParserFactory PARSERS = Json.createParserFactory(null);
+
+	/**
+	 * The binders of classes.
+	 */
+	private static final ClassValue<Binder> BINDERS = new ClassValue<Binder>() {
+		@Override
+		protected Binder computeValue(Class<?> type) {
+			return createBinder(type);
+		}
+	};
+
+	private ApiTestJsonBinder() {
+	}
+
+	/**
+	 * Binds a JSON document to an object of the specified type.
+	 *
+	 * @param <T> the type of the object
+	 * @param reader the JSON document
+	 * @param type the type of the object
+	 * @return the bound object
+	 * @throws JsonException if the document is not valid JSON or does not match the type
+	 * @throws ApiTestException if the type cannot be instantiated
+	 */
+	static <T> T bind(Reader reader, Class<T> type) {
+		@SuppressWarnings("unchecked")
+		final T value = (T) bind(reader, binderFor(type));
+		return value;
+	}
+
+	/**
+	 * Binds a JSON array to a list of objects of the specified type.
+	 *
+	 * @param <T> the type of the elements
+	 * @param reader the JSON document
+	 * @param elementType the type of the elements
+	 * @return the bound list
+	 * @throws JsonException if the document is not a valid JSON array or does not match the type
+	 * @throws ApiTestException if the type cannot be instantiated
+	 */
+	static <T> List<T> bindList(Reader reader, Class<T> elementType) {
+		@SuppressWarnings("unchecked")
+		final List<T> list = (List<T>) bind(reader, new CollectionBinder(ArrayList.class, binderFor(elementType)));
+		return list;
+	}
+
+	private static Object bind(Reader reader, Binder binder) {
+		try (JsonParser parser = PARSERS.createParser(reader)) {
+			if (!parser.hasNext()) {
+				throw new JsonException("Cannot bind an empty document");
+			}
+
+			return readValue(parser, parser.next(), binder);
+		}
+	}
+
+	/**
+	 * Reads the value starting at the current event of a parser.
+	 *
+	 * @param parser the parser
+	 * @param event the first event of the value
+	 * @param binder the binder of the value
+	 * @return the bound value, or null if the value is <tt>null</tt>
+	 */
+	private static Object readValue(JsonParser parser, JsonParser.Event event, Binder binder) {
+		return event == JsonParser.Event.VALUE_NULL ? null : binder.read(parser, event);
+	}
+
+	/**
+	 * Skips the value starting at the current event of a parser.
+	 *
+	 * @param parser the parser
+	 * @param event the first event of the value
+	 */
+	private static void skip(JsonParser parser, JsonParser.Event event) {
+		if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) {
+			return;
+		}
+
+		for (int depth = 1; depth > 0;) {
+			switch (parser.next()) {
+				case START_OBJECT:
+				case START_ARRAY:
+					depth++;
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					depth--;
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the binder of a type.
+	 *
+	 * @param type a class or a parameterized type
+	 * @return a binder
+	 * @throws ApiTestException if the type is not supported
+	 */
+	private static Binder binderFor(Type type) {
+		if (type instanceof Class) {
+			return BINDERS.get((Class<?>) type);
+		} else if (type instanceof ParameterizedType) {
+			final Class<?> rawType = (Class<?>) ((ParameterizedType) type).getRawType();
+			final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+			if (Collection.class.isAssignableFrom(rawType)) {
+				return new CollectionBinder(rawType, binderFor(arguments[0]));
+			} else if (Map.class.isAssignableFrom(rawType)) {
+				return new MapBinder(rawType, binderFor(arguments[1]));
+			}
+			return BINDERS.get(rawType);
+		} else if (type instanceof GenericArrayType) {
+			final Type componentType = ((GenericArrayType) type).getGenericComponentType();
+			return new ArrayBinder(rawClass(componentType), binderFor(componentType));
+		} else if (type instanceof WildcardType) {
+			return binderFor(((WildcardType) type).getUpperBounds()[0]);
+		} else if (type instanceof TypeVariable) {
+			return binderFor(((TypeVariable<?>) type).getBounds()[0]);
+		}
+
+		throw new ApiTestException("Cannot bind JSON to type " + type);
+	}
+
+	private static Class<?> rawClass(Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		} else if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		} else if (type instanceof GenericArrayType) {
+			return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+		}
+
+		return Object.class;
+	}
+
+	/**
+	 * Creates the binder of a class.
+	 *
+	 * @param type a class
+	 * @return a binder
+	 */
+	private static Binder createBinder(final Class<?> type) {
+		if (type == String.class) {
+			return (parser, event) -> {
+				expect(event, JsonParser.Event.VALUE_STRING, type);
+				return parser.getString();
+			};
+		} else if (type == boolean.class || type == Boolean.class) {
+			return (parser, event) -> {
+				if (event != JsonParser.Event.VALUE_TRUE && event != JsonParser.Event.VALUE_FALSE) {
+					throw mismatch(event, type);
+				}
+				return event == JsonParser.Event.VALUE_TRUE;
+			};
+		} else if (type == int.class || type == Integer.class) {
+			return new NumberBinder(type, BigDecimal::intValueExact);
+		} else if (type == long.class || type == Long.class) {
+			return new NumberBinder(type, BigDecimal::longValueExact);
+		} else if (type == double.class || type == Double.class) {
+			return new NumberBinder(type, BigDecimal::doubleValue);
+		} else if (type == float.class || type == Float.class) {
+			return new NumberBinder(type, BigDecimal::floatValue);
+		} else if (type == short.class || type == Short.class) {
+			return new NumberBinder(type, BigDecimal::shortValueExact);
+		} else if (type == byte.class || type == Byte.class) {
+			return new NumberBinder(type, BigDecimal::byteValueExact);
+		} else if (type == BigDecimal.class || type == Number.class) {
+			return new NumberBinder(type, value -> value);
+		} else if (type == BigInteger.class) {
+			return new NumberBinder(type, BigDecimal::toBigIntegerExact);
+		} else if (type == char.class || type == Character.class) {
+			return (parser, event) -> {
+				expect(event, JsonParser.Event.VALUE_STRING, type);
+				final String value = parser.getString();
+				if (value.length() != 1) {
+					throw new JsonException("Cannot bind string \"" + value + "\" to " + type.getName());
+				}
+				return value.charAt(0);
+			};
+		} else if (type.isEnum()) {
+			return new EnumBinder(type);
+		} else if (type.isArray()) {
+			return new ArrayBinder(type.getComponentType(), binderFor(type.getComponentType()));
+		} else if (Collection.class.isAssignableFrom(type)) {
+			return new CollectionBinder(type, BINDERS.get(Object.class));
+		} else if (Map.class.isAssignableFrom(type)) {
+			return new MapBinder(type, BINDERS.get(Object.class));
+		} else if (type == Object.class) {
+			return ApiTestJsonBinder::readObject;
+		} else if (type.isPrimitive() || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			throw new ApiTestException("Cannot bind JSON to " + type.getName());
+		}
+
+		return new ObjectBinder(type);
+	}
+
+	/**
+	 * Reads any value as a string, a <tt>BigDecimal</tt>, a boolean, a list or a map.
+	 */
+	private static Object readObject(JsonParser parser, JsonParser.Event event) {
+		switch (event) {
+			case VALUE_STRING:
+				return parser.getString();
+			case VALUE_NUMBER:
+				return parser.getBigDecimal();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case START_ARRAY:
+				return BINDERS.get(List.class).read(parser, event);
+			case START_OBJECT:
+				return BINDERS.get(Map.class).read(parser, event);
+			default:
+				throw mismatch(event, Object.class);
+		}
+	}
+
+	private static void expect(JsonParser.Event event, JsonParser.Event expected, Type type) {
+		if (event != expected) {
+			throw mismatch(event, type);
+		}
+	}
+
+	private static JsonException mismatch(JsonParser.Event event, Type type) {
+		final String value;
+		switch (event) {
+			case START_OBJECT:
+				value = "object";
+				break;
+			case START_ARRAY:
+				value = "array";
+				break;
+			case VALUE_STRING:
+				value = "string";
+				break;
+			case VALUE_NUMBER:
+				value = "number";
+				break;
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				value = "boolean";
+				break;
+			default:
+				value = event.toString();
+		}
+
+		return new JsonException("Cannot bind JSON " + value + " to " + type.getTypeName());
+	}
+
+	private static <T> Constructor<T> defaultConstructor(Class<T> type) {
+		try {
+			final Constructor<T> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return constructor;
+		} catch (NoSuchMethodException | RuntimeException e) {
+			throw new ApiTestException("Cannot bind JSON to " + type.getName() + ": it has no accessible constructor without arguments", e);
+		}
+	}
+
+	private static <T> T newInstance(Constructor<T> constructor) {
+		try {
+			return constructor.newInstance();
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+			throw new ApiTestException("Could not instantiate " + constructor.getDeclaringClass().getName(), e);
+		}
+	}
+
+	/**
+	 * Binds the value starting at the current event of a parser.
+	 */
+	@FunctionalInterface
+	private interface Binder {
+		Object read(JsonParser parser, JsonParser.Event event);
+	}
+
+	/**
+	 * Binds numbers to numeric types.
+	 */
+	private static final class NumberBinder implements Binder {
+		private final Class<?> type;
+		private final Function<BigDecimal, Object> conversion;
+
+		NumberBinder(Class<?> type, Function<BigDecimal, Object> conversion) {
+			this.type = type;
+			this.conversion = conversion;
+		}
+
+		@Override
+		public Object read(JsonParser parser, JsonParser.Event event) {
+			expect(event, JsonParser.Event.VALUE_NUMBER, type);
+			try {
+				return conversion.apply(parser.getBigDecimal());
+			} catch (ArithmeticException ae) {
+				throw new JsonException("Cannot bind number " + parser.getString() + " to " + type.getName(), ae);
+			}
+		}
+	}
+
+	/**
+	 * Binds strings to enum constants.
+	 */
+	private static final class EnumBinder implements Binder {
+		private final Class<?> type;
+		private final Map<String, Object> constants = new HashMap<>();
+
+		EnumBinder(Class<?> type) {
+			this.type = type;
+			for (Object constant : type.getEnumConstants()) {
+				constants.put(((Enum<?>) constant).name(), constant);
+			}
+		}
+
+		@Override
+		public Object read(JsonParser parser, JsonParser.Event event) {
+			expect(event, JsonParser.Event.VALUE_STRING, type);
+
+			final Object constant = constants.get(parser.getString());
+			if (constant == null) {
+				throw new JsonException("Cannot bind string \"" + parser.getString() + "\" to " + type.getName());
+			}
+
+			return constant;
+		}
+	}
+
+	/**
+	 * Binds arrays to Java arrays.
+	 */
+	private static final class ArrayBinder implements Binder {
+		private final Class<?> componentType;
+		private final Binder componentBinder;
+
+		ArrayBinder(Class<?> componentType, Binder componentBinder) {
+			this.componentType = componentType;
+			this.componentBinder = componentBinder;
+		}
+
+		@Override
+		public Object read(JsonParser parser, JsonParser.Event event) {
+			expect(event, JsonParser.Event.START_ARRAY, Array.newInstance(componentType, 0).getClass());
+
+			final List<Object> elements = new ArrayList<>();
+			for (JsonParser.Event next = parser.next(); next != JsonParser.Event.END_ARRAY; next = parser.next()) {
+				final Object element = readValue(parser, next, componentBinder);
+				if (element == null && componentType.isPrimitive()) {
+					throw new JsonException("Cannot bind JSON null to " + componentType.getName());
+				}
+				elements.add(element);
+			}
+
+			final Object array = Array.newInstance(componentType, elements.size());
+			for (int i = 0; i < elements.size(); i++) {
+				Array.set(array, i, elements.get(i));
+			}
+
+			return array;
+		}
+	}
+
+	/**
+	 * Binds arrays to collections.
+	 */
+	private static final class CollectionBinder implements Binder {
+		private final Class<?> type;
+		private final Constructor<?> constructor;
+		private final Binder elementBinder;
+
+		CollectionBinder(Class<?> type, Binder elementBinder) {
+			this.type = type;
+			this.elementBinder = elementBinder;
+
+			if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+				this.constructor = defaultConstructor(type);
+			} else if (type.isAssignableFrom(ArrayList.class)) {
+				this.constructor = defaultConstructor(ArrayList.class);
+			} else if (type.isAssignableFrom(LinkedHashSet.class)) {
+				this.constructor = defaultConstructor(LinkedHashSet.class);
+			} else if (type.isAssignableFrom(TreeSet.class)) {
+				this.constructor = defaultConstructor(TreeSet.class);
+			} else {
+				throw new ApiTestException("Cannot bind JSON to " + type.getName());
+			}
+		}
+
+		@Override
+		public Object read(JsonParser parser, JsonParser.Event event) {
+			expect(event, JsonParser.Event.START_ARRAY, type);
+
+			@SuppressWarnings("unchecked")
+			final Collection<Object> collection = (Collection<Object>) newInstance(constructor);
+			for (JsonParser.Event next = parser.next(); next != JsonParser.Event.END_ARRAY; next = parser.next()) {
+				collection.add(readValue(parser, next, elementBinder));
+			}
+
+			return collection;
+		}
+	}
+
+	/**
+	 * Binds objects to maps with string keys.
+	 */
+	private static final class MapBinder implements Binder {
+		private final Class<?> type;
+		private final Constructor<?> constructor;
+		private final Binder valueBinder;
+
+		MapBinder(Class<?> type, Binder valueBinder) {
+			this.type = type;
+			this.valueBinder = valueBinder;
+
+			if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+				this.constructor = defaultConstructor(type);
+			} else if (type.isAssignableFrom(LinkedHashMap.class)) {
+				this.constructor = defaultConstructor(LinkedHashMap.class);
+			} else if (type.isAssignableFrom(TreeMap.class)) {
+				this.constructor = defaultConstructor(TreeMap.class);
+			} else {
+				throw new ApiTestException("Cannot bind JSON to " + type.getName());
+			}
+		}
+
+		@Override
+		public Object read(JsonParser parser, JsonParser.Event event) {
+			expect(event, JsonParser.Event.START_OBJECT, type);
+
+			@SuppressWarnings("unchecked")
+			final Map<String, Object> map = (Map<String, Object>) newInstance(constructor);
+			for (JsonParser.Event next = parser.next(); next != JsonParser.Event.END_OBJECT; next = parser.next()) {
+				final String name = parser.getString();
+				map.put(name, readValue(parser, parser.next(), valueBinder));
+			}
+
+			return map;
+		}
+	}
+
+	/**
+	 * Binds objects to the fields of a class.
+	 */
+	private static final class ObjectBinder implements Binder {
+		private final Class<?> type;
+
+		/**
+		 * The fields of the class by name (built on first use, so that classes may reference
+		 * themselves).
+		 */
+		private volatile Map<String, FieldBinder> fields;
+
+		/**
+		 * The constructor without arguments of the class.
+		 */
+		private volatile Constructor<?> constructor;
+
+		ObjectBinder(Class<?> type) {
+			this.type = type;
+		}
+
+		@Override
+		public Object read(JsonParser parser, JsonParser.Event event) {
+			expect(event, JsonParser.Event.START_OBJECT, type);
+
+			if (fields == null) {
+				resolve();
+			}
+
+			final Object instance = newInstance(constructor);
+			for (JsonParser.Event next = parser.next(); next != JsonParser.Event.END_OBJECT; next = parser.next()) {
+				final String name = parser.getString();
+				final JsonParser.Event valueEvent = parser.next();
+
+				final FieldBinder field = fields.get(name);
+				if (field == null) {
+					skip(parser, valueEvent);
+					continue;
+				}
+
+				try {
+					field.set(instance, readValue(parser, valueEvent, field.binder));
+				} catch (JsonException je) {
+					throw new JsonException("Could not bind property " + name + " of " + type.getName() + ": " + je.getMessage(), je);
+				}
+			}
+
+			return instance;
+		}
+
+		private void resolve() {
+			final Constructor<?> defaultConstructor = defaultConstructor(type);
+
+			final Map<String, FieldBinder> resolved = new HashMap<>();
+			for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+				for (Field field : current.getDeclaredFields()) {
+
+					// fields of subclasses hide the fields of their superclasses
+					if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) || field.isSynthetic() || resolved.containsKey(field.getName())) {
+						continue;
+					}
+
+					try {
+						field.setAccessible(true);
+					} catch (RuntimeException re) {
+						throw new ApiTestException("Cannot bind JSON to field " + field.getName() + " of " + type.getName(), re);
+					}
+
+					resolved.put(field.getName(), new FieldBinder(field, fieldBinder(field)));
+				}
+			}
+
+			constructor = defaultConstructor;
+			fields = resolved;
+		}
+
+		private static Binder fieldBinder(Field field) {
+			try {
+				return binderFor(field.getGenericType());
+			} catch (ApiTestException ate) {
+
+				// only fail if the property is actually present
+				return (parser, event) -> {
+					throw ate;
+				};
+			}
+		}
+	}
+
+	/**
+	 * Binds a value to a field.
+	 */
+	private static final class FieldBinder {
+		private final Field field;
+		private final Binder binder;
+
+		FieldBinder(Field field, Binder binder) {
+			this.field = field;
+			this.binder = binder;
+		}
+
+		void set(Object instance, Object value) {
+
+			// primitive fields keep their default value
+			if (value == null && field.getType().isPrimitive()) {
+				return;
+			}
+
+			try {
+				field.set(instance, value);
+			} catch (IllegalAccessException iae) {
+				throw new ApiTestException("Could not set field " + field.getName() + " of " + field.getDeclaringClass().getName(), iae);
+			}
+		}
+	}
+}
@@ -1,14 +1,25 @@
 package io.probedock.api.test.client;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.entity.mime.content.FileBody;
 
 /**
  * Container to send form data
  *
+ * <p>Parts built from files or from content suppliers are read each time the body is sent, so
+ * that large files can be uploaded without being held in memory. When the length of every part is
+ * known, the body is sent with a <tt>Content-Length</tt> header instead of being chunked.</p>
+ *
  * @author Valentin Delaye <valentin.delaye@novaccess.ch>
  */
 public class ApiTestMultipartFormData {
@@ -28,11 +39,53 @@ public class ApiTestMultipartFormData {
 		builder.addBinaryBody(key, file);
 		return this;
 	}
-	
+
+	/**
+	 * Adds a part read from a file while it is sent.
+	 *
+	 * @param key the name of the part
+	 * @param file the file
+	 * @param contentType the media type of the file
+	 * @return this
+	 * @throws ApiTestException if the file does not exist
+	 */
+	public ApiTestMultipartFormData addData(String key, Path file, String contentType) {
+		if (!Files.isRegularFile(file)) {
+			throw new ApiTestException("Multipart file " + file + " does not exist");
+		}
+
+		builder.addPart(key, new FileBody(file.toFile(), ContentType.create(contentType), file.getFileName().toString()));
+		return this;
+	}
+
+	/**
+	 * Adds a part of unknown length read from a stream. The body is chunked and can only be sent
+	 * once; prefer {@link #addData(String, IApiTestContentSupplier, long, String, String)}.
+	 *
+	 * @param key the name of the part
+	 * @param stream the content of the part
+	 * @return this
+	 */
 	public ApiTestMultipartFormData addData(String key, InputStream stream) {
 		builder.addBinaryBody(key, stream);
 		return this;
 	}
+
+	/**
+	 * Adds a part whose content is supplied each time the body is sent, e.g. generated on the fly.
+	 *
+	 * @param key the name of the part
+	 * @param supplier the supplier of the content
+	 * @param length the length of the content in bytes, or -1 if it is unknown (the body is then
+	 * chunked)
+	 * @param contentType the media type of the content
+	 * @param filename the file name of the part, or null
+	 * @return this
+	 */
+	public ApiTestMultipartFormData addData(String key, IApiTestContentSupplier supplier, long length, String contentType, String filename) {
+		builder.addPart(key, new SupplierBody(supplier, length, ContentType.create(contentType), filename));
+		return this;
+	}
 	
 	public ApiTestMultipartFormData addData(String key, String value, String contentType) {
 		builder.addTextBody(key, value, ContentType.create(contentType));
@@ -47,4 +100,47 @@ public class ApiTestMultipartFormData {
 	public HttpEntity getMultipartEntity() {
 		return builder.build();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Part whose content is opened each time it is written.
+	 */
+	private static class SupplierBody extends AbstractContentBody {
+		private final IApiTestContentSupplier supplier;
+		private final long length;
+		private final String filename;
+
+		SupplierBody(IApiTestContentSupplier supplier, long length, ContentType contentType, String filename) {
+			super(contentType);
+			this.supplier = supplier;
+			this.length = length;
+			this.filename = filename;
+		}
+
+		@Override
+		public String getFilename() {
+			return filename;
+		}
+
+		@Override
+		public String getTransferEncoding() {
+			return MIME.ENC_BINARY;
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			final long written;
+			try (InputStream in = supplier.open()) {
+				written = in.transferTo(out);
+			}
+
+			if (length >= 0 && written != length) {
+				throw new IOException("Multipart content supplier returned " + written + " bytes instead of " + length);
+			}
+		}
+	}
+}
@@ -5,12 +5,16 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpExecutionAware;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.entity.ContentType;
 
 /**
  * HTTP request wrapper.
@@ -50,6 +54,36 @@ public class ApiTestRequest {
 	 */
 	private HttpUriRequest request;
 
+	/**
+	 * The connect timeout of this request (negative to use the client default).
+	 */
+	private int connectTimeout = -1;
+
+	/**
+	 * The socket timeout of this request (negative to use the client default).
+	 */
+	private int socketTimeout = -1;
+
+	/**
+	 * The overall timeout of this request (negative to use the client default).
+	 */
+	private long requestTimeout = -1;
+
+	/**
+	 * The entry point of this request, if it was selected by a balancer.
+	 */
+	private ApiEntryPoint entryPoint;
+
+	/**
+	 * The balancer which selected the entry point of this request (null if it was set explicitly).
+	 */
+	private ApiEntryPointBalancer balancer;
+
+	/**
+	 * The routing key with which the balancer selected the entry point.
+	 */
+	private String routingKey;
+
 	/**
 	 * Constructs a new request without a body.
 	 *
@@ -71,9 +105,25 @@ public class ApiTestRequest {
 	 * not supported for the given HTTP method
 	 */
 	public ApiTestRequest(String method, ApiUriBuilder uriBuilder, ApiTestRequestBody body) {
+		this(method, uriBuilder.build(), body);
+		if (uriBuilder.getEntryPoint() != null) {
+			setEntryPoint(uriBuilder.getEntryPoint(), uriBuilder.getBalancer(), uriBuilder.getEntryPointKey());
+		}
+	}
+
+	/**
+	 * Constructs a new request for an URI which has already been built.
+	 *
+	 * @param method the HTTP method (see class constants for supported methods)
+	 * @param uri the URI of the request
+	 * @param body an optional request body
+	 * @throws ApiTestException if the HTTP method is not supported or if a body is specified but
+	 * not supported for the given HTTP method
+	 */
+	public ApiTestRequest(String method, URI uri, ApiTestRequestBody body) {
 
 		// build the internal HTTP request object
-		request = buildRequestObject(method, uriBuilder.build());
+		request = buildRequestObject(method, uri);
 
 		// set the request body if present
 		if (body != null) {
@@ -99,6 +149,137 @@ public class ApiTestRequest {
 		return request.getMethod();
 	}
 
+	/**
+	 * Returns the entry point of this request, whose statistics are updated when the request is
+	 * executed by an {@link ApiTestClient}.
+	 *
+	 * @return an entry point, or null if the URI of this request was not built through a balancer
+	 */
+	public ApiEntryPoint getEntryPoint() {
+		return entryPoint;
+	}
+
+	/**
+	 * Sets the entry point of this request, whose statistics are updated when the request is
+	 * executed by an {@link ApiTestClient}.
+	 *
+	 * @param entryPoint an entry point (null to not record statistics)
+	 * @return this request
+	 */
+	public ApiTestRequest setEntryPoint(ApiEntryPoint entryPoint) {
+		this.entryPoint = entryPoint;
+		this.balancer = null;
+		this.routingKey = null;
+		return this;
+	}
+
+	/**
+	 * Sets the entry point selected by a balancer for this request. If the balancer is load-aware
+	 * (see {@link ApiEntryPointBalancer#isLoadAware()}), the entry point is selected again when
+	 * the request is executed (see {@link #reselectEntryPoint()}).
+	 *
+	 * @param entryPoint the selected entry point, whose URI starts the URI of this request
+	 * @param balancer the balancer which selected it
+	 * @param routingKey the routing key of the selection
+	 */
+	void setEntryPoint(ApiEntryPoint entryPoint, ApiEntryPointBalancer balancer, String routingKey) {
+		this.entryPoint = entryPoint;
+		this.balancer = balancer;
+		this.routingKey = routingKey;
+	}
+
+	/**
+	 * Selects the entry point of this request again with its load-aware balancer, just before it
+	 * is sent, and moves the request to the new entry point. Nothing is done if the entry point
+	 * was not selected by such a balancer, or if the URI no longer starts with the entry point.
+	 */
+	void reselectEntryPoint() {
+		if (balancer == null || !balancer.isLoadAware()) {
+			return;
+		}
+
+		final ApiEntryPoint selected = balancer.select(routingKey);
+		if (selected == entryPoint) {
+			return;
+		}
+
+		final String uri = request.getURI().toString();
+		final String base = stripTrailingSlash(entryPoint.getUri());
+		if (!uri.startsWith(base) || !(request instanceof HttpRequestBase)) {
+			return;
+		}
+
+		((HttpRequestBase) request).setURI(URI.create(stripTrailingSlash(selected.getUri()) + uri.substring(base.length())));
+		entryPoint = selected;
+	}
+
+	/**
+	 * Returns the maximum time to establish a connection for this request.
+	 *
+	 * @return a timeout in milliseconds, 0 for no timeout, or a negative value to use the default
+	 * of the client configuration
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Sets the maximum time to establish a connection for this request.
+	 *
+	 * @param connectTimeout a timeout in milliseconds, 0 for no timeout, or a negative value to use
+	 * the default of the client configuration
+	 * @return this request
+	 */
+	public ApiTestRequest setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+		return this;
+	}
+
+	/**
+	 * Returns the maximum time of inactivity while waiting for the response data of this request.
+	 *
+	 * @return a timeout in milliseconds, 0 for no timeout, or a negative value to use the default
+	 * of the client configuration
+	 */
+	public int getSocketTimeout() {
+		return socketTimeout;
+	}
+
+	/**
+	 * Sets the maximum time of inactivity while waiting for the response data of this request.
+	 *
+	 * @param socketTimeout a timeout in milliseconds, 0 for no timeout, or a negative value to use
+	 * the default of the client configuration
+	 * @return this request
+	 */
+	public ApiTestRequest setSocketTimeout(int socketTimeout) {
+		this.socketTimeout = socketTimeout;
+		return this;
+	}
+
+	/**
+	 * Returns the maximum time to complete this request.
+	 *
+	 * @return a timeout in milliseconds, 0 for no timeout, or a negative value to use the default
+	 * of the client configuration
+	 */
+	public long getRequestTimeout() {
+		return requestTimeout;
+	}
+
+	/**
+	 * Sets the maximum time to complete this request, from sending it to reading the whole
+	 * response. The request is cancelled when it expires.
+	 *
+	 * @param requestTimeout a timeout in milliseconds, 0 for no timeout, or a negative value to use
+	 * the default of the client configuration
+	 * @return this request
+	 */
+	public ApiTestRequest setRequestTimeout(long requestTimeout) {
+		this.requestTimeout = requestTimeout;
+		return this;
+	}
+
 	/**
 	 * Adds a request header. The header will be appended to the end of the list.
 	 *
@@ -137,6 +318,24 @@ public class ApiTestRequest {
 		return this;
 	}
 
+	/**
+	 * Returns the headers of this request, in the order in which they were added.
+	 *
+	 * @return the request headers
+	 */
+	public Header[] getHeaders() {
+		return request.getAllHeaders();
+	}
+
+	/**
+	 * Returns the body of this request.
+	 *
+	 * @return the request body, or null if this request has no body
+	 */
+	public HttpEntity getEntity() {
+		return request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+	}
+
 	@Override
 	public String toString() {
 
@@ -156,6 +355,49 @@ public class ApiTestRequest {
 		return builder.toString();
 	}
 
+	/**
+	 * Compresses the body of this request with gzip if it is a JSON or form body which is not
+	 * already encoded.
+	 *
+	 * @return true if the body was compressed
+	 * @throws ApiTestException if the body could not be compressed
+	 */
+	protected boolean compressBody() {
+		final HttpEntity entity = getEntity();
+		if (entity == null || entity.getContentEncoding() != null || entity.getContentType() == null) {
+			return false;
+		}
+
+		final String mimeType = ContentType.parse(entity.getContentType().getValue()).getMimeType();
+		if (!ApiTestRequestBody.APPLICATION_JSON.equalsIgnoreCase(mimeType) && !ApiTestRequestBody.APPLICATION_FORM_URLENCODED.equalsIgnoreCase(mimeType)) {
+			return false;
+		}
+
+		setBody(ApiTestRequestBody.gzip(entity));
+		return true;
+	}
+
+	/**
+	 * Aborts the execution of this request from another thread. The Apache transport aborts the
+	 * connection of the request; other transports cancel the operation they registered with
+	 * {@link #setCancellable(Cancellable)}. An aborted request cannot be executed again.
+	 */
+	protected void abort() {
+		request.abort();
+	}
+
+	/**
+	 * Registers the operation cancelled when this request is aborted. If the request has already
+	 * been aborted, the operation is cancelled immediately.
+	 *
+	 * @param cancellable the operation executing this request
+	 */
+	protected void setCancellable(Cancellable cancellable) {
+		if (request instanceof HttpExecutionAware) {
+			((HttpExecutionAware) request).setCancellable(cancellable);
+		}
+	}
+
 	/**
 	 * Returns the internal request object.
 	 *
@@ -179,6 +421,10 @@ public class ApiTestRequest {
 		((HttpEntityEnclosingRequest) request).setEntity(entity);
 	}
 
+	private static String stripTrailingSlash(String uri) {
+		return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+	}
+
 	/**
 	 * Builds an Apache HTTP request object.
 	 *
@@ -1,20 +1,61 @@
 package io.probedock.api.test.client;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
 import javax.json.JsonStructure;
+import javax.json.JsonValue;
 import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.entity.NFileEntity;
 
 /**
  * HTTP request body wrapper.
  *
+ * <p>Bodies are immutable and repeatable: the same body can be sent by any number of requests, or
+ * resent on retries, redirects and authentication challenges. Bodies built from bytes, strings or
+ * JSON structures have a known length, so they are sent with a <tt>Content-Length</tt> header
+ * instead of being chunked, and are written directly from their backing array.</p>
+ *
+ * <p>Streaming JSON bodies (see {@link #stream(IApiTestJsonWriter)}) are instead generated while
+ * they are written to the connection and sent with chunked transfer encoding, so that bodies of
+ * any size can be sent in constant memory by the default transport. Asynchronous requests generate
+ * them on a separate thread while they are sent. Other transports generate the whole body in
+ * memory before sending it.</p>
+ *
+ * <p>File bodies (see {@link #from(Path, String)}) are read from the file each time they are sent
+ * and are never held in memory. Asynchronous requests of the default transport transfer them
+ * directly from the file to the connection where the platform allows it.</p>
+ *
  * @author Simon Oulevay <simon.oulevay@probedock.io>
  */
 public class ApiTestRequestBody {
@@ -24,8 +65,26 @@ public class ApiTestRequestBody {
 	 * The <tt>application/json</tt> media type.
 	 */
 	public static final String APPLICATION_JSON = ContentType.APPLICATION_JSON.getMimeType();
+	/**
+	 * The <tt>application/x-www-form-urlencoded</tt> media type.
+	 */
+	public static final String APPLICATION_FORM_URLENCODED = ContentType.APPLICATION_FORM_URLENCODED.getMimeType();
 	//</editor-fold>
 
+	/**
+	 * The factory of the generators of streaming JSON bodies.
+	 */
+	private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+
+	/**
+	 * The threads writing streaming bodies of asynchronous requests.
+	 */
+	private static final ExecutorService WRITERS = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "api-test-request-body-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	//<editor-fold defaultstate="collapsed" desc="Factory Methods">
 	/**
 	 * Constructs a request body with content type <tt>application/json</tt> from a JSON string.
@@ -34,7 +93,7 @@ public class ApiTestRequestBody {
 	 * @return an API request body
 	 */
 	public static ApiTestRequestBody fromJson(String json) {
-		return new ApiTestRequestBody(json.getBytes(), APPLICATION_JSON);
+		return new ApiTestRequestBody(json.getBytes(StandardCharsets.UTF_8), APPLICATION_JSON);
 	}
 
 	/**
@@ -53,6 +112,53 @@ public class ApiTestRequestBody {
 		return new ApiTestRequestBody(baos.toByteArray(), APPLICATION_JSON);
 	}
 
+	/**
+	 * Constructs a streaming request body with content type <tt>application/json</tt> from a JSON
+	 * structure. Unlike {@link #from(JsonStructure)}, the structure is not serialized in advance
+	 * but each time the body is sent, directly to the connection.
+	 *
+	 * @param json the JSON structure to use as request body
+	 * @return an API request body
+	 */
+	public static ApiTestRequestBody stream(final JsonStructure json) {
+		return stream(generator -> {
+			if (json instanceof JsonObject) {
+				generator.writeStartObject();
+				for (Map.Entry<String, JsonValue> property : ((JsonObject) json).entrySet()) {
+					generator.write(property.getKey(), property.getValue());
+				}
+			} else {
+				generator.writeStartArray();
+				for (JsonValue element : (JsonArray) json) {
+					generator.write(element);
+				}
+			}
+			generator.writeEnd();
+		});
+	}
+
+	/**
+	 * Constructs a streaming request body with content type <tt>application/json</tt> generated by
+	 * a callback each time the body is sent, directly to the connection. This allows sending large
+	 * documents without ever holding them in memory:
+	 *
+	 * <pre>
+	 * ApiTestRequestBody.stream(generator -&gt; {
+	 *   generator.writeStartArray();
+	 *   for (int i = 0; i &lt; 1000000; i++) {
+	 *     generator.writeStartObject().write("id", i).writeEnd();
+	 *   }
+	 *   generator.writeEnd();
+	 * });
+	 * </pre>
+	 *
+	 * @param writer the callback writing the JSON document
+	 * @return an API request body
+	 */
+	public static ApiTestRequestBody stream(IApiTestJsonWriter writer) {
+		return new ApiTestRequestBody(new JsonStreamEntity(writer));
+	}
+
 	/**
 	 * Constructs a request body with content type <tt>application/x-www-form-urlencoded</tt> from
 	 * URL-encoded name/value pairs.
@@ -76,6 +182,23 @@ public class ApiTestRequestBody {
 	public static ApiTestRequestBody from(ApiTestMultipartFormData data) {
 		return new ApiTestRequestBody(data.getMultipartEntity());
 	}
+
+	/**
+	 * Constructs a request body from the contents of a file. The file is read each time the body is
+	 * sent, so it must not be modified until all requests using the body have completed.
+	 *
+	 * @param file the file to use as request body
+	 * @param mediaType the media type of the file
+	 * @return an API request body
+	 * @throws ApiTestException if the file does not exist
+	 */
+	public static ApiTestRequestBody from(Path file, String mediaType) {
+		if (!Files.isRegularFile(file)) {
+			throw new ApiTestException("Request body file " + file + " does not exist");
+		}
+
+		return new ApiTestRequestBody(new PathEntity(file, ContentType.create(mediaType)));
+	}
 	
 	//</editor-fold>
 	/**
@@ -94,15 +217,14 @@ public class ApiTestRequestBody {
 	}
 
 	/**
-	 * Constructs a new request body.
+	 * Constructs a new request body. The data is not copied and must not be modified afterwards.
 	 *
 	 * @param data the request body
 	 * @param mediaType the media type of the body
 	 * @param charset the charset of the body
 	 */
 	public ApiTestRequestBody(byte[] data, String mediaType, Charset charset) {
-		this(new InputStreamEntity(new ByteArrayInputStream(data),
-				ContentType.create(mediaType, charset)));
+		this(new BytesEntity(data, ContentType.create(mediaType, charset)));
 	}
 
 	/**
@@ -114,6 +236,18 @@ public class ApiTestRequestBody {
 		this.body = entity;
 	}
 
+	/**
+	 * Returns a copy of this body compressed with gzip, to be sent with a
+	 * <tt>Content-Encoding: gzip</tt> header. The body is compressed immediately, unless it is a
+	 * streaming body: it is then compressed while it is sent.
+	 *
+	 * @return a compressed request body, or this body if it is already encoded
+	 * @throws ApiTestException if the body could not be compressed
+	 */
+	public ApiTestRequestBody gzip() {
+		return body.getContentEncoding() != null ? this : new ApiTestRequestBody(gzip(body));
+	}
+
 	/**
 	 * Converts the body to an Apache HTTP entity.
 	 *
@@ -123,4 +257,346 @@ public class ApiTestRequestBody {
 	protected HttpEntity toEntity() {
 		return body;
 	}
+
+	/**
+	 * Compresses an HTTP entity with gzip.
+	 *
+	 * @param entity the entity to compress
+	 * @return a compressed entity with the same content type
+	 * @throws ApiTestException if the entity could not be compressed
+	 */
+	static HttpEntity gzip(HttpEntity entity) {
+		if (entity instanceof StreamingEntity || entity instanceof PathEntity) {
+			return new GzipStreamEntity(entity);
+		}
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(baos)) {
+			entity.writeTo(gzip);
+		} catch (IOException ioe) {
+			throw new ApiTestException("Could not compress the request body", ioe);
+		}
+
+		final BytesEntity compressed = new BytesEntity(baos.toByteArray(), null);
+		compressed.setContentType(entity.getContentType());
+		compressed.setContentEncoding("gzip");
+		return compressed;
+	}
+
+	/**
+	 * Returns the content of an HTTP entity as bytes, without copying it if possible. Used by
+	 * transports which are not based on Apache HTTP client.
+	 *
+	 * @param entity the entity
+	 * @return the content of the entity (which must not be modified)
+	 * @throws IOException if the entity could not be written
+	 */
+	static byte[] toByteArray(HttpEntity entity) throws IOException {
+		if (entity instanceof BytesEntity) {
+			return ((BytesEntity) entity).bytes;
+		}
+
+		final long length = entity.getContentLength();
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(length >= 0 && length <= Integer.MAX_VALUE - 8 ? (int) length : 8192);
+		entity.writeTo(baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Returns the content of an HTTP entity as a stream, reading files directly. Used by transports
+	 * which are not based on Apache HTTP client.
+	 *
+	 * @param entity the entity
+	 * @return the content of the entity
+	 * @throws IOException if the entity could not be read
+	 */
+	static InputStream toInputStream(HttpEntity entity) throws IOException {
+		return entity instanceof PathEntity ? entity.getContent() : new ByteArrayInputStream(toByteArray(entity));
+	}
+
+	/**
+	 * Returns the file whose contents are an HTTP entity.
+	 *
+	 * @param entity the entity
+	 * @return the file, or null if the entity is not a file body
+	 */
+	static Path getFile(HttpEntity entity) {
+		return entity instanceof PathEntity ? ((PathEntity) entity).file : null;
+	}
+
+	/**
+	 * Creates a producer of the content of an HTTP entity for an asynchronous request, if the entity
+	 * can be produced more efficiently than by reading its content stream.
+	 *
+	 * @param entity the entity
+	 * @return a new content producer, or null if the content stream should be used
+	 */
+	static HttpAsyncContentProducer createAsyncProducer(HttpEntity entity) {
+		if (entity instanceof PathEntity) {
+
+			// a producer keeps the position in the file, so it cannot be shared between requests
+			return new NFileEntity(((PathEntity) entity).file.toFile(), (ContentType) null, true);
+		} else if (entity instanceof StreamingEntity) {
+			return new StreamingContentProducer((StreamingEntity) entity);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Repeatable entity of unknown length which is generated each time it is written.
+	 */
+	private abstract static class StreamingEntity extends AbstractHttpEntity {
+		StreamingEntity() {
+			setChunked(true);
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * <p>The content is only generated by {@link #writeTo(OutputStream)}, so that it is never
+		 * held in memory.</p>
+		 *
+		 * @throws UnsupportedOperationException always
+		 */
+		@Override
+		public InputStream getContent() {
+			throw new UnsupportedOperationException("Streaming request bodies can only be written to a stream");
+		}
+	}
+
+	/**
+	 * Producer of the content of a streaming entity for an asynchronous request. The entity is
+	 * written by a separate thread into a bounded queue of chunks, which are sent as the connection
+	 * accepts them, so that the content is never held in memory. The writer waits while the queue
+	 * is full, and the output of the connection is suspended while it is empty.
+	 */
+	private static class StreamingContentProducer implements HttpAsyncContentProducer {
+		private static final int CHUNK_SIZE = 8192;
+		private static final int MAX_CHUNKS = 4;
+
+		private final StreamingEntity entity;
+		private final Deque<ByteBuffer> chunks = new ArrayDeque<>(MAX_CHUNKS);
+		private IOControl ioctrl;
+		private boolean done;
+		private boolean closed;
+		private IOException failure;
+
+		StreamingContentProducer(StreamingEntity entity) {
+			this.entity = entity;
+		}
+
+		@Override
+		public synchronized void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+			if (this.ioctrl == null) {
+				this.ioctrl = ioctrl;
+				WRITERS.execute(this::write);
+			}
+
+			for (ByteBuffer chunk = chunks.peek(); chunk != null; chunk = chunks.peek()) {
+				encoder.write(chunk);
+				if (chunk.hasRemaining()) {
+					return;
+				}
+
+				chunks.poll();
+				notifyAll();
+			}
+
+			if (failure != null) {
+				throw failure;
+			} else if (done) {
+				encoder.complete();
+			} else {
+				ioctrl.suspendOutput();
+			}
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			chunks.clear();
+			notifyAll();
+		}
+
+		/**
+		 * Writes the entity into the queue of chunks. Runs on a writer thread.
+		 */
+		private void write() {
+			try (OutputStream out = new BufferedOutputStream(new ChunkOutputStream(), CHUNK_SIZE)) {
+				entity.writeTo(out);
+			} catch (IOException | RuntimeException e) {
+				synchronized (this) {
+					failure = e instanceof IOException ? (IOException) e : new IOException("Could not write the request body", e);
+				}
+			}
+
+			synchronized (this) {
+				done = true;
+				ioctrl.requestOutput();
+			}
+		}
+
+		/**
+		 * Stream adding the bytes written to it to the queue of chunks.
+		 */
+		private class ChunkOutputStream extends OutputStream {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[]{ (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				synchronized (StreamingContentProducer.this) {
+					while (chunks.size() >= MAX_CHUNKS && !closed) {
+						try {
+							StreamingContentProducer.this.wait();
+						} catch (InterruptedException ie) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("Interrupted while writing the request body");
+						}
+					}
+
+					if (closed) {
+						throw new IOException("Request was closed before its body was written");
+					}
+
+					chunks.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+					ioctrl.requestOutput();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Streaming entity of a JSON document.
+	 */
+	private static class JsonStreamEntity extends StreamingEntity {
+		private final IApiTestJsonWriter writer;
+
+		JsonStreamEntity(IApiTestJsonWriter writer) {
+			this.writer = writer;
+			setContentType(ContentType.APPLICATION_JSON.toString());
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+
+			// closing the generator ensures the document is complete, but the stream belongs to the caller
+			try (JsonGenerator generator = GENERATORS.createGenerator(new UnclosableOutputStream(out), StandardCharsets.UTF_8)) {
+				writer.write(generator);
+			}
+		}
+	}
+
+	/**
+	 * Streaming entity compressing another entity with gzip.
+	 */
+	private static class GzipStreamEntity extends StreamingEntity {
+		private final HttpEntity entity;
+
+		GzipStreamEntity(HttpEntity entity) {
+			this.entity = entity;
+			setContentType(entity.getContentType());
+			setContentEncoding("gzip");
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+
+			// closing the gzip stream releases its deflater, but the stream belongs to the caller
+			try (GZIPOutputStream gzip = new GZIPOutputStream(new UnclosableOutputStream(out), 8192)) {
+				entity.writeTo(gzip);
+			}
+		}
+	}
+
+	/**
+	 * Repeatable entity of a file, read each time it is written.
+	 */
+	private static class PathEntity extends AbstractHttpEntity {
+		private final Path file;
+
+		PathEntity(Path file, ContentType contentType) {
+			this.file = file;
+			setContentType(contentType.toString());
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public long getContentLength() {
+			return file.toFile().length();
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return Files.newInputStream(file);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			Files.copy(file, out);
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+	}
+
+	/**
+	 * Stream which is only flushed when it is closed.
+	 */
+	private static class UnclosableOutputStream extends FilterOutputStream {
+		UnclosableOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/**
+	 * Repeatable entity of a byte array, which exposes the array to avoid copying it.
+	 */
+	private static class BytesEntity extends ByteArrayEntity {
+		private final byte[] bytes;
+
+		BytesEntity(byte[] bytes, ContentType contentType) {
+			super(bytes, contentType);
+			this.bytes = bytes;
+		}
+	}
 }
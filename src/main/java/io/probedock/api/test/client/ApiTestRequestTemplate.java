@@ -0,0 +1,685 @@
+package io.probedock.api.test.client;
+
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+/**
+ * Immutable template of API requests which are executed many times with different values, e.g. in
+ * data-driven or load tests.
+ *
+ * <p>The method, URI, headers and body of the requests are compiled once when the template is
+ * built. Variables, written <tt>{name}</tt>, can be used in the path, in query parameter values and
+ * in a JSON body skeleton. Creating a request then only encodes the bound values into the compiled
+ * parts: no URI builder, JSON structure or header configuration is involved.</p>
+ *
+ * <pre>
+ * ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/users/{userId}/items")
+ *   .queryParam("notify", "{notify}")
+ *   .header("Accept", "application/json")
+ *   .jsonBody("{ \"name\": \"{name}\", \"quantity\": {quantity} }")
+ *   .build();
+ *
+ * ApiTestRequest request = template.bind().set("userId", 42).set("notify", true).set("name", "Apples").set("quantity", 3).toRequest();
+ * ApiTestRequest sameRequest = template.request(42, true, "Apples", 3);
+ * </pre>
+ *
+ * <p>In the path and in query parameters, values are percent-encoded like the simple expressions
+ * of an {@link ApiUriTemplate}, and literal characters which are not allowed in URIs (e.g. spaces)
+ * are percent-encoded when the template is built. In the body, a variable inside a JSON string is
+ * replaced by the escaped value, and a variable anywhere else is replaced by the JSON
+ * representation of the value: numbers and booleans are written as is, JSON values with their
+ * JSON text, null as <tt>null</tt>, and any other value as a string.</p>
+ *
+ * <p>When the template is built with an {@link ApiEntryPointBalancer}, the entry point of each
+ * request is selected when the request is created, with the expanded path as routing key (like
+ * {@link ApiUriBuilder}).</p>
+ *
+ * <p>Templates are thread-safe and can be shared by concurrent tests.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class ApiTestRequestTemplate {
+	/**
+	 * Hexadecimal digits.
+	 */
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Marker of a variable which has not been bound.
+	 */
+	private static final Object UNBOUND = new Object();
+
+	/**
+	 * The HTTP method.
+	 */
+	private final String method;
+
+	/**
+	 * The compiled URI (relative to the entry points if there is a balancer).
+	 */
+	private final CompiledText uri;
+
+	/**
+	 * The balancer selecting the entry point of each request (null if the base URI is fixed).
+	 */
+	private final ApiEntryPointBalancer balancer;
+
+	/**
+	 * The names and values of the headers, alternately.
+	 */
+	private final String[] headers;
+
+	/**
+	 * The compiled JSON body skeleton (null if there is none).
+	 */
+	private final CompiledText jsonBody;
+
+	/**
+	 * The fixed body (null if there is none).
+	 */
+	private final ApiTestRequestBody body;
+
+	/**
+	 * The names of the variables, in order of first appearance.
+	 */
+	private final List<String> variables;
+
+	/**
+	 * The index of each variable.
+	 */
+	private final Map<String, Integer> variableIndexes;
+
+	/**
+	 * Starts building a template.
+	 *
+	 * @param method the HTTP method (see {@link ApiTestRequest} constants for supported methods)
+	 * @param baseUri the base URI (e.g. the API entry point)
+	 * @param pathTemplate the path relative to the base URI, which may contain variables (e.g.
+	 * <tt>/users/{id}</tt>)
+	 * @return a template builder
+	 */
+	public static Builder builder(String method, String baseUri, String pathTemplate) {
+		return new Builder(method, baseUri, null, pathTemplate);
+	}
+
+	/**
+	 * Starts building a template whose requests are distributed among the entry points of a
+	 * balancer.
+	 *
+	 * @param method the HTTP method (see {@link ApiTestRequest} constants for supported methods)
+	 * @param balancer the balancer selecting the entry point of each request
+	 * @param pathTemplate the path relative to the entry points, which may contain variables (e.g.
+	 * <tt>/users/{id}</tt>)
+	 * @return a template builder
+	 */
+	public static Builder builder(String method, ApiEntryPointBalancer balancer, String pathTemplate) {
+		return new Builder(method, null, balancer, pathTemplate);
+	}
+
+	private ApiTestRequestTemplate(Builder builder, List<String> variables, CompiledText uri, CompiledText jsonBody) {
+		this.method = builder.method;
+		this.uri = uri;
+		this.balancer = builder.balancer;
+		this.headers = builder.headers.toArray(new String[builder.headers.size()]);
+		this.jsonBody = jsonBody;
+		this.body = builder.body;
+		this.variables = Collections.unmodifiableList(variables);
+
+		this.variableIndexes = new HashMap<>();
+		for (int i = 0; i < variables.size(); i++) {
+			variableIndexes.put(variables.get(i), i);
+		}
+	}
+
+	/**
+	 * Returns the names of the variables of this template, in order of first appearance (path,
+	 * query parameters, then body). This is the order of the values of {@link #request(Object...)}.
+	 *
+	 * @return the variable names
+	 */
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Starts binding the variables of a new request.
+	 *
+	 * @return a new binding
+	 */
+	public Binding bind() {
+		return new Binding();
+	}
+
+	/**
+	 * Builds a new request with the values of all variables, in the order of {@link #getVariables()}.
+	 *
+	 * @param values the values of the variables
+	 * @return a new API request
+	 * @throws ApiTestException if the number of values does not match the number of variables, or
+	 * if a value cannot be written where its variable is used
+	 */
+	public ApiTestRequest request(Object... values) {
+		if (values.length != variables.size()) {
+			throw new ApiTestException("Request template " + this + " has " + variables.size() + " variables but " + values.length + " values were given");
+		}
+
+		return buildRequest(values);
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + uri;
+	}
+
+	private ApiTestRequest buildRequest(Object[] values) {
+
+		final String relativeUri = uri.expand(values);
+		String expandedUri = relativeUri;
+		ApiEntryPoint entryPoint = null;
+		String routingKey = null;
+		if (balancer != null) {
+
+			// route by the path only, like URI builders
+			final int queryStart = relativeUri.indexOf('?');
+			routingKey = queryStart >= 0 ? relativeUri.substring(0, queryStart) : relativeUri;
+
+			entryPoint = balancer.select(routingKey);
+			final String base = entryPoint.getUri();
+			expandedUri = (base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + relativeUri;
+		}
+
+		final URI requestUri;
+		try {
+			requestUri = new URI(expandedUri);
+		} catch (URISyntaxException use) {
+			throw new ApiTestException("Request template " + this + " produced an invalid URI", use);
+		}
+
+		final ApiTestRequestBody requestBody;
+		if (jsonBody != null) {
+			requestBody = new ApiTestRequestBody(jsonBody.expand(values).getBytes(StandardCharsets.UTF_8), ApiTestRequestBody.APPLICATION_JSON);
+		} else {
+			requestBody = body;
+		}
+
+		final ApiTestRequest request = new ApiTestRequest(method, requestUri, requestBody);
+		if (entryPoint != null) {
+			request.setEntryPoint(entryPoint, balancer, routingKey);
+		}
+
+		for (int i = 0; i < headers.length; i += 2) {
+			request.addHeader(headers[i], headers[i + 1]);
+		}
+
+		return request;
+	}
+
+	/**
+	 * Values of the variables of a single request.
+	 */
+	public final class Binding {
+		private final Object[] values;
+
+		private Binding() {
+			values = new Object[variables.size()];
+			Arrays.fill(values, UNBOUND);
+		}
+
+		/**
+		 * Sets the value of a variable.
+		 *
+		 * @param name the variable name
+		 * @param value the value of the variable
+		 * @return this binding
+		 * @throws ApiTestException if the template has no such variable
+		 */
+		public Binding set(String name, Object value) {
+			final Integer index = variableIndexes.get(name);
+			if (index == null) {
+				throw new ApiTestException("Request template " + ApiTestRequestTemplate.this + " has no variable " + name);
+			}
+
+			values[index] = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new request with the bound values.
+		 *
+		 * @return a new API request
+		 * @throws ApiTestException if a variable is not bound, or if a value cannot be written
+		 * where its variable is used
+		 */
+		public ApiTestRequest toRequest() {
+			return buildRequest(values);
+		}
+	}
+
+	/**
+	 * Builder of request templates.
+	 */
+	public static final class Builder {
+		private final String method;
+		private final String baseUri;
+		private final ApiEntryPointBalancer balancer;
+		private final String pathTemplate;
+		private final List<String[]> queryParams = new ArrayList<>();
+		private final List<String> headers = new ArrayList<>();
+		private String jsonSkeleton;
+		private ApiTestRequestBody body;
+
+		private Builder(String method, String baseUri, ApiEntryPointBalancer balancer, String pathTemplate) {
+			this.method = method;
+			this.baseUri = baseUri;
+			this.balancer = balancer;
+			this.pathTemplate = pathTemplate;
+		}
+
+		/**
+		 * Adds a query parameter. The value is either fixed or a single variable (e.g.
+		 * <tt>{page}</tt>).
+		 *
+		 * @param name the parameter name
+		 * @param valueTemplate the parameter value
+		 * @return this builder
+		 */
+		public Builder queryParam(String name, String valueTemplate) {
+			queryParams.add(new String[]{ name, valueTemplate });
+			return this;
+		}
+
+		/**
+		 * Adds a fixed header to all requests. The header will be appended to the end of the list.
+		 *
+		 * @param name the header name
+		 * @param value the header value
+		 * @return this builder
+		 */
+		public Builder header(String name, Object value) {
+			headers.add(name);
+			headers.add(value.toString());
+			return this;
+		}
+
+		/**
+		 * Sets a JSON body skeleton with content type <tt>application/json</tt>. The skeleton is a
+		 * JSON document whose values may be replaced by variables (e.g.
+		 * <tt>{ "name": "{name}", "quantity": {quantity} }</tt>).
+		 *
+		 * @param skeleton the JSON body skeleton
+		 * @return this builder
+		 */
+		public Builder jsonBody(String skeleton) {
+			this.jsonSkeleton = skeleton;
+			this.body = null;
+			return this;
+		}
+
+		/**
+		 * Sets a fixed body sent by all requests.
+		 *
+		 * @param body the request body
+		 * @return this builder
+		 */
+		public Builder body(ApiTestRequestBody body) {
+			this.body = body;
+			this.jsonSkeleton = null;
+			return this;
+		}
+
+		/**
+		 * Compiles the template.
+		 *
+		 * @return a request template
+		 * @throws ApiTestException if the method is not supported or cannot have a body, if the base
+		 * URI is invalid, or if the JSON body skeleton is invalid
+		 */
+		public ApiTestRequestTemplate build() {
+			if (!Arrays.asList(ApiTestRequest.GET, ApiTestRequest.HEAD, ApiTestRequest.POST, ApiTestRequest.PUT, ApiTestRequest.PATCH, ApiTestRequest.DELETE).contains(method)) {
+				throw new ApiTestException("Unsupported HTTP method " + method);
+			} else if ((jsonSkeleton != null || body != null) && !Arrays.asList(ApiTestRequest.POST, ApiTestRequest.PUT, ApiTestRequest.PATCH).contains(method)) {
+				throw new ApiTestException(method + " requests cannot have a body");
+			}
+
+			final List<String> variables = new ArrayList<>();
+			final CompiledText uri = compileUri(variables);
+			final CompiledText json = jsonSkeleton != null ? compileJson(jsonSkeleton, variables) : null;
+
+			return new ApiTestRequestTemplate(this, variables, uri.freeze(variables), json != null ? json.freeze(variables) : null);
+		}
+
+		private CompiledText compileUri(List<String> variables) {
+			final CompiledText text = new CompiledText();
+
+			// the entry point of a balancer is prepended to each request
+			if (balancer == null) {
+				try {
+					new URI(baseUri);
+				} catch (URISyntaxException use) {
+					throw new ApiTestException("Request template base URI " + baseUri + " is invalid", use);
+				}
+
+				final int baseEnd = baseUri.endsWith("/") ? baseUri.length() - 1 : baseUri.length();
+				text.appendLiteral(baseUri.substring(0, baseEnd));
+			}
+
+			if (!pathTemplate.isEmpty() && !pathTemplate.startsWith("/")) {
+				text.appendLiteral("/");
+			}
+
+			// literal characters which are not allowed in URIs are encoded once, like in URI templates
+			final StringBuilder literal = new StringBuilder();
+			int i = 0;
+			while (i < pathTemplate.length()) {
+				final int end = variableEnd(pathTemplate, i);
+				if (end > 0) {
+					text.appendLiteral(encodeLiteral(literal));
+					text.appendVariable(variableIndex(variables, pathTemplate.substring(i + 1, end - 1)), Encoding.URI);
+					i = end;
+				} else {
+					literal.append(pathTemplate.charAt(i));
+					i++;
+				}
+			}
+
+			text.appendLiteral(encodeLiteral(literal));
+
+			for (int p = 0; p < queryParams.size(); p++) {
+				final String name = queryParams.get(p)[0];
+				final String value = queryParams.get(p)[1];
+
+				text.appendLiteral(p == 0 ? "?" : "&");
+				text.appendLiteral(encodeUri(name));
+				text.appendLiteral("=");
+
+				if (variableEnd(value, 0) == value.length()) {
+					text.appendVariable(variableIndex(variables, value.substring(1, value.length() - 1)), Encoding.URI);
+				} else {
+					text.appendLiteral(encodeUri(value));
+				}
+			}
+
+			return text;
+		}
+
+		private static String encodeLiteral(StringBuilder literal) {
+			final StringBuilder encoded = new StringBuilder(literal.length());
+			ApiUriTemplate.appendEncoded(encoded, literal.toString(), true);
+			literal.setLength(0);
+			return encoded.toString();
+		}
+
+		private static CompiledText compileJson(String skeleton, List<String> variables) {
+			final CompiledText text = new CompiledText();
+
+			// replace variables with a neutral value to validate the skeleton
+			final StringBuilder sample = new StringBuilder();
+
+			boolean inString = false;
+			int i = 0;
+			while (i < skeleton.length()) {
+				final char c = skeleton.charAt(i);
+				final int end = c == '{' ? variableEnd(skeleton, i) : -1;
+				if (end > 0) {
+					text.appendVariable(variableIndex(variables, skeleton.substring(i + 1, end - 1)), inString ? Encoding.JSON_STRING : Encoding.JSON_VALUE);
+					sample.append(inString ? "" : "0");
+					i = end;
+					continue;
+				}
+
+				if (c == '"') {
+					inString = !inString;
+				} else if (c == '\\' && inString && i + 1 < skeleton.length()) {
+					text.appendLiteral(skeleton.substring(i, i + 2));
+					sample.append(skeleton, i, i + 2);
+					i += 2;
+					continue;
+				}
+
+				text.appendLiteral(String.valueOf(c));
+				sample.append(c);
+				i++;
+			}
+
+			try (JsonReader reader = Json.createReader(new StringReader(sample.toString()))) {
+				reader.read();
+			} catch (JsonException je) {
+				throw new ApiTestException("Request template JSON body skeleton is invalid: " + skeleton, je);
+			}
+
+			return text;
+		}
+
+		/**
+		 * Returns the end of the variable starting at an index, if any.
+		 *
+		 * @param template the template
+		 * @param start the index of the opening brace
+		 * @return the index after the closing brace, or -1 if there is no variable at the index
+		 */
+		private static int variableEnd(String template, int start) {
+			if (template.charAt(start) != '{') {
+				return -1;
+			}
+
+			int i = start + 1;
+			while (i < template.length() && isVariableChar(template.charAt(i))) {
+				i++;
+			}
+
+			return i > start + 1 && i < template.length() && template.charAt(i) == '}' ? i + 1 : -1;
+		}
+
+		private static boolean isVariableChar(char c) {
+			return c < 128 && (Character.isLetterOrDigit(c) || c == '_' || c == '.');
+		}
+
+		private static int variableIndex(List<String> variables, String name) {
+			final int index = variables.indexOf(name);
+			if (index >= 0) {
+				return index;
+			}
+
+			variables.add(name);
+			return variables.size() - 1;
+		}
+	}
+
+	/**
+	 * The encoding of the value of a variable.
+	 */
+	private enum Encoding {
+		/**
+		 * Percent-encoding of an URI component.
+		 */
+		URI {
+			@Override
+			void append(StringBuilder builder, Object value) {
+				if (value == null) {
+					throw new ApiTestException("Null values cannot be used in URIs");
+				}
+
+				ApiUriTemplate.appendEncoded(builder, value.toString(), false);
+			}
+		},
+
+		/**
+		 * JSON value.
+		 */
+		JSON_VALUE {
+			@Override
+			void append(StringBuilder builder, Object value) {
+				if (value == null) {
+					builder.append("null");
+				} else if (value instanceof JsonValue || value instanceof Boolean) {
+					builder.append(value);
+				} else if (value instanceof Number) {
+					builder.append(toJsonNumber((Number) value));
+				} else {
+					builder.append('"');
+					appendJsonString(builder, value.toString());
+					builder.append('"');
+				}
+			}
+		},
+
+		/**
+		 * Content of a JSON string.
+		 */
+		JSON_STRING {
+			@Override
+			void append(StringBuilder builder, Object value) {
+				if (value == null) {
+					throw new ApiTestException("Null values cannot be used in JSON strings");
+				}
+
+				appendJsonString(builder, value.toString());
+			}
+		};
+
+		abstract void append(StringBuilder builder, Object value);
+	}
+
+	/**
+	 * Text made of literal parts and variables.
+	 */
+	private static class CompiledText {
+		private final List<String> literals = new ArrayList<>();
+		private final List<Integer> variables = new ArrayList<>();
+		private final List<Encoding> encodings = new ArrayList<>();
+		private final StringBuilder literal = new StringBuilder();
+		private String[] literalArray;
+		private int[] variableArray;
+		private Encoding[] encodingArray;
+		private String[] names;
+		private int literalLength;
+
+		void appendLiteral(String text) {
+			literal.append(text);
+		}
+
+		void appendVariable(int index, Encoding encoding) {
+			literals.add(literal.toString());
+			literal.setLength(0);
+			variables.add(index);
+			encodings.add(encoding);
+		}
+
+		/**
+		 * Converts the parts to arrays once compilation is complete.
+		 *
+		 * @param variableNames the names of all variables of the template
+		 * @return this text
+		 */
+		CompiledText freeze(List<String> variableNames) {
+			literals.add(literal.toString());
+			literalArray = literals.toArray(new String[literals.size()]);
+			for (String part : literalArray) {
+				literalLength += part.length();
+			}
+
+			variableArray = new int[variables.size()];
+			for (int i = 0; i < variableArray.length; i++) {
+				variableArray[i] = variables.get(i);
+			}
+
+			encodingArray = encodings.toArray(new Encoding[encodings.size()]);
+			names = variableNames.toArray(new String[variableNames.size()]);
+			return this;
+		}
+
+		/**
+		 * Expands this text with the values of the variables.
+		 *
+		 * @param values the values of all variables of the template
+		 * @return the expanded text
+		 * @throws ApiTestException if a variable is not bound or if its value cannot be encoded
+		 */
+		String expand(Object[] values) {
+			final StringBuilder builder = new StringBuilder(literalLength + variableArray.length * 16);
+			for (int i = 0; i < variableArray.length; i++) {
+				builder.append(literalArray[i]);
+
+				final Object value = values[variableArray[i]];
+				if (value == UNBOUND) {
+					throw new ApiTestException("Request template variable " + names[variableArray[i]] + " is not bound");
+				}
+
+				encodingArray[i].append(builder, value);
+			}
+
+			return builder.append(literalArray[variableArray.length]).toString();
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < variableArray.length; i++) {
+				builder.append(literalArray[i]).append('{').append(names[variableArray[i]]).append('}');
+			}
+
+			return builder.append(literalArray[variableArray.length]).toString();
+		}
+	}
+
+	private static String encodeUri(String value) {
+		final StringBuilder builder = new StringBuilder(value.length());
+		ApiUriTemplate.appendEncoded(builder, value, false);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the escaped content of a JSON string.
+	 *
+	 * @param builder the builder to append to
+	 * @param value the string
+	 */
+	private static void appendJsonString(StringBuilder builder, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					builder.append("\\\"");
+					break;
+				case '\\':
+					builder.append("\\\\");
+					break;
+				case '\n':
+					builder.append("\\n");
+					break;
+				case '\r':
+					builder.append("\\r");
+					break;
+				case '\t':
+					builder.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						builder.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+					} else {
+						builder.append(c);
+					}
+			}
+		}
+	}
+
+	private static String toJsonNumber(Number number) {
+		if ((number instanceof Double || number instanceof Float) && (Double.isNaN(number.doubleValue()) || Double.isInfinite(number.doubleValue()))) {
+			throw new ApiTestException("Number " + number + " cannot be written as JSON");
+		}
+
+		return number.toString();
+	}
+}
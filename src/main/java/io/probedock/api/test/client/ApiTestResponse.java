@@ -1,37 +1,129 @@
 package io.probedock.api.test.client;
 
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.ReadContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.StringReader;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonException;
 import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.ParseException;
+import org.apache.http.entity.ContentType;
 
 /**
  * HTTP response wrapper.
  *
+ * <p>The response body is kept as bytes. It is only decoded to a string, with the charset of the
+ * <tt>Content-Type</tt> header (UTF-8 by default), the first time it is requested as a string.
+ * Likewise, the body is parsed as JSON at most once for the JSON accessors and at most once for
+ * JsonPath assertions and matchers (see {@link #getJsonDocument()}).</p>
+ *
+ * <p>Bodies larger than the spill threshold of the client configuration (see
+ * {@link IApiTestClientConfiguration#getResponseSpillThreshold()}) are written to a temporary file
+ * while they are received and read through a read-only memory mapping instead of being kept in
+ * the heap. All accessors work the same way on such bodies; the temporary file is deleted when
+ * the response is released (see {@link #release()}).</p>
+ *
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  * @author Simon Oulevay <simon.oulevay@probedock.io>
  */
 public class ApiTestResponse {
 	/**
-	 * The internal Apache HTTP response.
+	 * The maximum size of the buffer allocated for a body of known length before it is read.
+	 */
+	private static final int MAX_INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The HTTP status code.
+	 */
+	private final int status;
+
+	/**
+	 * The response headers.
+	 */
+	private final Header[] headers;
+
+	/**
+	 * The response body (null if the response has no body or if it was written to a file).
+	 */
+	private final byte[] responseBody;
+
+	/**
+	 * The temporary file containing the response body (null unless the body was too large to be
+	 * kept in memory).
+	 */
+	private final Path responseFile;
+
+	/**
+	 * The read-only mapping of the temporary file (null if there is no such file or once the
+	 * response has been released).
+	 */
+	private volatile ByteBuffer mappedBody;
+
+	/**
+	 * The response body decoded as a string (null until it is first requested).
+	 */
+	private String responseString;
+
+	/**
+	 * The response body parsed as a JSON structure (null until it is first requested).
+	 */
+	private JsonStructure responseJson;
+
+	/**
+	 * The response body parsed as a JsonPath document (null until it is first requested).
+	 */
+	private ReadContext responseDocument;
+
+	/**
+	 * The number of body bytes received, before decoding.
 	 */
-	private final HttpResponse response;
+	private final long compressedLength;
 
 	/**
-	 * The cached response body.
+	 * The number of body bytes after decoding.
 	 */
-	private final String responseBody;
+	private final long uncompressedLength;
 
 	/**
 	 * URI from the request
 	 */
 	private URI requestUri;
+
+	/**
+	 * The durations of the phases of the request.
+	 */
+	private ApiTestTiming timing = ApiTestTiming.UNKNOWN;
 	
 	/**
 	 * Constructs a new API response from an Apache HTTP response.
@@ -40,8 +132,117 @@ public class ApiTestResponse {
 	 * @throws IOException if the response could not be consumed or closed
 	 */
 	protected ApiTestResponse(HttpResponse response) throws IOException {
-		this.response = response;
-		this.responseBody = readResponseBody(response);
+		this(response, -1);
+	}
+
+	/**
+	 * Constructs a new API response from an Apache HTTP response, writing the body to a temporary
+	 * file if it is larger than the specified threshold.
+	 *
+	 * @param response the HTTP response
+	 * @param spillThreshold the maximum size of a body kept in memory, or a negative value to
+	 * always keep the body in memory
+	 * @throws IOException if the response could not be consumed or closed
+	 */
+	protected ApiTestResponse(HttpResponse response, long spillThreshold) throws IOException {
+		this(response.getStatusLine().getStatusCode(), response.getAllHeaders(), response.getEntity() != null ? response.getEntity().getContent() : null, spillThreshold);
+	}
+
+	/**
+	 * Constructs a new API response from its parts. Used by transports which are not based on
+	 * Apache HTTP client.
+	 *
+	 * @param status the HTTP status code
+	 * @param headers the response headers
+	 * @param responseBody the response body, or null if the response has no body
+	 */
+	public ApiTestResponse(int status, Header[] headers, String responseBody) {
+		this.status = status;
+		this.headers = headers;
+		this.responseBody = responseBody != null ? responseBody.getBytes(getCharset()) : null;
+		this.responseFile = null;
+		this.responseString = responseBody;
+		this.compressedLength = this.responseBody != null ? this.responseBody.length : 0;
+		this.uncompressedLength = compressedLength;
+	}
+
+	/**
+	 * Constructs a new API response from its parts, reading the body as it was received. The body
+	 * is decoded while it is read if the response has a <tt>gzip</tt> or <tt>deflate</tt>
+	 * <tt>Content-Encoding</tt>; the <tt>Content-Encoding</tt>, <tt>Content-Length</tt> and
+	 * <tt>Content-MD5</tt> headers, which describe the encoded body, are then removed. The body
+	 * stream is consumed and closed.
+	 *
+	 * @param status the HTTP status code
+	 * @param headers the response headers
+	 * @param body the response body as received, or null if the response has no body
+	 * @throws IOException if the body could not be read or decoded
+	 */
+	public ApiTestResponse(int status, Header[] headers, InputStream body) throws IOException {
+		this(status, headers, body, -1);
+	}
+
+	/**
+	 * Constructs a new API response from its parts, reading the body as it was received. The body
+	 * is decoded as described in {@link #ApiTestResponse(int, Header[], InputStream)}, and is
+	 * written to a temporary file if it is larger than the specified threshold (after decoding).
+	 * The response should then be released with {@link #release()} when no longer useful.
+	 *
+	 * @param status the HTTP status code
+	 * @param headers the response headers
+	 * @param body the response body as received, or null if the response has no body
+	 * @param spillThreshold the maximum size of a body kept in memory, or a negative value to
+	 * always keep the body in memory
+	 * @throws IOException if the body could not be read, decoded or written to a file
+	 */
+	public ApiTestResponse(int status, Header[] headers, InputStream body, long spillThreshold) throws IOException {
+		this.status = status;
+
+		if (body == null) {
+			this.headers = headers;
+			this.responseBody = null;
+			this.responseFile = null;
+			this.compressedLength = 0;
+			this.uncompressedLength = 0;
+			return;
+		}
+
+		// the headers describing the encoded body no longer apply once it is decoded
+		final String contentEncoding = findHeader(headers, HttpHeaders.CONTENT_ENCODING);
+		this.headers = isDecodable(contentEncoding) ? removeHeaders(headers, HttpHeaders.CONTENT_ENCODING, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_MD5) : headers;
+
+		// the length of the body is only known in advance if it is not encoded
+		int expectedLength = -1;
+		if (contentEncoding == null && getHeaderString(HttpHeaders.CONTENT_LENGTH) != null) {
+			try {
+				expectedLength = Integer.parseInt(getHeaderString(HttpHeaders.CONTENT_LENGTH).trim());
+			} catch (NumberFormatException nfe) {
+				// read the body until the end of the stream
+			}
+		}
+
+		final CountingInputStream counter = new CountingInputStream(body);
+		try (InputStream in = decode(counter, contentEncoding)) {
+			if (spillThreshold < 0 || (expectedLength >= 0 && expectedLength <= spillThreshold)) {
+				this.responseBody = readFully(in, expectedLength);
+				this.responseFile = null;
+			} else {
+
+				// only buffer the beginning of the body until it is known to be too large
+				final byte[] head = expectedLength >= 0 ? new byte[0] : readAtMost(in, spillThreshold);
+				if (head.length <= spillThreshold && expectedLength < 0) {
+					this.responseBody = head;
+					this.responseFile = null;
+				} else {
+					this.responseBody = null;
+					this.responseFile = spill(head, in);
+					this.mappedBody = map(responseFile);
+				}
+			}
+		}
+
+		this.compressedLength = counter.count;
+		this.uncompressedLength = responseBody != null ? responseBody.length : mappedBody.capacity();
 	}
 
 	/**
@@ -51,7 +252,7 @@ public class ApiTestResponse {
 	 * @link http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html
 	 */
 	public int getStatus() {
-		return response.getStatusLine().getStatusCode();
+		return status;
 	}
 
 	/**
@@ -62,7 +263,28 @@ public class ApiTestResponse {
 	 * @return the value of the first response header with the given name, or null if there is none
 	 */
 	public String getHeaderString(String headerName) {
-		return response.getFirstHeader(headerName).getValue();
+		return findHeader(headers, headerName);
+	}
+
+	/**
+	 * Returns the number of body bytes which were received, i.e. before decoding the
+	 * <tt>Content-Encoding</tt> of the response.
+	 *
+	 * @return the compressed body length in bytes (equal to the uncompressed length if the response
+	 * was not compressed)
+	 */
+	public long getCompressedLength() {
+		return compressedLength;
+	}
+
+	/**
+	 * Returns the number of body bytes after decoding the <tt>Content-Encoding</tt> of the
+	 * response.
+	 *
+	 * @return the uncompressed body length in bytes
+	 */
+	public long getUncompressedLength() {
+		return uncompressedLength;
 	}
 
 	/**
@@ -72,7 +294,98 @@ public class ApiTestResponse {
 	 * @return the response body string (which may be empty but not null)
 	 */
 	public String getResponseAsString() {
-		return responseBody != null ? responseBody : "";
+		if (responseString == null) {
+			if (responseFile != null) {
+				responseString = getCharset().decode(getMappedBody()).toString();
+			} else {
+				responseString = responseBody != null ? new String(responseBody, getCharset()) : "";
+			}
+		}
+
+		return responseString;
+	}
+
+	/**
+	 * Returns the response body as bytes, as received (after decoding the
+	 * <tt>Content-Encoding</tt>). The returned array is the buffer of this response and must not
+	 * be modified, unless the body was written to a file: a new copy is then returned by each call
+	 * (prefer {@link #getResponseAsStream()} for large bodies).
+	 *
+	 * @return the response body bytes (which may be empty but not null)
+	 * @throws ApiTestException if the body was written to a file and the response was released
+	 */
+	public byte[] getResponseAsBytes() {
+		if (responseFile != null) {
+			final ByteBuffer buffer = getMappedBody();
+			final byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			return bytes;
+		}
+
+		return responseBody != null ? responseBody : new byte[0];
+	}
+
+	/**
+	 * Returns a stream reading the response body bytes, without decoding them.
+	 *
+	 * @return a new stream of the response body (which may be empty)
+	 * @throws ApiTestException if the body was written to a file and the response was released
+	 */
+	public InputStream getResponseAsStream() {
+		return responseFile != null ? new ByteBufferInputStream(getMappedBody()) : new ByteArrayInputStream(getResponseAsBytes());
+	}
+
+	/**
+	 * Indicates whether the body of this response was too large to be kept in memory and was
+	 * written to a temporary file.
+	 *
+	 * @return true if the body is read from a temporary file
+	 */
+	public boolean isSpilled() {
+		return responseFile != null;
+	}
+
+	/**
+	 * Releases the temporary file of the response body, if any. The body can no longer be read
+	 * afterwards, unless it was already decoded to a string or parsed as JSON. Responses are
+	 * released by {@link ApiTestClient#close()}; calling this method more than once has no effect.
+	 *
+	 * @throws ApiTestException if the temporary file could not be deleted
+	 */
+	public void release() {
+		if (responseFile == null || mappedBody == null) {
+			return;
+		}
+
+		// the mapping is unmapped once garbage collected; the file can already be deleted on POSIX
+		// systems
+		mappedBody = null;
+		try {
+			Files.deleteIfExists(responseFile);
+		} catch (IOException ioe) {
+			throw new ApiTestException("Could not delete the response body file " + responseFile, ioe);
+		}
+	}
+
+	/**
+	 * Returns the charset of the response body, from the <tt>Content-Type</tt> header.
+	 *
+	 * @return the charset of the response, or UTF-8 if it is not specified or not supported
+	 */
+	public Charset getCharset() {
+		final String contentType = getHeaderString(HttpHeaders.CONTENT_TYPE);
+		if (contentType != null) {
+			try {
+				final Charset charset = ContentType.parse(contentType).getCharset();
+				if (charset != null) {
+					return charset;
+				}
+			} catch (ParseException | UnsupportedCharsetException e) {
+				// fall back to the default charset
+			}
+		}
+
+		return StandardCharsets.UTF_8;
 	}
 
 	/**
@@ -82,7 +395,12 @@ public class ApiTestResponse {
 	 * @throws JsonException if the response body could not be read or is not valid JSON
 	 */
 	public JsonObject getResponseAsJsonObject() {
-		return Json.createReader(new StringReader(getResponseAsString())).readObject();
+		final JsonStructure json = getResponseAsJson();
+		if (!(json instanceof JsonObject)) {
+			throw new JsonException("Response body is not a JSON object");
+		}
+
+		return (JsonObject) json;
 	}
 	
 	/**
@@ -103,6 +421,26 @@ public class ApiTestResponse {
 		return this;
 	}
 
+	/**
+	 * Returns the durations of the phases of the request, as measured by the transport.
+	 *
+	 * @return the request timing (never null, but phases may be unknown)
+	 */
+	public ApiTestTiming getTiming() {
+		return timing;
+	}
+
+	/**
+	 * Sets the durations of the phases of the request. Used by transports.
+	 *
+	 * @param timing the request timing
+	 * @return this
+	 */
+	public ApiTestResponse withTiming(ApiTestTiming timing) {
+		this.timing = timing != null ? timing : ApiTestTiming.UNKNOWN;
+		return this;
+	}
+
 	/**
 	 * Returns the response body as a JSON array.
 	 *
@@ -110,17 +448,403 @@ public class ApiTestResponse {
 	 * @throws JsonException if the response body could not be read or is not valid JSON
 	 */
 	public JsonArray getResponseAsJsonArray() {
-		return Json.createReader(new StringReader(getResponseAsString())).readArray();
+		final JsonStructure json = getResponseAsJson();
+		if (!(json instanceof JsonArray)) {
+			throw new JsonException("Response body is not a JSON array");
+		}
+
+		return (JsonArray) json;
+	}
+
+	/**
+	 * Returns the response body as a JSON structure. The body is only parsed on the first call.
+	 *
+	 * @return a JSON object or array
+	 * @throws JsonException if the response body could not be read or is not valid JSON
+	 */
+	public JsonStructure getResponseAsJson() {
+		if (responseJson == null) {
+
+			// large bodies are parsed without decoding them to a string first
+			try (JsonReader reader = responseFile != null && responseString == null ? Json.createReader(new InputStreamReader(getResponseAsStream(), getCharset())) : Json.createReader(new StringReader(getResponseAsString()))) {
+				responseJson = reader.read();
+			}
+		}
+
+		return responseJson;
+	}
+
+	/**
+	 * Binds the response body to an object of the specified type. The body is bound directly
+	 * while it is parsed, without building a JSON structure first. The fields of the object are
+	 * bound to the JSON properties with the same name (see {@link ApiTestJsonBinder} for the
+	 * supported types); the binding metadata of each class is only built once.
+	 *
+	 * @param <T> the type of the object
+	 * @param type the type of the object (e.g. a DTO class with a constructor without arguments)
+	 * @return the bound object
+	 * @throws JsonException if the response body is not valid JSON or does not match the type
+	 * @throws ApiTestException if the type cannot be bound
+	 */
+	public <T> T as(Class<T> type) {
+		return ApiTestJsonBinder.bind(new InputStreamReader(getResponseAsStream(), getCharset()), type);
+	}
+
+	/**
+	 * Binds the response body, which must be a JSON array, to a list of objects of the specified
+	 * type (see {@link #as(Class)}).
+	 *
+	 * @param <T> the type of the elements
+	 * @param elementType the type of the elements
+	 * @return the bound list
+	 * @throws JsonException if the response body is not a valid JSON array or does not match the
+	 * type
+	 * @throws ApiTestException if the type cannot be bound
+	 */
+	public <T> List<T> asList(Class<T> elementType) {
+		return ApiTestJsonBinder.bindList(new InputStreamReader(getResponseAsStream(), getCharset()), elementType);
+	}
+
+	/**
+	 * Returns streaming assertions on the elements of the response body, which must be a JSON
+	 * array. Unlike {@link #getResponseAsJsonArray()}, the elements are checked one by one while
+	 * the body is parsed, so that arrays of any size can be verified in constant memory.
+	 *
+	 * @return assertions to configure, then to verify with {@link ApiTestJsonArrayAssertion#verify()}
+	 */
+	public ApiTestJsonArrayAssertion assertJsonArray() {
+		return new ApiTestJsonArrayAssertion(this);
+	}
+
+	/**
+	 * Returns the response body as a JsonPath document, to evaluate JSON paths without parsing the
+	 * body again. The body is only parsed on the first call. The returned document is shared by all
+	 * callers and must not be modified.
+	 *
+	 * @return a JsonPath document
+	 * @throws com.jayway.jsonpath.InvalidJsonException if the response body is not valid JSON
+	 */
+	public ReadContext getJsonDocument() {
+		if (responseDocument == null) {
+			if (responseFile != null && responseString == null) {
+				responseDocument = JsonPath.using(Configuration.defaultConfiguration()).parse(getResponseAsStream(), getCharset().name());
+			} else {
+				responseDocument = JsonPath.parse(getResponseAsString());
+			}
+		}
+
+		return responseDocument;
 	}
 	
 	/**
-	 * Returns the HTTP response body as an UTF-8 string.
+	 * Reads a stream until its end. The expected length only sizes the buffer up to
+	 * {@link #MAX_INITIAL_BUFFER_SIZE}, so that a wrong <tt>Content-Length</tt> (e.g. of a
+	 * <tt>HEAD</tt> response) cannot allocate more memory than the body needs.
+	 *
+	 * @param in the stream to read
+	 * @param expectedLength the expected number of bytes, or a negative value if unknown
+	 * @return the bytes read
+	 * @throws IOException if the stream could not be read
+	 */
+	private static byte[] readFully(InputStream in, int expectedLength) throws IOException {
+		byte[] buffer = new byte[expectedLength >= 0 ? Math.min(expectedLength, MAX_INITIAL_BUFFER_SIZE) : 8192];
+		int length = 0;
+
+		while (true) {
+			if (length == buffer.length) {
+				if (length < expectedLength) {
+
+					// grow towards the expected length as long as the body is being received
+					buffer = grow(buffer, expectedLength);
+				} else {
+
+					// the expected length was reached: check the end of the stream before growing the buffer
+					final int next = in.read();
+					if (next < 0) {
+						return buffer;
+					}
+
+					buffer = grow(buffer, Integer.MAX_VALUE - 8);
+					buffer[length++] = (byte) next;
+				}
+			}
+
+			final int n = in.read(buffer, length, buffer.length - length);
+			if (n < 0) {
+				return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+			}
+
+			length += n;
+		}
+	}
+
+	/**
+	 * Returns a larger copy of a buffer.
 	 *
-	 * @param response the HTTP response whose body to read
-	 * @return the response body as a string
-	 * @throws IOException if the response entity could not be read
+	 * @param buffer the buffer to grow
+	 * @param maxLength the maximum length of the new buffer
+	 * @return a new buffer with the same contents
+	 * @throws IOException if the buffer has already reached the maximum length
 	 */
-	private static String readResponseBody(HttpResponse response) throws IOException {
-		return response.getEntity() != null ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : null;
+	private static byte[] grow(byte[] buffer, int maxLength) throws IOException {
+		if (buffer.length >= maxLength) {
+			throw new IOException("Response body is too large to be kept in memory");
+		}
+
+		return Arrays.copyOf(buffer, (int) Math.min(Math.max(buffer.length * 2L, 8192), maxLength));
+	}
+
+	/**
+	 * Reads a stream until its end or until more than the specified number of bytes have been read.
+	 *
+	 * @param in the stream to read
+	 * @param maxLength the maximum number of bytes to read before stopping
+	 * @return the bytes read (one more than the maximum if the end of the stream was not reached)
+	 * @throws IOException if the stream could not be read
+	 */
+	private static byte[] readAtMost(InputStream in, long maxLength) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+		final byte[] buffer = new byte[8192];
+
+		int n;
+		while (out.size() <= maxLength && (n = in.read(buffer, 0, (int) Math.min(buffer.length, maxLength + 1 - out.size()))) >= 0) {
+			out.write(buffer, 0, n);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes a body to a new temporary file.
+	 *
+	 * @param head the beginning of the body, which was already read
+	 * @param in the rest of the body
+	 * @return the temporary file
+	 * @throws IOException if the body could not be read or written
+	 */
+	private static Path spill(byte[] head, InputStream in) throws IOException {
+		final Path file = Files.createTempFile("api-test-response-", ".tmp");
+		try (OutputStream out = Files.newOutputStream(file)) {
+			out.write(head);
+			in.transferTo(out);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+
+		return file;
+	}
+
+	/**
+	 * Maps a body file to memory.
+	 *
+	 * @param file the body file
+	 * @return a read-only buffer of the file
+	 * @throws IOException if the file could not be mapped (the file is then deleted)
+	 */
+	private static ByteBuffer map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Response body of " + channel.size() + " bytes is too large to be mapped to memory");
+			}
+
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a view of the memory-mapped body.
+	 *
+	 * @return a new buffer positioned at the beginning of the body
+	 * @throws ApiTestException if the response was released
+	 */
+	private ByteBuffer getMappedBody() {
+		final ByteBuffer buffer = mappedBody;
+		if (buffer == null) {
+			throw new ApiTestException("The body of the response to " + requestUri + " has been released");
+		}
+
+		return buffer.duplicate();
+	}
+
+	/**
+	 * Wraps a body stream to decode the specified content encoding.
+	 *
+	 * @param body the body as received
+	 * @param contentEncoding the content encoding of the body (may be null)
+	 * @return a stream of the decoded body (the same stream if the encoding is not supported)
+	 * @throws IOException if the body could not be read
+	 */
+	private static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+		if (!isDecodable(contentEncoding)) {
+			return body;
+		}
+
+		switch (contentEncoding.trim().toLowerCase(Locale.ENGLISH)) {
+			case "gzip":
+			case "x-gzip":
+				final PushbackInputStream gzipBody = new PushbackInputStream(body, 1);
+				final int first = gzipBody.read();
+				if (first < 0) {
+					return gzipBody;
+				}
+				gzipBody.unread(first);
+				return new GZIPInputStream(gzipBody, 8192);
+			case "deflate":
+				// servers send either zlib-wrapped (as specified) or raw deflate data
+				final PushbackInputStream deflateBody = new PushbackInputStream(body, 2);
+				final byte[] header = new byte[2];
+				final int n = deflateBody.read(header);
+				if (n <= 0) {
+					return deflateBody;
+				}
+				deflateBody.unread(header, 0, n);
+				final boolean zlib = n == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+				return new InflaterInputStream(deflateBody, new Inflater(!zlib), 8192);
+			default:
+				return body;
+		}
+	}
+
+	/**
+	 * Indicates whether a body with the specified content encoding is decoded while it is read
+	 * (see {@link #decode(InputStream, String)}).
+	 *
+	 * @param contentEncoding the value of the <tt>Content-Encoding</tt> header, or null
+	 * @return true if the encoding is <tt>gzip</tt> or <tt>deflate</tt>
+	 */
+	private static boolean isDecodable(String contentEncoding) {
+		if (contentEncoding == null) {
+			return false;
+		}
+
+		switch (contentEncoding.trim().toLowerCase(Locale.ENGLISH)) {
+			case "gzip":
+			case "x-gzip":
+			case "deflate":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the value of the first header with the specified name.
+	 *
+	 * @param headers the headers to search
+	 * @param headerName the header name (case-insensitive)
+	 * @return the header value, or null if there is no such header
+	 */
+	private static String findHeader(Header[] headers, String headerName) {
+		for (Header header : headers) {
+			if (header.getName().equalsIgnoreCase(headerName)) {
+				return header.getValue();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns a copy of headers without the headers with the specified names.
+	 *
+	 * @param headers the headers to copy
+	 * @param headerNames the names of the headers to remove (case-insensitive)
+	 * @return the remaining headers
+	 */
+	private static Header[] removeHeaders(Header[] headers, String... headerNames) {
+		final List<Header> remaining = new ArrayList<>(headers.length);
+		for (Header header : headers) {
+			boolean removed = false;
+			for (String headerName : headerNames) {
+				removed |= header.getName().equalsIgnoreCase(headerName);
+			}
+
+			if (!removed) {
+				remaining.add(header);
+			}
+		}
+
+		return remaining.toArray(new Header[remaining.size()]);
+	}
+
+	/**
+	 * Stream reading the bytes of a buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			} else if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			final int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Stream counting the bytes read from another stream.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
 	}
 }
@@ -0,0 +1,138 @@
+package io.probedock.api.test.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the phases of an API request, measured by the transport which executed it.
+ *
+ * <p>All durations are in nanoseconds. A phase which was not measured, either because it did not
+ * happen (e.g. no TLS handshake for a plain HTTP request or no connect when a pooled connection is
+ * reused) or because the transport cannot observe it, has a duration of <tt>-1</tt>. The
+ * connection lease wait, connect, TLS handshake and request write phases are all part of the time
+ * to first byte; the total duration is the time to first byte plus the body read.</p>
+ *
+ * <p>Instances are immutable.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class ApiTestTiming {
+	/**
+	 * Timing of a request whose phases were not measured.
+	 */
+	public static final ApiTestTiming UNKNOWN = new ApiTestTiming(-1, -1, -1, -1, -1, -1, -1);
+
+	private final long leaseWait;
+	private final long connect;
+	private final long tlsHandshake;
+	private final long requestWrite;
+	private final long timeToFirstByte;
+	private final long bodyRead;
+	private final long total;
+
+	/**
+	 * Constructs a new timing. Each duration is in nanoseconds, or <tt>-1</tt> if it was not
+	 * measured.
+	 *
+	 * @param leaseWait the time spent waiting for a connection from the pool
+	 * @param connect the time spent opening a TCP connection
+	 * @param tlsHandshake the time spent in the TLS handshake
+	 * @param requestWrite the time spent sending the request line, headers and body
+	 * @param timeToFirstByte the time from the start of the request until the response headers
+	 * were received
+	 * @param bodyRead the time spent reading (and decoding) the response body
+	 * @param total the time from the start of the request until the response was fully read
+	 */
+	public ApiTestTiming(long leaseWait, long connect, long tlsHandshake, long requestWrite, long timeToFirstByte, long bodyRead, long total) {
+		this.leaseWait = leaseWait;
+		this.connect = connect;
+		this.tlsHandshake = tlsHandshake;
+		this.requestWrite = requestWrite;
+		this.timeToFirstByte = timeToFirstByte;
+		this.bodyRead = bodyRead;
+		this.total = total;
+	}
+
+	/**
+	 * @return The time spent waiting for a connection from the pool, in nanoseconds (-1 if unknown)
+	 */
+	public long getLeaseWait() {
+		return leaseWait;
+	}
+
+	/**
+	 * @return The time spent opening a TCP connection, in nanoseconds (-1 if unknown or if a pooled
+	 * connection was reused)
+	 */
+	public long getConnect() {
+		return connect;
+	}
+
+	/**
+	 * @return The time spent in the TLS handshake, in nanoseconds (-1 if unknown or if there was
+	 * no handshake)
+	 */
+	public long getTlsHandshake() {
+		return tlsHandshake;
+	}
+
+	/**
+	 * @return The time spent sending the request, in nanoseconds (-1 if unknown)
+	 */
+	public long getRequestWrite() {
+		return requestWrite;
+	}
+
+	/**
+	 * @return The time from the start of the request until the response headers were received, in
+	 * nanoseconds (-1 if unknown)
+	 */
+	public long getTimeToFirstByte() {
+		return timeToFirstByte;
+	}
+
+	/**
+	 * @return The time spent reading the response body, in nanoseconds (-1 if unknown)
+	 */
+	public long getBodyRead() {
+		return bodyRead;
+	}
+
+	/**
+	 * @return The total duration of the request, in nanoseconds (-1 if unknown)
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the total duration of the request in the specified unit.
+	 *
+	 * @param unit the unit of the returned duration
+	 * @return the total duration, or -1 if unknown
+	 */
+	public long getTotal(TimeUnit unit) {
+		return total >= 0 ? unit.convert(total, TimeUnit.NANOSECONDS) : -1;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("total=").append(format(total));
+		append(builder, "leaseWait", leaseWait);
+		append(builder, "connect", connect);
+		append(builder, "tls", tlsHandshake);
+		append(builder, "write", requestWrite);
+		append(builder, "ttfb", timeToFirstByte);
+		append(builder, "bodyRead", bodyRead);
+		return builder.toString();
+	}
+
+	private static void append(StringBuilder builder, String name, long duration) {
+		if (duration >= 0) {
+			builder.append(", ").append(name).append("=").append(format(duration));
+		}
+	}
+
+	private static String format(long duration) {
+		return duration >= 0 ? String.format("%.3fms", duration / 1e6) : "?";
+	}
+}
@@ -0,0 +1,67 @@
+package io.probedock.api.test.client;
+
+/**
+ * Mutable recorder of the phases of a request, used by transports to build an
+ * {@link ApiTestTiming}. Phases which can happen several times for one request (e.g. when it is
+ * retried) are accumulated.
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+final class ApiTestTimingRecorder {
+	private final long start = System.nanoTime();
+	private volatile long leaseWait = -1;
+	private volatile long connect = -1;
+	private volatile long tlsHandshake = -1;
+	private volatile long requestWrite = -1;
+	private volatile long firstByte = -1;
+
+	void addLeaseWait(long duration) {
+		leaseWait = add(leaseWait, duration);
+	}
+
+	void addConnect(long duration) {
+		connect = add(connect, duration);
+	}
+
+	void addTlsHandshake(long duration) {
+		tlsHandshake = add(tlsHandshake, duration);
+	}
+
+	long getTlsHandshake() {
+		return tlsHandshake;
+	}
+
+	void addRequestWrite(long duration) {
+		requestWrite = add(requestWrite, duration);
+	}
+
+	/**
+	 * Records the reception of the response headers (only the first call is taken into account).
+	 */
+	void firstByte() {
+		if (firstByte < 0) {
+			firstByte = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Builds the timing of the request, which ends now.
+	 *
+	 * @return a request timing
+	 */
+	ApiTestTiming end() {
+		final long end = System.nanoTime();
+		return new ApiTestTiming(
+			leaseWait,
+			connect,
+			tlsHandshake,
+			requestWrite,
+			firstByte >= 0 ? firstByte - start : -1,
+			firstByte >= 0 ? end - firstByte : -1,
+			end - start);
+	}
+
+	private static long add(long total, long duration) {
+		return total >= 0 ? total + duration : duration;
+	}
+}
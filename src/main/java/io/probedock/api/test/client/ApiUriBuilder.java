@@ -2,27 +2,85 @@ package io.probedock.api.test.client;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.http.client.utils.URIBuilder;
 
 /**
  * Utility to construct URIs with a builder pattern. Ensures that the final URI will not contain
  * duplicate slash (<tt>/</tt>) characters.
  *
+ * <p>Query parameters are form-encoded (<tt>application/x-www-form-urlencoded</tt>) in the order
+ * in which their name was first added, and the queries of expanded URI templates keep their place
+ * among them. Path elements are not encoded; use
+ * {@link #expand(ApiUriTemplate, Object...)} to encode variable parts of the path.</p>
+ *
+ * <p>When the builder is created with an {@link ApiEntryPointBalancer}, the base URI is the entry
+ * point selected by the balancer each time the URI is built. The routing key of the selection is
+ * the path of the URI unless another key is set with {@link #routingKey(String)}.</p>
+ *
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  * @author Simon Oulevay <simon.oulevay@probedock.io>
  */
 public class ApiUriBuilder {
 	/**
-	 * Base URI.
+	 * Whether each ASCII character can be written in a form-encoded query without being encoded.
+	 */
+	private static final boolean[] FORM_SAFE = new boolean[128];
+
+	/**
+	 * Hexadecimal digits.
+	 */
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			FORM_SAFE[c] = true;
+			FORM_SAFE[Character.toUpperCase(c)] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			FORM_SAFE[c] = true;
+		}
+		for (char c : "-_.*".toCharArray()) {
+			FORM_SAFE[c] = true;
+		}
+	}
+
+	/**
+	 * Base URI (null if it is selected by the balancer).
 	 */
 	private final String baseUri;
 
 	/**
-	 * Query parameters.
+	 * The balancer selecting the base URI (null if the base URI is fixed).
+	 */
+	private final ApiEntryPointBalancer balancer;
+
+	/**
+	 * The routing key used to select the entry point (null to use the path).
+	 */
+	private String routingKey;
+
+	/**
+	 * The entry point selected when the URI was last built.
+	 */
+	private ApiEntryPoint entryPoint;
+
+	/**
+	 * The routing key of the last selection.
+	 */
+	private String entryPointKey;
+
+	/**
+	 * Query parts in order: the values of a query parameter (a list), or an already encoded query
+	 * string (e.g. expanded from an URI template).
+	 */
+	private final List<Object> queryParts;
+
+	/**
+	 * Query parameter values by name.
 	 */
 	private final Map<String, List<Object>> queryParams;
 	
@@ -37,10 +95,22 @@ public class ApiUriBuilder {
 	 * @param baseUri the base URI
 	 */
 	public ApiUriBuilder(String baseUri) {
+		this(stripTrailingSlash(baseUri), null);
+	}
 
-		// strip trailing slash
-		this.baseUri = baseUri.replaceFirst("\\/$", "");
+	/**
+	 * Constructs an URI builder starting from the entry points of a balancer.
+	 *
+	 * @param balancer the balancer selecting the base URI
+	 */
+	public ApiUriBuilder(ApiEntryPointBalancer balancer) {
+		this(null, balancer);
+	}
 
+	private ApiUriBuilder(String baseUri, ApiEntryPointBalancer balancer) {
+		this.baseUri = baseUri;
+		this.balancer = balancer;
+		this.queryParts = new ArrayList<>();
 		this.queryParams = new HashMap<>();
 		this.pathElements = new ArrayList<>();
 	}
@@ -55,12 +125,41 @@ public class ApiUriBuilder {
 
 		for (String element : elements) {
 			// strip leading and trailing slash
-			pathElements.add(element.replaceFirst("^\\/", "").replaceFirst("\\/$", ""));
+			final int start = element.startsWith("/") ? 1 : 0;
+			final int end = element.length() > start && element.endsWith("/") ? element.length() - 1 : element.length();
+			pathElements.add(element.substring(start, end));
 		}
 
 		return this;
 	}
 
+	/**
+	 * Appends an expanded URI template to the URI. The path of the expansion is appended as a path
+	 * element, and its query string (if any) is added to the query parameters.
+	 *
+	 * @param template the URI template (e.g. <tt>/users/{id}/orders{?page,size}</tt>)
+	 * @param values the values of the variables of the template, in order of first appearance
+	 * @return this builder
+	 * @throws ApiTestException if the number of values does not match the template
+	 * @see ApiUriTemplate#expand(Object...)
+	 */
+	public ApiUriBuilder expand(ApiUriTemplate template, Object... values) {
+		return appendExpansion(template.expand(values));
+	}
+
+	/**
+	 * Appends an expanded URI template to the URI. The path of the expansion is appended as a path
+	 * element, and its query string (if any) is added to the query parameters.
+	 *
+	 * @param template the URI template (e.g. <tt>/users/{id}/orders{?page,size}</tt>)
+	 * @param values the values of the variables of the template by name
+	 * @return this builder
+	 * @see ApiUriTemplate#expand(java.util.Map)
+	 */
+	public ApiUriBuilder expand(ApiUriTemplate template, Map<String, ?> values) {
+		return appendExpansion(template.expand(values));
+	}
+
 	/**
 	 * Adds a query parameter to the URI.
 	 *
@@ -91,7 +190,49 @@ public class ApiUriBuilder {
 	}
 
 	/**
-	 * Builds and returns the URI.
+	 * Sets the routing key used to select the entry point of the URI (see
+	 * {@link ConsistentHashApiEntryPointSelector}). This has no effect if the builder was not
+	 * created with a balancer.
+	 *
+	 * @param routingKey the routing key (null to use the path)
+	 * @return this builder
+	 */
+	public ApiUriBuilder routingKey(String routingKey) {
+		this.routingKey = routingKey;
+		return this;
+	}
+
+	/**
+	 * Returns the entry point selected by the balancer when the URI was last built.
+	 *
+	 * @return an entry point, or null if the builder was not created with a balancer or the URI has
+	 * not been built yet
+	 */
+	public ApiEntryPoint getEntryPoint() {
+		return entryPoint;
+	}
+
+	/**
+	 * Returns the balancer selecting the base URI.
+	 *
+	 * @return a balancer, or null if the base URI is fixed
+	 */
+	ApiEntryPointBalancer getBalancer() {
+		return balancer;
+	}
+
+	/**
+	 * Returns the routing key with which the entry point was last selected.
+	 *
+	 * @return a routing key, or null if no entry point has been selected
+	 */
+	String getEntryPointKey() {
+		return entryPointKey;
+	}
+
+	/**
+	 * Builds and returns the URI. If the builder was created with a balancer, an entry point is
+	 * selected each time the URI is built.
 	 *
 	 * @return an URI
 	 * @throws ApiTestException if the base URI, path elements or query parameters are invalid
@@ -114,30 +255,107 @@ public class ApiUriBuilder {
 
 		// create the list if necessary
 		if (!queryParams.containsKey(name)) {
-			queryParams.put(name, new ArrayList<>());
+			final List<Object> values = new ArrayList<>();
+			queryParams.put(name, values);
+			queryParts.add(new QueryParam(name, values));
 		}
 
 		return queryParams.get(name);
 	}
 
+	private ApiUriBuilder appendExpansion(String expansion) {
+		final int queryStart = expansion.indexOf('?');
+		final String path = queryStart >= 0 ? expansion.substring(0, queryStart) : expansion;
+
+		if (!path.isEmpty()) {
+			path(path);
+		}
+
+		if (queryStart >= 0 && queryStart < expansion.length() - 1) {
+			queryParts.add(expansion.substring(queryStart + 1));
+		}
+
+		return this;
+	}
+
+	private static String stripTrailingSlash(String uri) {
+		return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+	}
+
 	private URI buildUri() throws URISyntaxException {
+		final StringBuilder builder = new StringBuilder(pathElements.size() * 16 + queryParts.size() * 32 + 64);
+		for (String element : pathElements) {
+			builder.append('/').append(element);
+		}
+
+		// select the entry point by the path unless another routing key is set
+		String base = baseUri;
+		if (balancer != null) {
+			entryPointKey = routingKey != null ? routingKey : builder.toString();
+			entryPoint = balancer.select(entryPointKey);
+			base = stripTrailingSlash(entryPoint.getUri());
+		}
 
 		// build the URI from the base URI and path elements
-		final StringBuilder builder = new StringBuilder(baseUri);
-		for (String element : pathElements) {
-			builder.append("/").append(element);
+		builder.insert(0, base);
+
+		// add all query parameters, after the query of the base URI if it has one
+		char separator = base.indexOf('?') >= 0 ? '&' : '?';
+		for (Object part : queryParts) {
+			if (part instanceof String) {
+				builder.append(separator).append(part);
+				separator = '&';
+				continue;
+			}
+
+			final QueryParam queryParam = (QueryParam) part;
+			for (Object value : queryParam.values) {
+				builder.append(separator);
+				appendFormEncoded(builder, queryParam.name);
+				builder.append('=');
+				appendFormEncoded(builder, value.toString());
+				separator = '&';
+			}
 		}
 
-		// build the actual URI object
-		final URIBuilder uriBuilder = new URIBuilder(builder.toString());
+		return new URI(builder.toString());
+	}
 
-		// add all query parameters
-		for (Map.Entry<String, List<Object>> queryParam : queryParams.entrySet()) {
-			for (Object value : queryParam.getValue()) {
-				uriBuilder.addParameter(queryParam.getKey(), value.toString());
+	/**
+	 * Form-encodes a query parameter name or value with UTF-8, like HTML forms.
+	 *
+	 * @param builder the builder to append to
+	 * @param value the value to encode
+	 */
+	private static void appendFormEncoded(StringBuilder builder, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80 && FORM_SAFE[c]) {
+				builder.append(c);
+			} else if (c == ' ') {
+				builder.append('+');
+			} else if (c < 0x80) {
+				builder.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+			} else {
+				final int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+				for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+					builder.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+				}
+				i = end - 1;
 			}
 		}
+	}
 
-		return uriBuilder.build();
+	/**
+	 * Values of a query parameter.
+	 */
+	private static class QueryParam {
+		private final String name;
+		private final List<Object> values;
+
+		QueryParam(String name, List<Object> values) {
+			this.name = name;
+			this.values = values;
+		}
 	}
 }
@@ -0,0 +1,455 @@
+package io.probedock.api.test.client;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled URI template (RFC 6570, up to level 3), e.g. <tt>/users/{id}/orders{?page,size}</tt>.
+ *
+ * <p>Templates are parsed once by {@link #compile(String)} and cached. Expanding a template then
+ * writes the literal parts and the encoded values of its variables into a single buffer, using
+ * precomputed tables of the characters allowed by each expression type:</p>
+ *
+ * <ul>
+ * <li><tt>{var}</tt>: simple string expansion (reserved characters are encoded);</li>
+ * <li><tt>{+var}</tt>, <tt>{#var}</tt>: reserved and fragment expansion (reserved characters and
+ * percent-encoded triplets are kept);</li>
+ * <li><tt>{.var}</tt>, <tt>{/var}</tt>: label and path segment expansion;</li>
+ * <li><tt>{;var}</tt>, <tt>{?var}</tt>, <tt>{&amp;var}</tt>: path-style parameter, query and query
+ * continuation expansion.</li>
+ * </ul>
+ *
+ * <p>An expression may contain several comma-separated variables. Variables whose value is null
+ * are undefined and skipped. Values are converted with <tt>toString()</tt>, except arrays and
+ * iterables, whose elements are joined with commas. The prefix and explode modifiers of level 4
+ * are not supported.</p>
+ *
+ * <p>Templates are immutable and thread-safe.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class ApiUriTemplate {
+	/**
+	 * Maximum number of cached templates (the cache is cleared when it is full).
+	 */
+	private static final int CACHE_SIZE = 1024;
+
+	/**
+	 * The cache of compiled templates by template string.
+	 */
+	private static final Map<String, ApiUriTemplate> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Whether each ASCII character is unreserved (RFC 3986).
+	 */
+	private static final boolean[] UNRESERVED = new boolean[128];
+
+	/**
+	 * Whether each ASCII character is unreserved or reserved (RFC 3986).
+	 */
+	private static final boolean[] UNRESERVED_OR_RESERVED = new boolean[128];
+
+	/**
+	 * Hexadecimal digits.
+	 */
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			UNRESERVED[c] = true;
+			UNRESERVED[Character.toUpperCase(c)] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			UNRESERVED[c] = true;
+		}
+		for (char c : "-._~".toCharArray()) {
+			UNRESERVED[c] = true;
+		}
+
+		System.arraycopy(UNRESERVED, 0, UNRESERVED_OR_RESERVED, 0, UNRESERVED.length);
+		for (char c : ":/?#[]@!$&'()*+,;=".toCharArray()) {
+			UNRESERVED_OR_RESERVED[c] = true;
+		}
+	}
+
+	/**
+	 * The template string.
+	 */
+	private final String template;
+
+	/**
+	 * The literal parts of the template, before, between and after the expressions (already
+	 * encoded).
+	 */
+	private final String[] literals;
+
+	/**
+	 * The expressions of the template.
+	 */
+	private final Expression[] expressions;
+
+	/**
+	 * The total length of the literal parts.
+	 */
+	private final int literalLength;
+
+	/**
+	 * The names of the variables, in order of first appearance.
+	 */
+	private final List<String> variables;
+
+	/**
+	 * The index of each variable.
+	 */
+	private final Map<String, Integer> variableIndexes;
+
+	/**
+	 * Returns the compiled version of a template, compiling it if it is not cached.
+	 *
+	 * @param template the template string (e.g. <tt>/users/{id}/orders{?page,size}</tt>)
+	 * @return a compiled template
+	 * @throws ApiTestException if the template is invalid
+	 */
+	public static ApiUriTemplate compile(String template) {
+
+		final ApiUriTemplate cached = CACHE.get(template);
+		if (cached != null) {
+			return cached;
+		}
+
+		final ApiUriTemplate compiled = new ApiUriTemplate(template);
+		if (CACHE.size() >= CACHE_SIZE) {
+			CACHE.clear();
+		}
+
+		CACHE.put(template, compiled);
+		return compiled;
+	}
+
+	private ApiUriTemplate(String template) {
+		this.template = template;
+
+		final List<String> literalList = new ArrayList<>();
+		final List<Expression> expressionList = new ArrayList<>();
+		final List<String> variableList = new ArrayList<>();
+
+		int i = 0;
+		while (true) {
+			final int start = template.indexOf('{', i);
+			final String literal = template.substring(i, start >= 0 ? start : template.length());
+			if (literal.indexOf('}') >= 0) {
+				throw new ApiTestException("URI template " + template + " has an unexpected '}'");
+			}
+
+			// literals may already contain reserved characters and percent-encoded triplets
+			final StringBuilder encodedLiteral = new StringBuilder(literal.length());
+			appendEncoded(encodedLiteral, literal, true);
+			literalList.add(encodedLiteral.toString());
+
+			if (start < 0) {
+				break;
+			}
+
+			final int end = template.indexOf('}', start);
+			if (end < 0) {
+				throw new ApiTestException("URI template " + template + " has an unclosed expression");
+			}
+
+			expressionList.add(parseExpression(template.substring(start + 1, end), variableList));
+			i = end + 1;
+		}
+
+		this.literals = literalList.toArray(new String[literalList.size()]);
+		this.expressions = expressionList.toArray(new Expression[expressionList.size()]);
+		this.variables = Collections.unmodifiableList(variableList);
+
+		int length = 0;
+		for (String part : literals) {
+			length += part.length();
+		}
+		this.literalLength = length;
+
+		this.variableIndexes = new HashMap<>();
+		for (int v = 0; v < variableList.size(); v++) {
+			variableIndexes.put(variableList.get(v), v);
+		}
+	}
+
+	/**
+	 * Returns the names of the variables of this template, in order of first appearance. This is
+	 * the order of the values of {@link #expand(Object...)}.
+	 *
+	 * @return the variable names
+	 */
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Expands this template with named values. Missing variables are undefined.
+	 *
+	 * @param values the values of the variables by name
+	 * @return the expanded URI reference
+	 */
+	public String expand(Map<String, ?> values) {
+		final Object[] valueArray = new Object[variables.size()];
+		for (Map.Entry<String, ?> entry : values.entrySet()) {
+			final Integer index = variableIndexes.get(entry.getKey());
+			if (index != null) {
+				valueArray[index] = entry.getValue();
+			}
+		}
+
+		return expandValues(valueArray);
+	}
+
+	/**
+	 * Expands this template with the values of all variables, in the order of
+	 * {@link #getVariables()}.
+	 *
+	 * @param values the values of the variables (null for undefined variables)
+	 * @return the expanded URI reference
+	 * @throws ApiTestException if the number of values does not match the number of variables
+	 */
+	public String expand(Object... values) {
+		if (values.length != variables.size()) {
+			throw new ApiTestException("URI template " + template + " has " + variables.size() + " variables but " + values.length + " values were given");
+		}
+
+		return expandValues(values);
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+
+	private String expandValues(Object[] values) {
+		final StringBuilder builder = new StringBuilder(literalLength + expressions.length * 16);
+		for (int i = 0; i < expressions.length; i++) {
+			builder.append(literals[i]);
+			expressions[i].expand(builder, values);
+		}
+
+		return builder.append(literals[expressions.length]).toString();
+	}
+
+	private Expression parseExpression(String expression, List<String> variableList) {
+		if (expression.isEmpty()) {
+			throw new ApiTestException("URI template " + template + " has an empty expression");
+		}
+
+		final Operator operator = Operator.of(expression.charAt(0));
+		final String[] names = (operator == Operator.SIMPLE ? expression : expression.substring(1)).split(",", -1);
+		final int[] indexes = new int[names.length];
+
+		for (int i = 0; i < names.length; i++) {
+			final String name = names[i];
+			if (name.isEmpty()) {
+				throw new ApiTestException("URI template " + template + " has an empty variable name");
+			}
+
+			for (int j = 0; j < name.length(); j++) {
+				final char c = name.charAt(j);
+				if (c == '*' || c == ':') {
+					throw new ApiTestException("URI template " + template + " uses a modifier, which is not supported");
+				} else if (c >= 128 || !(Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '%')) {
+					throw new ApiTestException("URI template " + template + " has an invalid variable name " + name);
+				}
+			}
+
+			int index = variableList.indexOf(name);
+			if (index < 0) {
+				variableList.add(name);
+				index = variableList.size() - 1;
+			}
+
+			indexes[i] = index;
+		}
+
+		return new Expression(operator, names, indexes);
+	}
+
+	/**
+	 * Percent-encodes all characters of a value which are not allowed in an URI component.
+	 * Characters outside of ASCII are encoded as UTF-8.
+	 *
+	 * @param builder the builder to append to
+	 * @param value the value to encode
+	 * @param allowReserved whether reserved characters and percent-encoded triplets are kept
+	 */
+	static void appendEncoded(StringBuilder builder, String value, boolean allowReserved) {
+		final boolean[] allowed = allowReserved ? UNRESERVED_OR_RESERVED : UNRESERVED;
+
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80 && allowed[c]) {
+				builder.append(c);
+			} else if (c == '%' && allowReserved && i + 2 < length && isHex(value.charAt(i + 1)) && isHex(value.charAt(i + 2))) {
+				builder.append(value, i, i + 3);
+				i += 2;
+			} else if (c < 0x80) {
+				appendPercent(builder, c);
+			} else if (c < 0x800) {
+				appendPercent(builder, 0xC0 | c >> 6);
+				appendPercent(builder, 0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				appendPercent(builder, 0xF0 | codePoint >> 18);
+				appendPercent(builder, 0x80 | codePoint >> 12 & 0x3F);
+				appendPercent(builder, 0x80 | codePoint >> 6 & 0x3F);
+				appendPercent(builder, 0x80 | codePoint & 0x3F);
+			} else {
+				appendPercent(builder, 0xE0 | c >> 12);
+				appendPercent(builder, 0x80 | c >> 6 & 0x3F);
+				appendPercent(builder, 0x80 | c & 0x3F);
+			}
+		}
+	}
+
+	private static boolean isHex(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f');
+	}
+
+	private static void appendPercent(StringBuilder builder, int b) {
+		builder.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+	}
+
+	/**
+	 * Expression operator (see RFC 6570 appendix A).
+	 */
+	private enum Operator {
+		SIMPLE("", ",", false, "", false),
+		RESERVED("", ",", false, "", true),
+		FRAGMENT("#", ",", false, "", true),
+		LABEL(".", ".", false, "", false),
+		PATH("/", "/", false, "", false),
+		PATH_PARAMETER(";", ";", true, "", false),
+		QUERY("?", "&", true, "=", false),
+		QUERY_CONTINUATION("&", "&", true, "=", false);
+
+		private final String first;
+		private final String separator;
+		private final boolean named;
+		private final String ifEmpty;
+		private final boolean allowReserved;
+
+		Operator(String first, String separator, boolean named, String ifEmpty, boolean allowReserved) {
+			this.first = first;
+			this.separator = separator;
+			this.named = named;
+			this.ifEmpty = ifEmpty;
+			this.allowReserved = allowReserved;
+		}
+
+		static Operator of(char c) {
+			switch (c) {
+				case '+':
+					return RESERVED;
+				case '#':
+					return FRAGMENT;
+				case '.':
+					return LABEL;
+				case '/':
+					return PATH;
+				case ';':
+					return PATH_PARAMETER;
+				case '?':
+					return QUERY;
+				case '&':
+					return QUERY_CONTINUATION;
+				case '=':
+				case ',':
+				case '!':
+				case '@':
+				case '|':
+					throw new ApiTestException("URI template operator " + c + " is reserved");
+				default:
+					return SIMPLE;
+			}
+		}
+	}
+
+	/**
+	 * Expression of a template, e.g. <tt>{?page,size}</tt>.
+	 */
+	private static class Expression {
+		private final Operator operator;
+		private final String[] names;
+		private final int[] indexes;
+
+		Expression(Operator operator, String[] names, int[] indexes) {
+			this.operator = operator;
+			this.names = names;
+			this.indexes = indexes;
+		}
+
+		void expand(StringBuilder builder, Object[] values) {
+			boolean first = true;
+			for (int i = 0; i < indexes.length; i++) {
+				final Object value = values[indexes[i]];
+				if (value == null || isEmptyList(value)) {
+					continue;
+				}
+
+				builder.append(first ? operator.first : operator.separator);
+				first = false;
+
+				if (operator.named) {
+					builder.append(names[i]);
+				}
+
+				final int start = builder.length();
+				if (operator.named) {
+					builder.append('=');
+				}
+
+				final int valueStart = builder.length();
+				appendValue(builder, value);
+
+				// named variables with an empty value have a special form
+				if (operator.named && builder.length() == valueStart) {
+					builder.setLength(start);
+					builder.append(operator.ifEmpty);
+				}
+			}
+		}
+
+		private void appendValue(StringBuilder builder, Object value) {
+			if (value instanceof Iterable) {
+				final Iterator<?> iterator = ((Iterable<?>) value).iterator();
+				while (iterator.hasNext()) {
+					appendEncoded(builder, String.valueOf(iterator.next()), operator.allowReserved);
+					if (iterator.hasNext()) {
+						builder.append(',');
+					}
+				}
+			} else if (value.getClass().isArray()) {
+				final int length = Array.getLength(value);
+				for (int i = 0; i < length; i++) {
+					if (i > 0) {
+						builder.append(',');
+					}
+					appendEncoded(builder, String.valueOf(Array.get(value, i)), operator.allowReserved);
+				}
+			} else {
+				appendEncoded(builder, value.toString(), operator.allowReserved);
+			}
+		}
+
+		private static boolean isEmptyList(Object value) {
+			if (value instanceof Iterable) {
+				return !((Iterable<?>) value).iterator().hasNext();
+			}
+
+			return value.getClass().isArray() && Array.getLength(value) == 0;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package io.probedock.api.test.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects entry points by hashing the routing key of requests on a ring, so that requests with the
+ * same key always reach the same node (e.g. to exercise per-node caches). Each entry point is
+ * placed several times on the ring so that keys are evenly distributed, and adding or removing an
+ * entry point only moves the keys of that entry point.
+ *
+ * <p>Requests without a routing key are distributed in turn.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ConsistentHashApiEntryPointSelector implements IApiEntryPointSelector {
+	/**
+	 * The default number of positions of each entry point on the ring.
+	 */
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	/**
+	 * The number of positions of each entry point on the ring.
+	 */
+	private final int virtualNodes;
+
+	/**
+	 * The number of selections of requests without a routing key.
+	 */
+	private final AtomicInteger counter = new AtomicInteger();
+
+	/**
+	 * The ring of the last list of entry points.
+	 */
+	private volatile Ring ring;
+
+	/**
+	 * Constructs a selector placing each entry point {@value #DEFAULT_VIRTUAL_NODES} times on the
+	 * ring.
+	 */
+	public ConsistentHashApiEntryPointSelector() {
+		this(DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Constructs a selector.
+	 *
+	 * @param virtualNodes the number of positions of each entry point on the ring
+	 * @throws IllegalArgumentException if the number of positions is lower than 1
+	 */
+	public ConsistentHashApiEntryPointSelector(int virtualNodes) {
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException("Number of virtual nodes must be at least 1");
+		}
+
+		this.virtualNodes = virtualNodes;
+	}
+
+	@Override
+	public ApiEntryPoint select(List<ApiEntryPoint> entryPoints, String routingKey) {
+		if (routingKey == null) {
+			return entryPoints.get(Math.floorMod(counter.getAndIncrement(), entryPoints.size()));
+		}
+
+		Ring current = ring;
+		if (current == null || current.entryPoints != entryPoints) {
+			current = new Ring(entryPoints, virtualNodes);
+			ring = current;
+		}
+
+		return current.select(hash(routingKey));
+	}
+
+	/**
+	 * Hashes a string with 64-bit FNV-1a, followed by a finalization step spreading the bits of
+	 * similar strings.
+	 *
+	 * @param value the string to hash
+	 * @return a hash
+	 */
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Sorted positions of the entry points on the ring.
+	 */
+	static class Ring {
+		private final List<ApiEntryPoint> entryPoints;
+		private final long[] positions;
+		private final ApiEntryPoint[] owners;
+
+		Ring(List<ApiEntryPoint> entryPoints, int virtualNodes) {
+			this.entryPoints = entryPoints;
+
+			final long[][] nodes = new long[entryPoints.size() * virtualNodes][];
+			for (int e = 0; e < entryPoints.size(); e++) {
+				for (int v = 0; v < virtualNodes; v++) {
+					nodes[e * virtualNodes + v] = new long[]{ hash(entryPoints.get(e).getUri() + "#" + v), e };
+				}
+			}
+
+			Arrays.sort(nodes, (a, b) -> Long.compare(a[0], b[0]));
+
+			this.positions = new long[nodes.length];
+			this.owners = new ApiEntryPoint[nodes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				positions[i] = nodes[i][0];
+				owners[i] = entryPoints.get((int) nodes[i][1]);
+			}
+		}
+
+		/**
+		 * Returns the owner of the first position at or after a hash, wrapping around the ring.
+		 *
+		 * @param hash the hash of a routing key
+		 * @return an entry point
+		 */
+		ApiEntryPoint select(long hash) {
+			int index = Arrays.binarySearch(positions, hash);
+			if (index < 0) {
+				index = -index - 1;
+			}
+
+			return owners[index < owners.length ? index : 0];
+		}
+	}
+}
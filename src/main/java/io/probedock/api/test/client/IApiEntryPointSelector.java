@@ -0,0 +1,37 @@
+package io.probedock.api.test.client;
+
+import java.util.List;
+
+/**
+ * Strategy selecting the entry point of each request among the entry points of an
+ * {@link ApiEntryPointBalancer}. Selectors are shared by concurrent requests and must be
+ * thread-safe.
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ * @see RoundRobinApiEntryPointSelector
+ * @see LeastOutstandingApiEntryPointSelector
+ * @see ConsistentHashApiEntryPointSelector
+ */
+public interface IApiEntryPointSelector {
+	/**
+	 * Selects the entry point of a request.
+	 *
+	 * @param entryPoints the available entry points (never empty, always the same list for a given
+	 * balancer)
+	 * @param routingKey the routing key of the request (may be null)
+	 * @return one of the entry points
+	 */
+	ApiEntryPoint select(List<ApiEntryPoint> entryPoints, String routingKey);
+
+	/**
+	 * Indicates whether selections depend on the requests in flight. Since requests may be built
+	 * long before they are sent (e.g. batches), the entry point of a request is then selected
+	 * again by the {@link ApiTestClient} executing it.
+	 *
+	 * @return true if the entry point of requests should be selected when they are executed (false
+	 * by default)
+	 */
+	default boolean isLoadAware() {
+		return false;
+	}
+}
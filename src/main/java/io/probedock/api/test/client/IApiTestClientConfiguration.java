@@ -2,6 +2,9 @@ package io.probedock.api.test.client;
 
 /**
  * Define the configuration of an API Test client
+ *
+ * <p>Only the proxy settings must be provided. The connection pool settings have default values
+ * which can be overridden by implementations. All durations are in milliseconds.</p>
  * 
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  */
@@ -25,4 +28,140 @@ public interface IApiTestClientConfiguration {
 	 * @return The host for which a proxy should not be used
 	 */
 	String[] getProxyExceptions();
+
+	/**
+	 * @return The maximum number of open connections (100 by default)
+	 */
+	default int getMaxTotalConnections() {
+		return 100;
+	}
+
+	/**
+	 * @return The maximum number of open connections to the same host (20 by default)
+	 */
+	default int getMaxConnectionsPerRoute() {
+		return 20;
+	}
+
+	/**
+	 * @return The maximum lifetime of a connection, or a negative value for no limit (the default)
+	 */
+	default long getConnectionTimeToLive() {
+		return -1;
+	}
+
+	/**
+	 * @return The inactivity period after which a pooled connection is checked before being
+	 * reused, or a negative value to never check it (2 seconds by default)
+	 */
+	default int getValidateAfterInactivity() {
+		return 2000;
+	}
+
+	/**
+	 * @return How long an idle connection is kept alive when the server does not specify a
+	 * <tt>Keep-Alive</tt> timeout, or a negative value to keep it indefinitely (the default)
+	 */
+	default long getKeepAliveDuration() {
+		return -1;
+	}
+
+	/**
+	 * @return The idle time after which a connection is closed by a background evictor, or a
+	 * negative value to disable the evictor (the default)
+	 */
+	default long getIdleConnectionTimeout() {
+		return -1;
+	}
+
+	/**
+	 * @return The maximum number of requests in flight when executing a batch of requests (the
+	 * maximum number of connections per route by default)
+	 * @see ApiTestClient#executeAll(java.util.Collection)
+	 */
+	default int getMaxConcurrentRequests() {
+		return getMaxConnectionsPerRoute();
+	}
+
+	/**
+	 * @return The maximum time to establish a connection, or 0 for no timeout (the default)
+	 */
+	default int getConnectTimeout() {
+		return 0;
+	}
+
+	/**
+	 * @return The maximum time of inactivity while waiting for response data, or 0 for no timeout
+	 * (the default)
+	 */
+	default int getSocketTimeout() {
+		return 0;
+	}
+
+	/**
+	 * @return The maximum time to complete a request, from sending it to reading the whole
+	 * response, or 0 for no timeout (the default)
+	 */
+	default long getRequestTimeout() {
+		return 0;
+	}
+
+	/**
+	 * @return The maximum time for all requests of a test, after which any request in flight is
+	 * cancelled and no other request can be made, or 0 for no deadline (the default)
+	 * @see ApiTestClient#setDeadline(long, java.util.concurrent.TimeUnit)
+	 */
+	default long getTestDeadline() {
+		return 0;
+	}
+
+	/**
+	 * @return True if responses should be requested in compressed form by sending an
+	 * <tt>Accept-Encoding: gzip, deflate</tt> header (true by default). Compressed responses are
+	 * always decoded, whether they were requested or not.
+	 */
+	default boolean isResponseCompressionEnabled() {
+		return true;
+	}
+
+	/**
+	 * @return True if JSON and form request bodies should be compressed with gzip and sent with a
+	 * <tt>Content-Encoding: gzip</tt> header (false by default). The API must support it.
+	 */
+	default boolean isRequestCompressionEnabled() {
+		return false;
+	}
+
+	/**
+	 * @return The size in bytes above which response bodies are written to a temporary file and
+	 * read through a memory mapping instead of being kept in the heap, or a negative value to
+	 * always keep them in memory (the default)
+	 * @see ApiTestResponse#release()
+	 */
+	default long getResponseSpillThreshold() {
+		return -1;
+	}
+
+	/**
+	 * Returns the key identifying the client shared by all the tests of the JVM with this
+	 * configuration (see {@link io.probedock.api.test.rules.ApiTestClientScope#JVM}). Tests
+	 * usually create a new configuration instance each time, so configurations of the same class
+	 * share a client by default. Override if instances of the same class configure different
+	 * clients; the key must then implement <tt>equals</tt> and <tt>hashCode</tt>.
+	 *
+	 * @return The key of the shared client (the class of this configuration by default)
+	 */
+	default Object getSharedClientKey() {
+		return getClass();
+	}
+
+	/**
+	 * Creates the transport used by clients to send requests. Override to return a
+	 * {@link JdkApiTestTransport} to use HTTP/2, or a custom transport.
+	 *
+	 * @return a new transport (Apache HTTP client by default)
+	 */
+	default IApiTestTransport createTransport() {
+		return new ApacheApiTestTransport(this);
+	}
 }
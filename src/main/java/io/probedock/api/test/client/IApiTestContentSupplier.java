@@ -0,0 +1,23 @@
+package io.probedock.api.test.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Supplies the content of a multipart part while it is sent (see
+ * {@link ApiTestMultipartFormData#addData(String, IApiTestContentSupplier, long, String, String)}).
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+@FunctionalInterface
+public interface IApiTestContentSupplier {
+	/**
+	 * Opens a new stream of the content. This method is called each time the content is sent (e.g.
+	 * again if the request is retried), so each stream must return the same content. The stream is
+	 * closed once it has been read.
+	 *
+	 * @return the content
+	 * @throws IOException if the content could not be opened
+	 */
+	InputStream open() throws IOException;
+}
@@ -0,0 +1,21 @@
+package io.probedock.api.test.client;
+
+import java.io.IOException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Writes a JSON request body while it is sent (see {@link ApiTestRequestBody#stream(IApiTestJsonWriter)}).
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+@FunctionalInterface
+public interface IApiTestJsonWriter {
+	/**
+	 * Writes a complete JSON document. This method is called each time the body is sent (e.g.
+	 * again if the request is retried), so it must write the same document every time.
+	 *
+	 * @param generator the generator writing to the request
+	 * @throws IOException if the data of the document could not be read
+	 */
+	void write(JsonGenerator generator) throws IOException;
+}
@@ -0,0 +1,51 @@
+package io.probedock.api.test.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport used by {@link ApiTestClient} to send API requests and receive API responses.
+ *
+ * <p>A transport owns its connections. Sessions created with {@link #newSession()} share these
+ * connections but have their own state (e.g. cookies) so that they can be used by different tests.
+ * Closing a session only clears its state.</p>
+ *
+ * @see IApiTestClientConfiguration#createTransport()
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public interface IApiTestTransport {
+	/**
+	 * Performs an API request and returns the response. The request can be aborted from another
+	 * thread (see {@link ApiTestRequest#abort()}), e.g. when it expires: transports which do not
+	 * execute the Apache request object register the operation to cancel with
+	 * {@link ApiTestRequest#setCancellable(org.apache.http.concurrent.Cancellable)}.
+	 *
+	 * @param request the request to execute
+	 * @return the API response
+	 * @throws ApiTestException if an error occurred executing the request or consuming the response
+	 */
+	ApiTestResponse execute(ApiTestRequest request);
+
+	/**
+	 * Performs an API request without blocking the calling thread. The response body is fully read
+	 * before the returned future completes. Cancelling the future aborts the request.
+	 *
+	 * @param request the request to execute
+	 * @return a future API response, completed exceptionally with an {@link ApiTestException} if
+	 * an error occurred executing the request or consuming the response
+	 */
+	CompletableFuture<ApiTestResponse> executeAsync(ApiTestRequest request);
+
+	/**
+	 * Returns a new session sharing the connections of this transport.
+	 *
+	 * @return a new transport session
+	 */
+	IApiTestTransport newSession();
+
+	/**
+	 * Closes this transport and all associated resources, or clears its state if it is a session.
+	 *
+	 * @throws ApiTestException if the transport could not be closed
+	 */
+	void close();
+}
@@ -0,0 +1,282 @@
+package io.probedock.api.test.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CookieManager;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.core.Application;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+
+/**
+ * Transport dispatching requests directly to a JAX-RS application running in the test JVM.
+ *
+ * <p>No server is started and no socket is opened: requests are handed to the Jersey application
+ * handler on the calling thread and the response is written to memory. Only the requests whose URI
+ * starts with the base URI given to the constructor can be matched by the application. Exceptions
+ * which are not mapped to a response by the application are thrown as {@link ApiTestException}s
+ * instead of producing a <tt>500 Internal Server Error</tt> response. The time to first byte of a
+ * request is the time taken by the application to process it. Asynchronous requests are handed to
+ * the application on threads owned by the transport, which are stopped when it is closed.</p>
+ *
+ * <p>This transport requires Jersey 2 (<tt>org.glassfish.jersey.core:jersey-server</tt>) on the
+ * test classpath. To use it, override {@link IApiTestClientConfiguration#createTransport()}.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class JaxRsApiTestTransport implements IApiTestTransport {
+	/**
+	 * The Jersey application handler.
+	 */
+	private final ApplicationHandler handler;
+
+	/**
+	 * The base URI of the application.
+	 */
+	private final URI baseUri;
+
+	/**
+	 * The executor of asynchronous requests.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The transport owning the executor (this transport unless it is a session).
+	 */
+	private final JaxRsApiTestTransport owner;
+
+	/**
+	 * The cookies received through this transport.
+	 */
+	private final CookieManager cookieManager;
+
+	/**
+	 * Constructs a new transport for the specified JAX-RS application. The application is
+	 * initialized immediately. The transport should be released with {@link #close()} when no
+	 * longer useful.
+	 *
+	 * @param application the JAX-RS application (e.g. a Jersey <tt>ResourceConfig</tt>)
+	 * @param baseUri the base URI of the application (e.g. <tt>http://localhost/api/</tt>)
+	 */
+	public JaxRsApiTestTransport(Application application, URI baseUri) {
+		this.handler = new ApplicationHandler(application);
+		this.baseUri = baseUri;
+		this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+		this.owner = this;
+		this.cookieManager = new CookieManager();
+	}
+
+	/**
+	 * Constructs a new session of an existing transport.
+	 *
+	 * @param owner the transport owning the application handler and executor
+	 */
+	private JaxRsApiTestTransport(JaxRsApiTestTransport owner) {
+		this.handler = owner.handler;
+		this.baseUri = owner.baseUri;
+		this.executor = owner.executor;
+		this.owner = owner;
+		this.cookieManager = new CookieManager();
+	}
+
+	@Override
+	public IApiTestTransport newSession() {
+		return new JaxRsApiTestTransport(owner);
+	}
+
+	@Override
+	public void close() {
+		cookieManager.getCookieStore().removeAll();
+
+		// the executor of a session belongs to the transport that created it
+		if (owner == this) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public ApiTestResponse execute(ApiTestRequest request) {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final ApiTestTimingRecorder timing = new ApiTestTimingRecorder();
+
+		final ContainerResponse response;
+		InputStream entityStream = null;
+		try {
+			final HttpEntity entity = request.getEntity();
+			entityStream = entity != null ? ApiTestRequestBody.toInputStream(entity) : null;
+
+			// only asynchronous resources can be aborted before they complete
+			final Future<ContainerResponse> future = handler.apply(buildRequest(request, entityStream), output);
+			request.setCancellable(() -> future.cancel(true));
+
+			response = future.get();
+			timing.firstByte();
+		} catch (IOException | ExecutionException e) {
+			throw new ApiTestException("Could not complete request " + request, e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e);
+		} catch (CancellationException ce) {
+			throw new ApiTestException("Request " + request + " was aborted", ce);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ApiTestException("Interrupted while executing request " + request, ie);
+		} finally {
+
+			// the application may not have read the whole body (e.g. an open file)
+			closeQuietly(entityStream);
+		}
+
+		return buildResponse(response, output.toByteArray(), request).withTiming(timing.end());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Resources are invoked on a thread of this transport, which is interrupted if the future is
+	 * cancelled.</p>
+	 */
+	@Override
+	public CompletableFuture<ApiTestResponse> executeAsync(final ApiTestRequest request) {
+		final CompletableFuture<ApiTestResponse> result = new CompletableFuture<>();
+
+		final Future<?> task;
+		try {
+			task = executor.submit(() -> {
+				try {
+					result.complete(execute(request));
+				} catch (RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			result.completeExceptionally(new ApiTestException("Could not execute request " + request + " with a closed transport", ree));
+			return result;
+		}
+
+		// interrupt the resource if the caller is no longer interested in the response
+		result.whenComplete((response, error) -> {
+			if (result.isCancelled()) {
+				task.cancel(true);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Maps an API request to a Jersey container request, adding the cookies of this transport.
+	 *
+	 * @param request the API request
+	 * @param entityStream the content of the request body, or null if the request has no body
+	 * @return a container request
+	 * @throws IOException if the cookies could not be read
+	 */
+	private ContainerRequest buildRequest(ApiTestRequest request, InputStream entityStream) throws IOException {
+		final URI uri = request.getUri();
+		final ContainerRequest containerRequest = new ContainerRequest(baseUri, uri, request.getMethod(), null, new MapPropertiesDelegate());
+
+		for (Header header : request.getHeaders()) {
+			containerRequest.header(header.getName(), header.getValue());
+		}
+
+		final HttpEntity entity = request.getEntity();
+		if (entity != null) {
+
+			// the network transports derive these headers from the entity
+			if (entity.getContentType() != null && containerRequest.getHeaderString(entity.getContentType().getName()) == null) {
+				containerRequest.header(entity.getContentType().getName(), entity.getContentType().getValue());
+			}
+			if (entity.getContentEncoding() != null && containerRequest.getHeaderString(entity.getContentEncoding().getName()) == null) {
+				containerRequest.header(entity.getContentEncoding().getName(), entity.getContentEncoding().getValue());
+			}
+
+			containerRequest.setEntityStream(entityStream);
+		}
+
+		for (Map.Entry<String, List<String>> cookies : cookieManager.get(uri, Collections.<String, List<String>>emptyMap()).entrySet()) {
+			for (String value : cookies.getValue()) {
+				containerRequest.header(cookies.getKey(), value);
+			}
+		}
+
+		return containerRequest;
+	}
+
+	/**
+	 * Builds an API response from a Jersey container response, storing the cookies it sets.
+	 *
+	 * @param response the container response
+	 * @param body the response body written by the application
+	 * @param request the API request
+	 * @return an API response
+	 * @throws ApiTestException if the cookies could not be stored or the body could not be decoded
+	 */
+	private ApiTestResponse buildResponse(ContainerResponse response, byte[] body, ApiTestRequest request) {
+		final Map<String, List<String>> headerMap = response.getStringHeaders();
+		try {
+			cookieManager.put(request.getUri(), headerMap);
+		} catch (IOException ioe) {
+			throw new ApiTestException("Could not complete request " + request, ioe);
+		}
+
+		final List<Header> headers = new ArrayList<>();
+		for (Map.Entry<String, List<String>> entry : headerMap.entrySet()) {
+			for (String value : entry.getValue()) {
+				headers.add(new BasicHeader(entry.getKey(), value));
+			}
+		}
+
+		try {
+			return new ApiTestResponse(response.getStatus(), headers.toArray(new Header[headers.size()]), body.length > 0 || response.hasEntity() ? new ByteArrayInputStream(body) : null).enrichFromRequest(request);
+		} catch (IOException ioe) {
+			throw new ApiTestException("Could not complete request " + request, ioe);
+		}
+	}
+
+	/**
+	 * Closes a stream, ignoring errors.
+	 *
+	 * @param stream the stream to close, or null
+	 */
+	private static void closeQuietly(InputStream stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException ioe) {
+				// nothing more can be done with the stream
+			}
+		}
+	}
+
+	/**
+	 * Creates daemon threads, so that an unclosed transport does not prevent the JVM from exiting.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "api-test-jaxrs-transport-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,399 @@
+package io.probedock.api.test.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CookieManager;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Transport based on the HTTP client of the JDK (<tt>java.net.http</tt>).
+ *
+ * <p>Requests are sent with HTTP/2 when the server supports it: over TLS with ALPN, or by
+ * upgrading cleartext connections (h2c). Concurrent requests to the same server are then
+ * multiplexed over a single connection instead of each one using its own connection, so the
+ * connection pool settings of {@link IApiTestClientConfiguration} do not apply. Servers which
+ * only support HTTP/1.1 are still reached with HTTP/1.1.</p>
+ *
+ * <p>The connect timeout can only be configured for the whole client, and the socket timeout is
+ * applied as the maximum time to receive the response headers. Only the time to first byte, body
+ * read and total durations of requests are measured (see {@link ApiTestTiming}).</p>
+ *
+ * <p>File request bodies are read from the file while they are sent. Other bodies, including
+ * multipart bodies, are written to memory first.</p>
+ *
+ * <p>Redirects are followed like with the default transport, except from HTTPS to HTTP URIs. Unlike
+ * the default transport, the JDK client also follows redirects of requests other than GET and HEAD
+ * (a POST request is then redirected as a GET request), and cookies set by intermediate redirect
+ * responses are not stored.</p>
+ *
+ * <p>The <tt>Connection</tt>, <tt>Content-Length</tt>, <tt>Expect</tt>, <tt>Host</tt> and
+ * <tt>Upgrade</tt> headers are set by the JDK client, and the values of requests are ignored. On
+ * Java 11, the <tt>Date</tt>, <tt>From</tt>, <tt>Origin</tt>, <tt>Referer</tt>, <tt>Via</tt> and
+ * <tt>Warning</tt> headers cannot be set either: requests with these headers then fail.</p>
+ *
+ * <p>To use this transport, override {@link IApiTestClientConfiguration#createTransport()}.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class JdkApiTestTransport implements IApiTestTransport {
+	/**
+	 * Headers which are set by the JDK HTTP client itself and cannot be set by requests.
+	 */
+	private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+	/**
+	 * The internal JDK HTTP client.
+	 */
+	private final HttpClient client;
+
+	/**
+	 * The default socket timeout.
+	 */
+	private final int socketTimeout;
+
+	/**
+	 * The size above which response bodies are written to a temporary file.
+	 */
+	private final long spillThreshold;
+
+	/**
+	 * The executor of the internal HTTP client.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The transport owning the internal HTTP client (this transport unless it is a session).
+	 */
+	private final JdkApiTestTransport owner;
+
+	/**
+	 * The cookies received through this transport.
+	 */
+	private final CookieManager cookieManager;
+
+	/**
+	 * Constructs a new transport. The transport should be released with {@link #close()} when no
+	 * longer useful.
+	 *
+	 * @param clientConfiguration the client configuration
+	 */
+	public JdkApiTestTransport(IApiTestClientConfiguration clientConfiguration) {
+		this.socketTimeout = clientConfiguration.getSocketTimeout();
+		this.spillThreshold = clientConfiguration.getResponseSpillThreshold();
+		this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+
+		final HttpClient.Builder builder = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.proxy(buildProxySelector(clientConfiguration))
+			.executor(executor);
+
+		if (clientConfiguration.getConnectTimeout() > 0) {
+			builder.connectTimeout(Duration.ofMillis(clientConfiguration.getConnectTimeout()));
+		}
+
+		this.client = builder.build();
+		this.owner = this;
+		this.cookieManager = new CookieManager();
+	}
+
+	/**
+	 * Constructs a new session of an existing transport.
+	 *
+	 * @param owner the transport owning the internal HTTP client
+	 */
+	private JdkApiTestTransport(JdkApiTestTransport owner) {
+		this.client = owner.client;
+		this.socketTimeout = owner.socketTimeout;
+		this.spillThreshold = owner.spillThreshold;
+		this.executor = owner.executor;
+		this.owner = owner;
+		this.cookieManager = new CookieManager();
+	}
+
+	@Override
+	public IApiTestTransport newSession() {
+		return new JdkApiTestTransport(owner);
+	}
+
+	@Override
+	public void close() {
+		cookieManager.getCookieStore().removeAll();
+
+		// the connections of a session belong to the transport that created it; they are released
+		// by the JDK client once it is no longer used
+		if (owner == this) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public ApiTestResponse execute(ApiTestRequest request) {
+		final HttpRequest httpRequest = buildRequest(request);
+		final ApiTestTimingRecorder timing = new ApiTestTimingRecorder();
+
+		// sent asynchronously so that the request can be aborted from another thread
+		final CompletableFuture<HttpResponse<InputStream>> future = client.sendAsync(httpRequest, bodyHandler(timing));
+		request.setCancellable(() -> future.cancel(true));
+
+		try {
+			final HttpResponse<InputStream> response = future.get();
+
+			// a streamed body is no longer read once the stream is closed
+			request.setCancellable(() -> {
+				try {
+					response.body().close();
+					return true;
+				} catch (IOException ioe) {
+					return false;
+				}
+			});
+
+			return buildResponse(response, request).withTiming(timing.end());
+		} catch (IOException ioe) {
+			throw new ApiTestException("Could not complete request " + request, ioe);
+		} catch (ExecutionException ee) {
+
+			// since Java 16, cancelling the future also fails the exchange
+			if (ee.getCause() instanceof CancellationException) {
+				throw new ApiTestException("Request " + request + " was aborted", ee.getCause());
+			}
+
+			throw new ApiTestException("Could not complete request " + request, ee.getCause() != null ? ee.getCause() : ee);
+		} catch (CancellationException ce) {
+			throw new ApiTestException("Request " + request + " was aborted", ce);
+		} catch (InterruptedException ie) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new ApiTestException("Interrupted while executing request " + request, ie);
+		}
+	}
+
+	@Override
+	public CompletableFuture<ApiTestResponse> executeAsync(final ApiTestRequest request) {
+
+		final CompletableFuture<ApiTestResponse> result = new CompletableFuture<>();
+		final ApiTestTimingRecorder timing = new ApiTestTimingRecorder();
+
+		final CompletableFuture<HttpResponse<InputStream>> future;
+		try {
+			future = client.sendAsync(buildRequest(request), bodyHandler(timing));
+		} catch (ApiTestException ate) {
+			result.completeExceptionally(ate);
+			return result;
+		}
+
+		future.whenComplete((response, error) -> {
+			if (error != null) {
+				final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+				result.completeExceptionally(new ApiTestException("Could not complete request " + request, cause));
+				return;
+			}
+
+			try {
+				result.complete(buildResponse(response, request).withTiming(timing.end()));
+			} catch (IOException ioe) {
+				result.completeExceptionally(new ApiTestException("Could not complete request " + request, ioe));
+			}
+		});
+
+		// abort the request if the caller is no longer interested in the response
+		result.whenComplete((response, error) -> {
+			if (result.isCancelled()) {
+				future.cancel(true);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Returns a body handler recording the time to first byte. The response body is buffered,
+	 * unless it may have to be written to a temporary file: it is then streamed as it is received.
+	 *
+	 * @param timing the timing of the request
+	 * @return a body handler
+	 */
+	private HttpResponse.BodyHandler<InputStream> bodyHandler(final ApiTestTimingRecorder timing) {
+		return responseInfo -> {
+			timing.firstByte();
+			if (spillThreshold >= 0) {
+				return HttpResponse.BodySubscribers.ofInputStream();
+			}
+
+			return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), ByteArrayInputStream::new);
+		};
+	}
+
+	/**
+	 * Maps an API request to a JDK HTTP request, adding the cookies of this transport.
+	 *
+	 * @param request the API request
+	 * @return a JDK HTTP request
+	 * @throws ApiTestException if the request is not supported by the JDK client, or if its body or
+	 * the cookies could not be read
+	 */
+	private HttpRequest buildRequest(ApiTestRequest request) {
+		final URI uri = request.getUri();
+		final HttpRequest.Builder builder;
+		try {
+			builder = HttpRequest.newBuilder(uri);
+		} catch (IllegalArgumentException iae) {
+			throw new ApiTestException("Could not build request " + request, iae);
+		}
+
+		// the JDK client only supports a timeout until the response headers are received
+		final int timeout = request.getSocketTimeout() >= 0 ? request.getSocketTimeout() : socketTimeout;
+		if (timeout > 0) {
+			builder.timeout(Duration.ofMillis(timeout));
+		}
+
+		final Set<String> headerNames = new HashSet<>();
+		for (Header header : request.getHeaders()) {
+			final String name = header.getName().toLowerCase();
+			if (RESTRICTED_HEADERS.contains(name)) {
+				continue;
+			}
+
+			// the JDK client rejects some headers depending on the Java version, and invalid values
+			try {
+				builder.header(header.getName(), header.getValue());
+			} catch (IllegalArgumentException iae) {
+				throw new ApiTestException("Header " + header.getName() + " of request " + request + " cannot be sent by the JDK HTTP client", iae);
+			}
+
+			headerNames.add(name);
+		}
+
+		try {
+			final HttpEntity entity = request.getEntity();
+			if (entity == null) {
+				builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+			} else {
+
+				// the Apache transport derives these headers from the entity
+				if (entity.getContentType() != null && !headerNames.contains("content-type")) {
+					builder.header(entity.getContentType().getName(), entity.getContentType().getValue());
+				}
+				if (entity.getContentEncoding() != null && !headerNames.contains("content-encoding")) {
+					builder.header(entity.getContentEncoding().getName(), entity.getContentEncoding().getValue());
+				}
+
+				final Path file = ApiTestRequestBody.getFile(entity);
+				if (file != null) {
+					builder.method(request.getMethod(), HttpRequest.BodyPublishers.ofFile(file));
+				} else {
+					builder.method(request.getMethod(), HttpRequest.BodyPublishers.ofByteArray(ApiTestRequestBody.toByteArray(entity)));
+				}
+			}
+
+			for (Map.Entry<String, List<String>> cookies : cookieManager.get(uri, Collections.<String, List<String>>emptyMap()).entrySet()) {
+				for (String value : cookies.getValue()) {
+					builder.header(cookies.getKey(), value);
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			throw new ApiTestException("Could not build request " + request, e);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Builds an API response from a JDK HTTP response, storing the cookies it sets.
+	 *
+	 * @param response the JDK HTTP response
+	 * @param request the API request
+	 * @return an API response
+	 * @throws IOException if the cookies could not be stored or the body could not be decoded
+	 */
+	private ApiTestResponse buildResponse(HttpResponse<InputStream> response, ApiTestRequest request) throws IOException {
+		final Map<String, List<String>> headerMap = response.headers().map();
+		cookieManager.put(request.getUri(), headerMap);
+
+		final List<Header> headers = new ArrayList<>();
+		for (Map.Entry<String, List<String>> entry : headerMap.entrySet()) {
+
+			// skip HTTP/2 pseudo-headers
+			if (entry.getKey().startsWith(":")) {
+				continue;
+			}
+
+			for (String value : entry.getValue()) {
+				headers.add(new BasicHeader(entry.getKey(), value));
+			}
+		}
+
+		return new ApiTestResponse(response.statusCode(), headers.toArray(new Header[headers.size()]), response.body(), spillThreshold).enrichFromRequest(request);
+	}
+
+	/**
+	 * Builds a proxy selector sending requests through the configured proxy, except for the proxy
+	 * exceptions.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return a proxy selector
+	 */
+	private static ProxySelector buildProxySelector(IApiTestClientConfiguration clientConfiguration) {
+		if (!clientConfiguration.isProxyEnabled()) {
+			return HttpClient.Builder.NO_PROXY;
+		}
+
+		final List<Proxy> proxies = Collections.singletonList(new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved(clientConfiguration.getProxyHost(), clientConfiguration.getProxyPort())));
+		final List<Proxy> noProxies = Collections.singletonList(Proxy.NO_PROXY);
+		final ApiProxyExceptions proxyExceptions = ApiProxyExceptions.compile(clientConfiguration.getProxyExceptions());
+
+		return new ProxySelector() {
+			@Override
+			public List<Proxy> select(URI uri) {
+				return proxyExceptions.matches(uri.getHost()) ? noProxies : proxies;
+			}
+
+			@Override
+			public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+			}
+		};
+	}
+
+	/**
+	 * Creates daemon threads, so that an unclosed transport does not prevent the JVM from exiting.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "api-test-jdk-transport-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package io.probedock.api.test.client;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects the entry point with the fewest requests in flight, so that slower nodes receive less
+ * traffic. Ties are broken in turn, so that idle entry points are used evenly. The routing key of
+ * requests is ignored.
+ *
+ * <p>The entry point of a request is selected again when it is executed, so that requests built
+ * in advance are balanced by the requests in flight when they are sent.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class LeastOutstandingApiEntryPointSelector implements IApiEntryPointSelector {
+	/**
+	 * The number of selections so far.
+	 */
+	private final AtomicInteger counter = new AtomicInteger();
+
+	@Override
+	public ApiEntryPoint select(List<ApiEntryPoint> entryPoints, String routingKey) {
+		final int size = entryPoints.size();
+		final int start = Math.floorMod(counter.getAndIncrement(), size);
+
+		ApiEntryPoint selected = null;
+		int fewest = Integer.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			final ApiEntryPoint entryPoint = entryPoints.get((start + i) % size);
+			final int outstanding = entryPoint.getOutstandingRequests();
+			if (outstanding < fewest) {
+				selected = entryPoint;
+				fewest = outstanding;
+			}
+		}
+
+		return selected;
+	}
+
+	@Override
+	public boolean isLoadAware() {
+		return true;
+	}
+}
@@ -0,0 +1,21 @@
+package io.probedock.api.test.client;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects each entry point in turn. The routing key of requests is ignored.
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class RoundRobinApiEntryPointSelector implements IApiEntryPointSelector {
+	/**
+	 * The number of selections so far.
+	 */
+	private final AtomicInteger counter = new AtomicInteger();
+
+	@Override
+	public ApiEntryPoint select(List<ApiEntryPoint> entryPoints, String routingKey) {
+		return entryPoints.get(Math.floorMod(counter.getAndIncrement(), entryPoints.size()));
+	}
+}
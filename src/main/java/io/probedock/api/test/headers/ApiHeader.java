@@ -1,6 +1,7 @@
 package io.probedock.api.test.headers;
 
 import io.probedock.api.test.client.ApiTestRequest;
+import java.util.concurrent.TimeUnit;
 
 /**
  * HTTP request header with meta information to indicate whether it concerns only the next request
@@ -64,4 +65,19 @@ public class ApiHeader {
 	public String computeValue(ApiTestRequest request) {
 		return value;
 	}
+
+	/**
+	 * Returns a header caching the values computed by this header for a limited time (see
+	 * {@link CachingApiHeader}).
+	 *
+	 * @param timeToLive the validity of cached values
+	 * @param unit the unit of the validity
+	 * @param attributes the request attributes by which values are cached (none to share the value
+	 * between all requests)
+	 * @return a caching header
+	 * @throws IllegalArgumentException if the validity is not positive
+	 */
+	public CachingApiHeader cached(long timeToLive, TimeUnit unit, CachingApiHeader.Attribute... attributes) {
+		return new CachingApiHeader(this, timeToLive, unit, attributes);
+	}
 }
\ No newline at end of file
@@ -1,14 +1,31 @@
 package io.probedock.api.test.headers;
 
 import io.probedock.api.test.client.ApiTestRequest;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Manager of API request headers that allows setting headers for all requests or only for the next
  * request.
  *
+ * <p>Operations are not replayed one by one on each request. They are merged by header name (case
+ * insensitively) into the effective headers they produce: headers added to the request, optionally
+ * after removing the existing headers with the same name. The effective headers of all requests are
+ * compiled into a plan which is only rebuilt when they are configured, and the headers of the next
+ * request are merged into it by name. Each header name is then applied to a request once, whatever
+ * the number of operations configured for it.</p>
+ *
+ * <p>A manager can be shared by threads executing requests concurrently. The configuration of all
+ * requests is copied on write: requests which are being configured keep using the previous
+ * configuration. Headers for the next request are bound to the thread which configures them and
+ * are only applied to the next request configured by that thread. Headers can also be bound to a
+ * specific request with {@link #configure(Operation, ApiHeader, ApiTestRequest)}.</p>
+ *
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  * @author Simon Oulevay <simon.oulevay@probedock.io>
  */
@@ -50,22 +67,35 @@ public class ApiHeadersManager {
 	}
 
 	/**
-	 * Header operations to apply to all requests.
+	 * The permanent configuration, replaced as a whole each time it changes.
+	 */
+	private volatile Configuration permanentConfiguration;
+
+	/**
+	 * Lock serializing changes to the permanent configuration.
 	 */
-	private final List<HeaderOperation> permanentHeaders;
-	
+	private final Object configurationLock = new Object();
+
 	/**
-	 * Header operations to apply only to the next request (cleared after calling
-	 * <tt>configure</tt>).
+	 * Effective headers of the next request configured by the current thread, by lower-case header
+	 * name in order of first configuration (cleared when the thread configures a request). They
+	 * override or extend the permanent headers with the same name.
 	 */
-	private final List<HeaderOperation> nextRequestHeaders;
+	private final ThreadLocal<Map<String, EffectiveHeader>> nextRequestHeaders;
+
+	/**
+	 * Effective headers bound to specific requests, by lower-case header name (removed when the
+	 * request is configured). They override or extend all other headers with the same name.
+	 */
+	private final Map<ApiTestRequest, Map<String, EffectiveHeader>> requestHeaders;
 
 	/**
 	 * Constructs an empty headers manager.
 	 */
 	public ApiHeadersManager() {
-		permanentHeaders = new ArrayList<>();
-		nextRequestHeaders = new ArrayList<>();
+		permanentConfiguration = new Configuration(new LinkedHashMap<String, EffectiveHeader>());
+		nextRequestHeaders = new ThreadLocal<>();
+		requestHeaders = Collections.synchronizedMap(new WeakHashMap<ApiTestRequest, Map<String, EffectiveHeader>>());
 	}
 
 	/**
@@ -76,46 +106,12 @@ public class ApiHeadersManager {
 	 * @param op what to do with the header (ADD/SET/REMOVE)
 	 * @param header the header to modify
 	 * @param forAllRequests true to apply the modification to all subsequent requests, false to
-	 * apply it only to the next request
+	 * apply it only to the next request configured by the current thread
 	 * @return this manager
 	 * @throws IllegalArgumentException if the operation or header are null
 	 */
 	public ApiHeadersManager configure(final Operation op, final ApiHeader header, final boolean forAllRequests) {
-		if (op == null) {
-			throw new IllegalArgumentException("Operation cannot be null");
-		} else if (header == null) {
-			throw new IllegalArgumentException("Header cannot be null");
-		}
-
-		// create the header operation instance
-		final HeaderOperation operation = new HeaderOperation(header, op);
-
-		// remove operations that would become superfluous after adding this one, e.g. a previously
-		// added SET operation becomes useless if we add a REMOVE for the same header
-		cleanHeaderOperations(operation, forAllRequests);
-
-		// add the operation to permanent headers or next request headers depending on the supplied boolean
-		(forAllRequests ? permanentHeaders : nextRequestHeaders).add(operation);
-
-		//<editor-fold defaultstate="collapsed" desc="Special REMOVE/ADD Case">
-		/*
-		 * Special case: if a header is removed for the next request, and then added for all
-		 * requests, it would not be normally added because next request operations overwrite
-		 * operations for all requests (see #configure).
-		 *
-		 * Example:
-		 * - REMOVE X-Custom-Header false   // next request operation, will be run last
-		 * - ADD X-Custom-Header true       // all requests operation, will be run first
-		 *
-		 * To fix this, we automatically also add the header to the next request:
-		 * - ADD X-Custom-Header false
-		 */
-		if (Operation.ADD.equals(op) && forAllRequests) {
-			nextRequestHeaders.add(operation);
-		}
-		//</editor-fold>
-
-		return this;
+		return configure(op, Collections.singletonList(header), forAllRequests);
 	}
 
 	/**
@@ -126,7 +122,7 @@ public class ApiHeadersManager {
 	 * @param op what to do with the headers (ADD/SET/REMOVE)
 	 * @param headerConfiguration the headers to modify
 	 * @param forAllRequests true to apply the modifications to all subsequent requests, false to
-	 * apply it only to the next request
+	 * apply it only to the next request configured by the current thread
 	 * @return this manager
 	 * @throws IllegalArgumentException if the operation or header configuration are null or the
 	 * header configuration returns a list containing null elements
@@ -136,9 +132,35 @@ public class ApiHeadersManager {
 			throw new IllegalArgumentException("Header configuration cannot be null");
 		}
 
-		// apply the operation for each header in the configuration
-		for (final ApiHeader header : headerConfiguration.getHeaders()) {
-			configure(op, header, forAllRequests);
+		return configure(op, headerConfiguration.getHeaders(), forAllRequests);
+	}
+
+	/**
+	 * Modifies a header of a specific request, whichever thread configures it. The modification is
+	 * applied after all other modifications when the request is configured with
+	 * {@link ApiHeadersManager#applyConfiguration(io.probedock.api.test.client.ApiTestRequest)}.
+	 *
+	 * @param op what to do with the header (ADD/SET/REMOVE)
+	 * @param header the header to modify
+	 * @param request the request to which the modification applies
+	 * @return this manager
+	 * @throws IllegalArgumentException if the operation, header or request are null
+	 */
+	public ApiHeadersManager configure(final Operation op, final ApiHeader header, final ApiTestRequest request) {
+		validate(op, header);
+		if (request == null) {
+			throw new IllegalArgumentException("Request cannot be null");
+		}
+
+		synchronized (requestHeaders) {
+			Map<String, EffectiveHeader> headers = requestHeaders.get(request);
+			if (headers == null) {
+				headers = new LinkedHashMap<>();
+				requestHeaders.put(request, headers);
+			}
+
+			final String key = header.getName().toLowerCase(Locale.ROOT);
+			headers.put(key, EffectiveHeader.apply(headers.get(key), op, header));
 		}
 
 		return this;
@@ -146,69 +168,147 @@ public class ApiHeadersManager {
 
 	/**
 	 * Configures the specified request with the headers of this manager. This will apply all
-	 * permanent header modifications and modifications specific to the next request. Next request
-	 * modifications are then cleared.
+	 * permanent header modifications, modifications specific to the next request of the current
+	 * thread and modifications bound to the request. Next request modifications of the current
+	 * thread are then cleared.
+	 *
+	 * <p>This method can be called concurrently by several threads.</p>
 	 *
 	 * @param request the request to configure
 	 * @return this manager
 	 */
 	public ApiHeadersManager applyConfiguration(ApiTestRequest request) {
+		final EffectiveHeader[] plan = permanentConfiguration.plan;
 
-		// apply all permanent header operations
-		for (final HeaderOperation op : permanentHeaders) {
-			op.apply(request);
+		final Map<String, EffectiveHeader> next = nextRequestHeaders.get();
+		if (next != null) {
+			nextRequestHeaders.remove();
 		}
 
-		// apply all header operations for the next request
-		for (final HeaderOperation op : nextRequestHeaders) {
-			op.apply(request);
+		final Map<String, EffectiveHeader> bound = requestHeaders.isEmpty() ? null : requestHeaders.remove(request);
+
+		if (next == null && bound == null) {
+			for (final EffectiveHeader header : plan) {
+				header.apply(request);
+			}
+
+			return this;
 		}
 
-		// clear operations for the next request
-		nextRequestHeaders.clear();
+		// merge the headers of the next request and of this request into the permanent headers
+		// with the same name
+		final Map<String, EffectiveHeader> overrides = merge(next, bound);
+		for (final EffectiveHeader header : plan) {
+			final EffectiveHeader override = overrides.remove(header.key);
+			(override != null ? header.merge(override) : header).apply(request);
+		}
+
+		// apply the headers which are not configured for all requests
+		for (final EffectiveHeader header : overrides.values()) {
+			header.apply(request);
+		}
 
 		return this;
 	}
 
 	/**
-	 * Removes header operations that would become superfluous after adding the specified one. For
-	 * example, a previously added SET operation becomes useless if a REMOVE is added for the same
-	 * header.
+	 * Applies an operation to several headers at once. Changes to the permanent configuration are
+	 * made on a copy which replaces it, so that requests being configured concurrently see either
+	 * all or none of the changes.
 	 *
-	 * @param op the operation that will be added
-	 * @param forAllRequests whether the operation will be applied to all subsequent requests or
-	 * only the next one
+	 * @param op what to do with the headers (ADD/SET/REMOVE)
+	 * @param headers the headers to modify
+	 * @param forAllRequests true to apply the modifications to all subsequent requests, false to
+	 * apply them only to the next request configured by the current thread
+	 * @return this manager
+	 * @throws IllegalArgumentException if the operation or one of the headers are null
 	 */
-	private void cleanHeaderOperations(HeaderOperation op, boolean forAllRequests) {
-		
-		// only SET and REMOVE operations require cleaning
-		if (!Operation.ADD.equals(op.getOperation())) {
-			
-			// all previously added operations for the next request become superflous
-			clearHeaderOperations(nextRequestHeaders, op.getHeaderName());
-			
-			// previous operations for all requests become superflous only if the operation being
-			// added also applies to all requests
-			if (forAllRequests) {
-				clearHeaderOperations(permanentHeaders, op.getHeaderName());
+	private ApiHeadersManager configure(final Operation op, final List<ApiHeader> headers, final boolean forAllRequests) {
+		for (final ApiHeader header : headers) {
+			validate(op, header);
+		}
+
+		Map<String, EffectiveHeader> next = nextRequestHeaders.get();
+
+		if (!forAllRequests) {
+			if (next == null) {
+				next = new LinkedHashMap<>();
+				nextRequestHeaders.set(next);
+			}
+
+			for (final ApiHeader header : headers) {
+				final String key = header.getName().toLowerCase(Locale.ROOT);
+				next.put(key, EffectiveHeader.apply(next.get(key), op, header));
+			}
+
+			return this;
+		}
+
+		synchronized (configurationLock) {
+			final Map<String, EffectiveHeader> permanentHeaders = new LinkedHashMap<>(permanentConfiguration.headers);
+
+			for (final ApiHeader header : headers) {
+				final String key = header.getName().toLowerCase(Locale.ROOT);
+				permanentHeaders.put(key, EffectiveHeader.apply(permanentHeaders.get(key), op, header));
+
+				final EffectiveHeader nextHeader = next != null ? next.get(key) : null;
+				if (nextHeader != null && !Operation.ADD.equals(op)) {
+
+					// next request modifications become superfluous after a SET or REMOVE for all requests
+					next.remove(key);
+				} else if (nextHeader != null && nextHeader.replace) {
+
+					//<editor-fold defaultstate="collapsed" desc="Special REMOVE/ADD Case">
+					/*
+					 * Special case: if a header is removed for the next request, and then added for
+					 * all requests, it would not be normally added because next request
+					 * modifications overwrite modifications for all requests.
+					 *
+					 * Example:
+					 * - REMOVE X-Custom-Header false   // replaces the header for the next request
+					 * - ADD X-Custom-Header true       // only added to the permanent headers
+					 *
+					 * To fix this, we automatically also add the header to the next request.
+					 */
+					next.put(key, EffectiveHeader.apply(nextHeader, op, header));
+					//</editor-fold>
+				}
 			}
+
+			permanentConfiguration = new Configuration(permanentHeaders);
 		}
+
+		return this;
 	}
-	
+
+	private static void validate(Operation op, ApiHeader header) {
+		if (op == null) {
+			throw new IllegalArgumentException("Operation cannot be null");
+		} else if (header == null) {
+			throw new IllegalArgumentException("Header cannot be null");
+		}
+	}
+
 	/**
-	 * Removes header operations from a list.
+	 * Merges the headers of the next request with the headers bound to a request.
 	 *
-	 * @param operations the list from which to remove operations
-	 * @param headerName all operations with that header name will be removed
+	 * @param next the headers of the next request (may be null)
+	 * @param bound the headers bound to the request (may be null)
+	 * @return the merged headers (one of the arguments, modified)
 	 */
-	private static void clearHeaderOperations(List<HeaderOperation> operations, String headerName) {
-		
-		final Iterator<HeaderOperation> iterator = operations.iterator();
-		while (iterator.hasNext()) {
-			if (iterator.next().getHeaderName().equals(headerName)) {
-				iterator.remove();
-			}
+	private static Map<String, EffectiveHeader> merge(Map<String, EffectiveHeader> next, Map<String, EffectiveHeader> bound) {
+		if (next == null) {
+			return bound;
+		} else if (bound == null) {
+			return next;
+		}
+
+		for (final EffectiveHeader header : bound.values()) {
+			final EffectiveHeader previous = next.get(header.key);
+			next.put(header.key, previous != null ? previous.merge(header) : header);
 		}
+
+		return next;
 	}
 
 	/**
@@ -226,51 +326,122 @@ public class ApiHeadersManager {
 	}
 
 	/**
-	 * Wrapper to apply a header operation.
+	 * Immutable snapshot of the headers of all requests.
 	 */
-	private static class HeaderOperation {
-		
+	private static class Configuration {
+
 		/**
-		 * The header.
+		 * Effective headers by lower-case header name, in order of first configuration.
 		 */
-		private final ApiHeader header;
+		private final Map<String, EffectiveHeader> headers;
+
 		/**
-		 * The operation to apply to the header.
+		 * The effective headers, in the same order.
 		 */
-		private final Operation operation;
-		
+		private final EffectiveHeader[] plan;
+
+		Configuration(Map<String, EffectiveHeader> headers) {
+			this.headers = headers;
+			this.plan = headers.values().toArray(new EffectiveHeader[headers.size()]);
+		}
+	}
+
+	/**
+	 * Immutable effect of all the operations configured for a header name: the headers which
+	 * replace the existing headers with the same name, or which are added to them.
+	 */
+	private static class EffectiveHeader {
+		private static final ApiHeader[] NONE = new ApiHeader[0];
+
 		/**
-		 * Constructs a new operation.
-		 *
-		 * @param header the header
-		 * @param operation the operation to apply to the header
+		 * The lower-case header name.
+		 */
+		private final String key;
+
+		/**
+		 * The header name, as written by the first operation of this effect.
+		 */
+		private final String name;
+
+		/**
+		 * Whether existing headers with the same name are removed.
 		 */
-		public HeaderOperation(ApiHeader header, Operation operation) {
-			this.header = header;
-			this.operation = operation;
+		private final boolean replace;
+
+		/**
+		 * The headers to add, in order.
+		 */
+		private final ApiHeader[] headers;
+
+		private EffectiveHeader(String key, String name, boolean replace, ApiHeader[] headers) {
+			this.key = key;
+			this.name = name;
+			this.replace = replace;
+			this.headers = headers;
 		}
-		
+
 		/**
-		 * @return the operation to apply to the header
+		 * Returns the effect of an operation following the specified effect.
+		 *
+		 * @param previous the effect of the previous operations on the same header name (may be
+		 * null)
+		 * @param op the operation
+		 * @param header the header of the operation
+		 * @return the combined effect
 		 */
-		public Operation getOperation() {
-			return operation;
+		static EffectiveHeader apply(EffectiveHeader previous, Operation op, ApiHeader header) {
+			final String key = header.getName().toLowerCase(Locale.ROOT);
+			switch (op) {
+				case SET:
+					return new EffectiveHeader(key, header.getName(), true, new ApiHeader[]{ header });
+				case REMOVE:
+					return new EffectiveHeader(key, header.getName(), true, NONE);
+				default:
+					if (previous == null) {
+						return new EffectiveHeader(key, header.getName(), false, new ApiHeader[]{ header });
+					}
+
+					final ApiHeader[] headers = Arrays.copyOf(previous.headers, previous.headers.length + 1);
+					headers[previous.headers.length] = header;
+					return new EffectiveHeader(key, previous.name, previous.replace, headers);
+			}
 		}
-		
+
 		/**
-		 * @return the header name
+		 * Returns the effect of the specified effect following this one.
+		 *
+		 * @param next the effect of subsequent operations on the same header name
+		 * @return the combined effect
 		 */
-		public String getHeaderName() {
-			return header.getName();
+		EffectiveHeader merge(EffectiveHeader next) {
+			if (next.replace) {
+				return next;
+			}
+
+			final ApiHeader[] merged = Arrays.copyOf(headers, headers.length + next.headers.length);
+			System.arraycopy(next.headers, 0, merged, headers.length, next.headers.length);
+			return new EffectiveHeader(key, name, replace, merged);
 		}
-		
+
 		/**
-		 * Applies this operation to the specified request.
+		 * Applies this effect to a request with a single removal of existing headers, if any.
 		 *
 		 * @param request the request to configure
 		 */
-		public void apply(ApiTestRequest request) {
-			operation.apply(request, header);
+		void apply(ApiTestRequest request) {
+			if (replace && headers.length == 0) {
+				request.removeHeader(name);
+				return;
+			}
+
+			for (int i = 0; i < headers.length; i++) {
+				final ApiHeader header = headers[i];
+				if (i == 0 && replace) {
+					request.setHeader(header.getName(), header.computeValue(request));
+				} else {
+					request.addHeader(header.getName(), header.computeValue(request));
+				}
+			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,319 @@
+package io.probedock.api.test.headers;
+
+import io.probedock.api.test.client.ApiTestRequest;
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Header whose computed value is cached for a limited time, for headers which are expensive to
+ * compute but remain valid for a while (e.g. tokens, signatures or timestamps).
+ *
+ * <p>The value of the decorated header is computed at most once per validity window for each
+ * cache key. The key is made of the selected attributes of the request (see {@link Attribute}); the
+ * value is shared by all requests if no attribute is selected. Values are computed outside of any
+ * lock, so that a slow value does not delay the requests of other keys. When the cache is full,
+ * expired values are evicted, or the value expiring first if none has expired.</p>
+ *
+ * <pre>
+ * setHeaderForAllRequests(new SignatureApiHeader(key).cached(5, TimeUnit.MINUTES, CachingApiHeader.Attribute.METHOD, CachingApiHeader.Attribute.PATH));
+ * </pre>
+ *
+ * <p>Caching headers are thread-safe if the decorated header is.</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ * @see ApiHeader#cached(long, java.util.concurrent.TimeUnit, Attribute...)
+ */
+public class CachingApiHeader extends ApiHeader {
+	/**
+	 * The default maximum number of cached values.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 256;
+
+	/**
+	 * Request attribute by which values are cached.
+	 */
+	public static enum Attribute {
+		/**
+		 * The HTTP method of the request.
+		 */
+		METHOD {
+			@Override
+			void append(StringBuilder key, ApiTestRequest request) {
+				key.append(request.getMethod());
+			}
+		},
+
+		/**
+		 * The host and port of the request URI.
+		 */
+		HOST {
+			@Override
+			void append(StringBuilder key, ApiTestRequest request) {
+				final URI uri = request.getUri();
+				key.append(uri.getHost()).append(':').append(uri.getPort());
+			}
+		},
+
+		/**
+		 * The path of the request URI (without the query string).
+		 */
+		PATH {
+			@Override
+			void append(StringBuilder key, ApiTestRequest request) {
+				key.append(request.getUri().getRawPath());
+			}
+		};
+
+		abstract void append(StringBuilder key, ApiTestRequest request);
+	}
+
+	/**
+	 * The decorated header.
+	 */
+	private final ApiHeader header;
+
+	/**
+	 * The validity of cached values in nanoseconds.
+	 */
+	private final long timeToLive;
+
+	/**
+	 * The request attributes making the cache key.
+	 */
+	private final Attribute[] attributes;
+
+	/**
+	 * The maximum number of cached values.
+	 */
+	private final int maxSize;
+
+	/**
+	 * The source of the current time in nanoseconds.
+	 */
+	private final LongSupplier clock;
+
+	/**
+	 * The cached values by key.
+	 */
+	private final Map<String, CachedValue> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs a header caching the values of another header for a limited time.
+	 *
+	 * @param header the decorated header
+	 * @param timeToLive the validity of cached values
+	 * @param unit the unit of the validity
+	 * @param attributes the request attributes making the cache key (none to share the value
+	 * between all requests)
+	 * @throws IllegalArgumentException if the header is null or the validity is not positive
+	 */
+	public CachingApiHeader(ApiHeader header, long timeToLive, TimeUnit unit, Attribute... attributes) {
+		this(header, timeToLive, unit, DEFAULT_MAX_SIZE, attributes);
+	}
+
+	/**
+	 * Constructs a header caching the values of another header for a limited time.
+	 *
+	 * @param header the decorated header
+	 * @param timeToLive the validity of cached values
+	 * @param unit the unit of the validity
+	 * @param maxSize the maximum number of cached values
+	 * @param attributes the request attributes making the cache key (none to share the value
+	 * between all requests)
+	 * @throws IllegalArgumentException if the header is null, the validity is not positive or the
+	 * maximum number of values is lower than 1
+	 */
+	public CachingApiHeader(ApiHeader header, long timeToLive, TimeUnit unit, int maxSize, Attribute... attributes) {
+		this(header, timeToLive, unit, maxSize, attributes, System::nanoTime);
+	}
+
+	/**
+	 * Constructs a header caching the values of another header with the specified clock.
+	 *
+	 * @param header the decorated header
+	 * @param timeToLive the validity of cached values
+	 * @param unit the unit of the validity
+	 * @param maxSize the maximum number of cached values
+	 * @param attributes the request attributes making the cache key
+	 * @param clock the source of the current time in nanoseconds
+	 */
+	CachingApiHeader(ApiHeader header, long timeToLive, TimeUnit unit, int maxSize, Attribute[] attributes, LongSupplier clock) {
+		super(requireHeader(header).getName(), header.getValue());
+
+		if (timeToLive <= 0) {
+			throw new IllegalArgumentException("Time to live must be positive");
+		} else if (maxSize < 1) {
+			throw new IllegalArgumentException("Maximum size must be at least 1");
+		}
+
+		// ignore duplicate attributes and keep a stable order
+		final Set<Attribute> attributeSet = EnumSet.noneOf(Attribute.class);
+		for (Attribute attribute : attributes) {
+			attributeSet.add(attribute);
+		}
+
+		this.header = header;
+		this.timeToLive = unit.toNanos(timeToLive);
+		this.attributes = attributeSet.toArray(new Attribute[attributeSet.size()]);
+		this.maxSize = maxSize;
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns the cached value of the decorated header for the key of the request, computing it if
+	 * it is missing or expired. Concurrent requests with the same key wait for the value to be
+	 * computed once. If the computation fails, the waiting requests fail with the same exception and
+	 * the value is computed again by the next request.
+	 *
+	 * @param request the API request
+	 * @return the header value
+	 */
+	@Override
+	public String computeValue(final ApiTestRequest request) {
+		final String key = key(request);
+
+		while (true) {
+			final CachedValue cached = cache.get(key);
+			if (cached != null && cached.isValid(clock.getAsLong())) {
+				return cached.get();
+			}
+
+			if (cached == null && cache.size() >= maxSize) {
+				evict();
+			}
+
+			// only the thread which stores the pending value computes it; the others wait for it
+			final CachedValue pending = new CachedValue();
+			if (cached == null ? cache.putIfAbsent(key, pending) == null : cache.replace(key, cached, pending)) {
+				return compute(key, pending, request);
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached values, so that they are computed again for the next requests.
+	 */
+	public void invalidate() {
+		cache.clear();
+	}
+
+	/**
+	 * Computes the value of the decorated header and completes a pending value with it.
+	 *
+	 * @param key the cache key
+	 * @param pending the pending value stored for the key
+	 * @param request the API request
+	 * @return the header value
+	 */
+	private String compute(String key, CachedValue pending, ApiTestRequest request) {
+		final String value;
+		try {
+			value = header.computeValue(request);
+		} catch (RuntimeException | Error e) {
+			cache.remove(key, pending);
+			pending.fail(e);
+			throw e;
+		}
+
+		pending.complete(value, clock.getAsLong() + timeToLive);
+		return value;
+	}
+
+	private String key(ApiTestRequest request) {
+		if (attributes.length == 0) {
+			return "";
+		}
+
+		final StringBuilder key = new StringBuilder();
+		for (Attribute attribute : attributes) {
+			attribute.append(key, request);
+			key.append(' ');
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * Evicts expired values, or the value expiring first if none has expired. Values which are being
+	 * computed are only evicted if no other value can be.
+	 */
+	private void evict() {
+		final long now = clock.getAsLong();
+
+		boolean evicted = false;
+		Map.Entry<String, CachedValue> first = null;
+		for (Iterator<Map.Entry<String, CachedValue>> iterator = cache.entrySet().iterator(); iterator.hasNext();) {
+			final Map.Entry<String, CachedValue> entry = iterator.next();
+			if (!entry.getValue().isValid(now)) {
+				iterator.remove();
+				evicted = true;
+			} else if (first == null || entry.getValue().expiresBefore(first.getValue())) {
+				first = entry;
+			}
+		}
+
+		if (!evicted && first != null) {
+			cache.remove(first.getKey(), first.getValue());
+		}
+	}
+
+	private static ApiHeader requireHeader(ApiHeader header) {
+		if (header == null) {
+			throw new IllegalArgumentException("Header cannot be null");
+		}
+
+		return header;
+	}
+
+	/**
+	 * Value with its expiration time, which is pending until it has been computed.
+	 */
+	private static class CachedValue {
+		private final CompletableFuture<String> value = new CompletableFuture<>();
+		private volatile boolean computed;
+		private volatile long expiresAt;
+
+		void complete(String result, long expiresAt) {
+			this.expiresAt = expiresAt;
+			this.computed = true;
+			value.complete(result);
+		}
+
+		void fail(Throwable error) {
+			value.completeExceptionally(error);
+		}
+
+		/**
+		 * Returns the value, waiting for it to be computed if it is pending.
+		 */
+		String get() {
+			try {
+				return value.join();
+			} catch (CompletionException ce) {
+				if (ce.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) ce.getCause();
+				} else if (ce.getCause() instanceof Error) {
+					throw (Error) ce.getCause();
+				}
+
+				throw ce;
+			}
+		}
+
+		boolean isValid(long now) {
+			return !computed || now - expiresAt < 0;
+		}
+
+		boolean expiresBefore(CachedValue other) {
+			return computed && (!other.computed || expiresAt - other.expiresAt < 0);
+		}
+	}
+}
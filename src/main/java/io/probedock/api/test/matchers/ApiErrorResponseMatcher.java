@@ -3,6 +3,7 @@ package io.probedock.api.test.matchers;
 import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
 import io.probedock.api.test.client.ApiTestResponse;
+import io.probedock.api.test.utils.JsonPaths;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -18,6 +19,8 @@ import org.hamcrest.Description;
  * @author Laurent Prevost <laurent.prevost@forbes-digital.com>
  */
 public class ApiErrorResponseMatcher extends BaseMatcher<ApiTestResponse> {
+	private static final JsonPath ERRORS_PATH = JsonPaths.compile("$.errors");
+
 	public static ApiErrorResponseMatcher isApiErrorResponse(int expectedHttpStatusCode) {
 		return new ApiErrorResponseMatcher(expectedHttpStatusCode);
 	}
@@ -106,7 +109,7 @@ public class ApiErrorResponseMatcher extends BaseMatcher<ApiTestResponse> {
 		// ensure response has "errors" property
 		JSONArray errors;
 		try {
-			errors = JsonPath.read(response.getResponseAsString(), "$.errors");
+			errors = response.getJsonDocument().read(ERRORS_PATH);
 		} catch (InvalidPathException | ClassCastException e) {
 			hasErrorsProperty = false;
 			return false;
@@ -200,7 +203,7 @@ public class ApiErrorResponseMatcher extends BaseMatcher<ApiTestResponse> {
 				continue;
 			}
 
-			final LinkedHashMap error =  JsonPath.read(object, "$");
+			final LinkedHashMap error = (LinkedHashMap) object;
 			if (!(error.get("code") instanceof Integer)) {
 				invalidErrors.add(object);
 				continue;
@@ -1,12 +1,13 @@
 package io.probedock.api.test.matchers;
 
 import com.jayway.jsonpath.JsonPath;
+import io.probedock.api.test.utils.JsonPaths;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import net.minidev.json.JSONArray;
-import net.minidev.json.JSONObject;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 
@@ -14,9 +15,13 @@ import org.hamcrest.Description;
  * Matcher for Json error responses coming from our API.
  * Should be used only when expecting multiple erorrs.
  *
+ * <p>Use {@link JsonErrorResponseMatcher} to match an
+ * {@link io.probedock.api.test.client.ApiTestResponse} without parsing its body again.</p>
+ *
  * @author Laurent Prevost <laurent.prevost@forbes-digital.com>
  */
 public class JsonErrorMatcher extends BaseMatcher<String>{
+	private static final JsonPath ERRORS_PATH = JsonPaths.compile("$.errors");
 
 	private List<Entry<String, Integer>> expectedErrors;
 	// Needed because we consume errors in the other List while processing
@@ -44,50 +49,57 @@ public class JsonErrorMatcher extends BaseMatcher<String>{
 	@Override
 	public boolean matches(Object item) {
 		String response = (String) item;
-		if (response != null) {
-			JSONArray errors = JsonPath.read(response, "$.errors");
-			if (errors != null) {
-				// Check the size of the error list received
-				if (expectedErrors != null) {
-					sizeMatches = errors.size() == expectedErrors.size();
-					errorsReceived = errors.size();
-				}
-				if (expectedErrors != null) {
-					Iterator<Object> error = errors.iterator();
-					boolean found;
-					// Check every error until found in the expected errors list
-					while (error.hasNext()) {
-						found = false;
-						JSONObject jsonError = (JSONObject) error.next();
-						Iterator<Entry<String, Integer>> expectedError = expectedErrors.iterator();
-						// Check code and location as well and verify a message is provided
-						while(expectedError.hasNext() && !found) {
-							Entry<String, Integer> e = expectedError.next();
-							// If found and correct, remove from the expected errors list
-							if (e.getKey().equals(jsonError.get("location")) && e.getValue().equals(jsonError.get("code"))){
-								if (jsonError.get("message") == null) {
-									missingErrorMessageLocation = (String) jsonError.get("location");
-									missingErrorMessageCode = (int) jsonError.get("code");
-									errorMessageMatches = false;
-									return false;
-								}
-								found = true;
-								expectedError.remove();
+		return response != null && matchesErrors(ERRORS_PATH.<JSONArray>read(response));
+	}
+
+	/**
+	 * Checks the errors of a response.
+	 *
+	 * @param errors The errors of the response, or null if it has none
+	 * @return True if the errors are the expected ones
+	 */
+	boolean matchesErrors(JSONArray errors) {
+		if (errors != null) {
+			// Check the size of the error list received
+			if (expectedErrors != null) {
+				sizeMatches = errors.size() == expectedErrors.size();
+				errorsReceived = errors.size();
+			}
+			if (expectedErrors != null) {
+				Iterator<Object> error = errors.iterator();
+				boolean found;
+				// Check every error until found in the expected errors list
+				while (error.hasNext()) {
+					found = false;
+					Map<?, ?> jsonError = (Map<?, ?>) error.next();
+					Iterator<Entry<String, Integer>> expectedError = expectedErrors.iterator();
+					// Check code and location as well and verify a message is provided
+					while(expectedError.hasNext() && !found) {
+						Entry<String, Integer> e = expectedError.next();
+						// If found and correct, remove from the expected errors list
+						if (e.getKey().equals(jsonError.get("location")) && e.getValue().equals(jsonError.get("code"))){
+							if (jsonError.get("message") == null) {
+								missingErrorMessageLocation = (String) jsonError.get("location");
+								missingErrorMessageCode = (int) jsonError.get("code");
+								errorMessageMatches = false;
+								return false;
 							}
-						}
-						// If error was not found in the ecpected errors, fail
-						if (!found) {
-							errorMatches = false;
-							return false;
+							found = true;
+							expectedError.remove();
 						}
 					}
-					// If the expected error is not empty, it means an error expected was not present
-					if (!expectedErrors.isEmpty()) {
+					// If error was not found in the ecpected errors, fail
+					if (!found) {
 						errorMatches = false;
 						return false;
 					}
-					return true;
 				}
+				// If the expected error is not empty, it means an error expected was not present
+				if (!expectedErrors.isEmpty()) {
+					errorMatches = false;
+					return false;
+				}
+				return true;
 			}
 		}
 		return false;
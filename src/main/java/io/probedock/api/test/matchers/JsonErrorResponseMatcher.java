@@ -0,0 +1,48 @@
+package io.probedock.api.test.matchers;
+
+import com.jayway.jsonpath.JsonPath;
+import io.probedock.api.test.client.ApiTestResponse;
+import io.probedock.api.test.utils.JsonPaths;
+import java.util.List;
+import java.util.Map.Entry;
+import net.minidev.json.JSONArray;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+
+/**
+ * Matcher for Json error responses coming from our API, like {@link JsonErrorMatcher} but matching
+ * an {@link ApiTestResponse}. The parsed document of the response is reused.
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class JsonErrorResponseMatcher extends BaseMatcher<ApiTestResponse> {
+	private static final JsonPath ERRORS_PATH = JsonPaths.compile("$.errors");
+
+	private final JsonErrorMatcher errorMatcher = new JsonErrorMatcher();
+
+	/**
+	 * Adds the list of errors to verify to the matcher
+	 *
+	 * @param expectedErrors A list of errors in the form Location : Code
+	 * @return The matcher for convenience
+	 */
+	public JsonErrorResponseMatcher withExpectedErrors(List<Entry<String, Integer>> expectedErrors) {
+		errorMatcher.withExpectedErrors(expectedErrors);
+		return this;
+	}
+
+	@Override
+	public boolean matches(Object item) {
+		return item instanceof ApiTestResponse && errorMatcher.matchesErrors(((ApiTestResponse) item).getJsonDocument().<JSONArray>read(ERRORS_PATH));
+	}
+
+	@Override
+	public void describeMismatch(Object item, Description description) {
+		errorMatcher.describeMismatch(item instanceof ApiTestResponse ? ((ApiTestResponse) item).getResponseAsString() : null, description);
+	}
+
+	@Override
+	public void describeTo(Description description) {
+		errorMatcher.describeTo(description);
+	}
+}
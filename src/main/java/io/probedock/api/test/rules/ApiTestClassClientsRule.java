@@ -0,0 +1,28 @@
+package io.probedock.api.test.rules;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * JUnit class rule to release the HTTP client shared by the tests of a class (see
+ * {@link ApiTestClientScope#CLASS}) once all of them have run.
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestClassClientsRule implements TestRule {
+
+	@Override
+	public Statement apply(final Statement base, final Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				try {
+					base.evaluate();
+				} finally {
+					ApiTestSharedClients.releaseClassClient(description.getTestClass());
+				}
+			}
+		};
+	}
+}
@@ -2,15 +2,19 @@ package io.probedock.api.test.rules;
 
 import io.probedock.api.test.client.ApiTestClient;
 import io.probedock.api.test.client.IApiTestClientConfiguration;
-import org.junit.rules.ExternalResource;
+import java.util.concurrent.TimeUnit;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
 
 /**
- * JUnit rule to create and release an HTTP client for each test.
+ * JUnit rule to provide an HTTP client for each test. Depending on the scope, the client is either
+ * created and released for each test, or is a session of a client shared by several tests.
  *
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  * @author Simon Oulevay <simon.oulevay@probedock.io>
  */
-public class ApiTestClientRule extends ExternalResource {
+public class ApiTestClientRule implements TestRule {
 
 	/**
 	 * API client for tests.
@@ -21,24 +25,51 @@ public class ApiTestClientRule extends ExternalResource {
 	 * Client configuration
 	 */
 	private final IApiTestClientConfiguration clientConfiguration;
+
+	/**
+	 * Lifecycle of the HTTP client.
+	 */
+	private final ApiTestClientScope scope;
 	
 	/**
-	 * Constructor
+	 * Constructs a rule that creates a new client for each test.
 	 * 
 	 * @param clientConfiguration The client configuration
 	 */
 	public ApiTestClientRule(IApiTestClientConfiguration clientConfiguration) {
-		this.clientConfiguration = clientConfiguration;
+		this(clientConfiguration, ApiTestClientScope.TEST);
 	}
-	
-	@Override
-	protected void before() throws Throwable {
-		client = new ApiTestClient(clientConfiguration);
+
+	/**
+	 * Constructor
+	 *
+	 * @param clientConfiguration The client configuration
+	 * @param scope The lifecycle of the client
+	 */
+	public ApiTestClientRule(IApiTestClientConfiguration clientConfiguration, ApiTestClientScope scope) {
+		this.clientConfiguration = clientConfiguration;
+		this.scope = scope != null ? scope : ApiTestClientScope.TEST;
 	}
 
 	@Override
-	protected void after() {
-		client.close();
+	public Statement apply(final Statement base, final Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				client = createClient(description);
+
+				// limit the time spent by the requests of the test
+				if (clientConfiguration != null && clientConfiguration.getTestDeadline() > 0) {
+					client.setDeadline(clientConfiguration.getTestDeadline(), TimeUnit.MILLISECONDS);
+				}
+
+				try {
+					base.evaluate();
+				} finally {
+					client.close();
+				}
+			}
+		};
 	}
 
 	/**
@@ -48,5 +79,22 @@ public class ApiTestClientRule extends ExternalResource {
 	 */
 	public ApiTestClient getClient() {
 		return client;
-	}	
+	}
+
+	/**
+	 * Creates the client for a test according to the scope of this rule.
+	 *
+	 * @param description the test description
+	 * @return a new client or a new session of a shared client
+	 */
+	private ApiTestClient createClient(Description description) {
+		switch (scope) {
+			case CLASS:
+				return ApiTestSharedClients.getClassClient(description.getTestClass(), clientConfiguration).newSession();
+			case JVM:
+				return ApiTestSharedClients.getJvmClient(clientConfiguration).newSession();
+			default:
+				return new ApiTestClient(clientConfiguration);
+		}
+	}
 }
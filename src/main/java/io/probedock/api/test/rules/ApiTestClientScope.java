@@ -0,0 +1,31 @@
+package io.probedock.api.test.rules;
+
+/**
+ * Lifecycle of the HTTP client used by API tests.
+ *
+ * <p>Shared clients keep their connection pool open between tests so that keep-alive connections
+ * are reused, but each test still gets its own client session (see
+ * {@link io.probedock.api.test.client.ApiTestClient#newSession()}).</p>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public enum ApiTestClientScope {
+	/**
+	 * A new client is created before each test and closed after it.
+	 */
+	TEST,
+
+	/**
+	 * A client is shared by all tests of a test class. It is closed after the last test of the
+	 * class.
+	 */
+	CLASS,
+
+	/**
+	 * A client is shared by all tests whose client configurations have the same shared client key,
+	 * by default the same class (see
+	 * {@link io.probedock.api.test.client.IApiTestClientConfiguration#getSharedClientKey()}). It
+	 * is closed when the JVM shuts down.
+	 */
+	JVM
+}
@@ -0,0 +1,110 @@
+package io.probedock.api.test.rules;
+
+import io.probedock.api.test.client.ApiTestClient;
+import io.probedock.api.test.client.IApiTestClientConfiguration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the HTTP clients shared by several tests.
+ *
+ * @see ApiTestClientScope
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class ApiTestSharedClients {
+	/**
+	 * Clients shared by all tests of the JVM, by shared client key (see
+	 * {@link IApiTestClientConfiguration#getSharedClientKey()}).
+	 */
+	private static final Map<Object, ApiTestClient> JVM_CLIENTS = new HashMap<>();
+
+	/**
+	 * Clients shared by all tests of a test class.
+	 */
+	private static final Map<Class<?>, ApiTestClient> CLASS_CLIENTS = new HashMap<>();
+
+	static {
+		// make sure no connection is left open when the tests are done
+		Runtime.getRuntime().addShutdownHook(new Thread("api-test-shared-clients-shutdown") {
+			@Override
+			public void run() {
+				closeAll();
+			}
+		});
+	}
+
+	/**
+	 * Returns the client shared by all tests whose configuration has the same shared client key
+	 * (see {@link IApiTestClientConfiguration#getSharedClientKey()}). The client is created with
+	 * the specified configuration if necessary.
+	 *
+	 * @param clientConfiguration the client configuration
+	 * @return a shared API test client
+	 */
+	public static synchronized ApiTestClient getJvmClient(IApiTestClientConfiguration clientConfiguration) {
+		final Object key = clientConfiguration.getSharedClientKey();
+		ApiTestClient client = JVM_CLIENTS.get(key);
+		if (client == null) {
+			client = new ApiTestClient(clientConfiguration);
+			JVM_CLIENTS.put(key, client);
+		}
+
+		return client;
+	}
+
+	/**
+	 * Returns the client shared by all tests of the specified class. The client is created with
+	 * the specified configuration if necessary.
+	 *
+	 * @param testClass the test class
+	 * @param clientConfiguration the client configuration
+	 * @return a shared API test client
+	 */
+	public static synchronized ApiTestClient getClassClient(Class<?> testClass, IApiTestClientConfiguration clientConfiguration) {
+		ApiTestClient client = CLASS_CLIENTS.get(testClass);
+		if (client == null) {
+			client = new ApiTestClient(clientConfiguration);
+			CLASS_CLIENTS.put(testClass, client);
+		}
+
+		return client;
+	}
+
+	/**
+	 * Closes the client shared by the tests of the specified class, if any.
+	 *
+	 * @param testClass the test class
+	 */
+	public static void releaseClassClient(Class<?> testClass) {
+		final ApiTestClient client;
+		synchronized (ApiTestSharedClients.class) {
+			client = CLASS_CLIENTS.remove(testClass);
+		}
+
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	/**
+	 * Closes all shared clients.
+	 */
+	private static void closeAll() {
+		final List<ApiTestClient> clients;
+		synchronized (ApiTestSharedClients.class) {
+			clients = new ArrayList<>(JVM_CLIENTS.values());
+			clients.addAll(CLASS_CLIENTS.values());
+			JVM_CLIENTS.clear();
+			CLASS_CLIENTS.clear();
+		}
+
+		for (ApiTestClient client : clients) {
+			client.close();
+		}
+	}
+
+	private ApiTestSharedClients() {
+	}
+}
@@ -0,0 +1,85 @@
+package io.probedock.api.test.utils;
+
+import com.jayway.jsonassert.JsonAsserter;
+import com.jayway.jsonassert.impl.JsonAsserterImpl;
+import com.jayway.jsonpath.PathNotFoundException;
+import org.hamcrest.Matcher;
+
+/**
+ * JsonPath asserter evaluating paths compiled once per process (see {@link JsonPaths}) instead of
+ * looking them up in the cache of JsonPath for each assertion. Assertion errors are the same as
+ * those of {@link JsonAsserterImpl}, except that paths which cannot be read always fail with an
+ * {@link AssertionError} and that custom messages are never ignored.
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class CompiledJsonAsserter extends JsonAsserterImpl {
+	/**
+	 * The parsed JSON document.
+	 */
+	private final Object json;
+
+	/**
+	 * Constructs an asserter for a parsed JSON document.
+	 *
+	 * @param json a parsed JSON document
+	 */
+	public CompiledJsonAsserter(Object json) {
+		super(json);
+		this.json = json;
+	}
+
+	@Override
+	public <T> JsonAsserter assertThat(String path, Matcher<T> matcher) {
+		final T value;
+		try {
+			value = JsonPaths.read(json, path);
+		} catch (Exception e) {
+			throw (AssertionError) new AssertionError(String.format("Error reading JSON path [%s]", path)).initCause(e);
+		}
+
+		if (!matcher.matches(value)) {
+			throw new AssertionError(String.format("JSON path [%s] doesn't match.\nExpected:\n%s\nActual:\n%s", path, matcher.toString(), value));
+		}
+
+		return this;
+	}
+
+	@Override
+	public <T> JsonAsserter assertThat(String path, Matcher<T> matcher, String message) {
+		final T value;
+		try {
+			value = JsonPaths.read(json, path);
+		} catch (Exception e) {
+			throw (AssertionError) new AssertionError(String.format("JSON Assert Error: %s\nError reading JSON path [%s]", message, path)).initCause(e);
+		}
+
+		if (!matcher.matches(value)) {
+			throw new AssertionError(String.format("JSON Assert Error: %s\nExpected:\n%s\nActual:\n%s", message, matcher.toString(), value));
+		}
+
+		return this;
+	}
+
+	@Override
+	public JsonAsserter assertNotDefined(String path) {
+		try {
+			JsonPaths.read(json, path);
+		} catch (PathNotFoundException e) {
+			return this;
+		}
+
+		throw new AssertionError(String.format("Document contains the path <%s> but was expected not to.", path));
+	}
+
+	@Override
+	public JsonAsserter assertNotDefined(String path, String message) {
+		try {
+			JsonPaths.read(json, path);
+		} catch (PathNotFoundException e) {
+			return this;
+		}
+
+		throw new AssertionError(String.format("JSON Assert Error: %s\nDocument contains the path <%s> but was expected not to.", message, path));
+	}
+}
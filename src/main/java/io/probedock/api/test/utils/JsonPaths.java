@@ -0,0 +1,73 @@
+package io.probedock.api.test.utils;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide cache of compiled JSON paths.
+ *
+ * <p>Evaluating a path given as a string requires compiling it first. JsonPath has its own cache
+ * of compiled paths, but every lookup takes a global lock and scans a linked list of up to 400
+ * paths. This cache is looked up without locking and is used by all the matchers and JSON
+ * asserters of this library; use it as well for custom assertions evaluating the same paths many
+ * times:</p>
+ *
+ * <pre>
+ * List&lt;Integer&gt; ids = JsonPaths.compile("$.items[*].id").read(response.getJsonDocument().json());
+ * </pre>
+ *
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public final class JsonPaths {
+	/**
+	 * The maximum number of cached paths.
+	 */
+	private static final int MAX_CACHED_PATHS = 1024;
+
+	/**
+	 * Compiled paths per path expression.
+	 */
+	private static final ConcurrentMap<String, JsonPath> CACHE = new ConcurrentHashMap<>();
+
+	private JsonPaths() {
+	}
+
+	/**
+	 * Returns the compiled form of a path expression, compiling it only if it is not cached yet.
+	 * Compiled paths are immutable and can be shared between threads.
+	 *
+	 * @param path a path expression (e.g. <tt>$.errors[0].code</tt>)
+	 * @return a compiled path
+	 * @throws com.jayway.jsonpath.InvalidPathException if the path is invalid
+	 */
+	public static JsonPath compile(String path) {
+		final JsonPath cached = CACHE.get(path);
+		if (cached != null) {
+			return cached;
+		}
+
+		final JsonPath compiled = JsonPath.compile(path);
+
+		// the cache is only a shortcut; simply start over if too many paths are seen
+		if (CACHE.size() >= MAX_CACHED_PATHS) {
+			CACHE.clear();
+		}
+		CACHE.put(path, compiled);
+
+		return compiled;
+	}
+
+	/**
+	 * Evaluates a path on a parsed JSON document.
+	 *
+	 * @param <T> the expected type of the result
+	 * @param json a parsed JSON document (e.g. <tt>ApiTestResponse#getJsonDocument().json()</tt>)
+	 * @param path a path expression
+	 * @return the result of the path
+	 * @throws com.jayway.jsonpath.InvalidPathException if the path is invalid or not found
+	 */
+	public static <T> T read(Object json, String path) {
+		return compile(path).read(json);
+	}
+}
@@ -0,0 +1,193 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * @see ApiEntryPointBalancer
+ * @see ApiEntryPoint
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiEntryPointBalancerUnitTest {
+	private final List<ApiEntryPoint> entryPoints = ApiEntryPoint.of("http://node1/api", "http://node2/api/", "http://node3/api");
+
+	@Test
+	public void roundRobinSelectorsShouldSelectEachEntryPointInTurn() {
+		final ApiEntryPointBalancer balancer = new ApiEntryPointBalancer(entryPoints, new RoundRobinApiEntryPointSelector());
+
+		for (int i = 0; i < 7; i++) {
+			assertSame(entryPoints.get(i % 3), balancer.select(null));
+		}
+		assertFalse(balancer.isLoadAware());
+	}
+
+	@Test
+	public void leastOutstandingSelectorsShouldSelectTheEntryPointWithTheFewestRequestsInFlight() {
+		final ApiEntryPointBalancer balancer = new ApiEntryPointBalancer(entryPoints, new LeastOutstandingApiEntryPointSelector());
+		entryPoints.get(0).requestStarted();
+		entryPoints.get(0).requestStarted();
+		entryPoints.get(2).requestStarted();
+
+		assertSame(entryPoints.get(1), balancer.select(null));
+		assertSame(entryPoints.get(1), balancer.select(null));
+		assertTrue(balancer.isLoadAware());
+	}
+
+	@Test
+	public void leastOutstandingSelectorsShouldBreakTiesInTurn() {
+		final ApiEntryPointBalancer balancer = new ApiEntryPointBalancer(entryPoints, new LeastOutstandingApiEntryPointSelector());
+
+		final List<ApiEntryPoint> selected = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			selected.add(balancer.select(null));
+		}
+
+		assertEquals(new HashSet<>(entryPoints), new HashSet<>(selected));
+	}
+
+	@Test
+	public void singleEntryPointBalancersShouldNotBeLoadAware() {
+		final ApiEntryPointBalancer balancer = new ApiEntryPointBalancer(ApiEntryPoint.of("http://node1/api"), new LeastOutstandingApiEntryPointSelector());
+		assertFalse(balancer.isLoadAware());
+	}
+
+	@Test
+	public void consistentHashSelectorsShouldAlwaysSelectTheSameEntryPointForAKey() {
+		final ApiEntryPointBalancer balancer = new ApiEntryPointBalancer(entryPoints, new ConsistentHashApiEntryPointSelector());
+
+		final Map<ApiEntryPoint, Integer> counts = new HashMap<>();
+		for (int i = 0; i < 300; i++) {
+			final ApiEntryPoint entryPoint = balancer.select("/users/" + i);
+			assertSame(entryPoint, balancer.select("/users/" + i));
+			counts.merge(entryPoint, 1, Integer::sum);
+		}
+
+		// keys are spread over all entry points
+		assertEquals(3, counts.size());
+		for (int count : counts.values()) {
+			assertTrue("Unbalanced distribution " + counts, count > 50);
+		}
+	}
+
+	@Test
+	public void consistentHashSelectorsShouldOnlyMoveTheKeysOfRemovedEntryPoints() {
+		final ConsistentHashApiEntryPointSelector selector = new ConsistentHashApiEntryPointSelector();
+		final List<ApiEntryPoint> remaining = Arrays.asList(entryPoints.get(0), entryPoints.get(2));
+
+		for (int i = 0; i < 100; i++) {
+			final ApiEntryPoint before = selector.select(entryPoints, "key" + i);
+			final ApiEntryPoint after = selector.select(remaining, "key" + i);
+			if (before != entryPoints.get(1)) {
+				assertSame(before, after);
+			}
+		}
+	}
+
+	@Test
+	public void consistentHashRingsShouldWrapAround() {
+		final ConsistentHashApiEntryPointSelector.Ring ring = new ConsistentHashApiEntryPointSelector.Ring(entryPoints, 4);
+		assertSame(ring.select(Long.MIN_VALUE), ring.select(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void consistentHashSelectorsShouldSelectRequestsWithoutKeyInTurn() {
+		final ConsistentHashApiEntryPointSelector selector = new ConsistentHashApiEntryPointSelector(1);
+		for (int i = 0; i < 4; i++) {
+			assertSame(entryPoints.get(i % 3), selector.select(entryPoints, null));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void consistentHashSelectorsShouldRequireVirtualNodes() {
+		new ConsistentHashApiEntryPointSelector(0);
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void balancersShouldRequireEntryPoints() {
+		new ApiEntryPointBalancer(new ArrayList<>(), new RoundRobinApiEntryPointSelector());
+	}
+
+	@Test
+	public void entryPointsShouldRecordRequestStatistics() {
+		final ApiEntryPoint entryPoint = new ApiEntryPoint("http://node1/api");
+
+		entryPoint.requestStarted();
+		entryPoint.requestStarted();
+		entryPoint.requestStarted();
+		assertEquals(3, entryPoint.getOutstandingRequests());
+
+		entryPoint.requestCompleted(TimeUnit.MILLISECONDS.toNanos(10), false);
+		entryPoint.requestCompleted(TimeUnit.MILLISECONDS.toNanos(30), true);
+
+		assertEquals(1, entryPoint.getOutstandingRequests());
+		assertEquals(2, entryPoint.getRequestCount());
+		assertEquals(1, entryPoint.getErrorCount());
+		assertEquals(40, entryPoint.getTotalLatency(TimeUnit.MILLISECONDS));
+		assertEquals(20, entryPoint.getAverageLatency(TimeUnit.MILLISECONDS));
+		assertEquals(30, entryPoint.getMaxLatency(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void resettingEntryPointStatisticsShouldKeepRequestsInFlight() {
+		final ApiEntryPoint entryPoint = new ApiEntryPoint("http://node1/api");
+		entryPoint.requestStarted();
+		entryPoint.requestStarted();
+		entryPoint.requestCompleted(TimeUnit.MILLISECONDS.toNanos(10), true);
+
+		entryPoint.resetStatistics();
+
+		assertEquals(1, entryPoint.getOutstandingRequests());
+		assertEquals(0, entryPoint.getRequestCount());
+		assertEquals(0, entryPoint.getErrorCount());
+		assertEquals(0, entryPoint.getAverageLatency(TimeUnit.MILLISECONDS));
+		assertEquals(0, entryPoint.getMaxLatency(TimeUnit.MILLISECONDS));
+
+		entryPoint.requestCompleted(TimeUnit.MILLISECONDS.toNanos(20), false);
+		assertEquals(0, entryPoint.getOutstandingRequests());
+		assertEquals(1, entryPoint.getRequestCount());
+		assertEquals(20, entryPoint.getMaxLatency(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void loadAwareEntryPointsShouldBeSelectedWhenRequestsAreExecuted() {
+		final List<ApiEntryPoint> nodes = ApiEntryPoint.of("http://node1/api", "http://node2/api/");
+		final ApiEntryPointBalancer balancer = new ApiEntryPointBalancer(nodes, new LeastOutstandingApiEntryPointSelector());
+
+		final IApiTestTransport transport = mock(IApiTestTransport.class);
+		when(transport.executeAsync(any(ApiTestRequest.class))).thenAnswer(invocation -> new CompletableFuture<ApiTestResponse>());
+		final ApiTestClient client = new ApiTestClient(mock(IApiTestClientConfiguration.class), transport);
+
+		// one node is busy while the batch is built, so all requests of the batch are built for the other one
+		final ApiTestRequest busyRequest = new ApiTestRequest(ApiTestRequest.GET, new ApiUriBuilder(balancer).path("busy"), null);
+		client.executeAsync(busyRequest);
+		final ApiEntryPoint idle = busyRequest.getEntryPoint() == nodes.get(0) ? nodes.get(1) : nodes.get(0);
+
+		final List<ApiTestRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			final ApiTestRequest request = new ApiTestRequest(ApiTestRequest.GET, new ApiUriBuilder(balancer).path("users").queryParam("page", i), null);
+			assertSame(idle, request.getEntryPoint());
+			requests.add(request);
+		}
+
+		for (ApiTestRequest request : requests) {
+			client.executeAsync(request);
+		}
+
+		assertEquals(2, nodes.get(0).getOutstandingRequests());
+		assertEquals(2, nodes.get(1).getOutstandingRequests());
+		for (ApiTestRequest request : requests) {
+			final String expectedBase = request.getEntryPoint() == nodes.get(0) ? "http://node1/api/users?page=" : "http://node2/api/users?page=";
+			assertTrue(request.getUri().toString(), request.getUri().toString().startsWith(expectedBase));
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @see ApiProxyExceptions
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiProxyExceptionsUnitTest {
+
+	@Test
+	public void apiProxyExceptionsShouldMatchExactHosts() {
+		final ApiProxyExceptions exceptions = ApiProxyExceptions.compile(new String[]{ "localhost", " 127.0.0.1", "", null, "Example.COM" });
+
+		assertTrue(exceptions.matches("localhost"));
+		assertTrue(exceptions.matches("127.0.0.1"));
+		assertTrue(exceptions.matches("example.com"));
+		assertTrue(exceptions.matches("EXAMPLE.com"));
+		assertFalse(exceptions.matches("api.example.com"));
+		assertFalse(exceptions.matches("127.0.0.2"));
+		assertFalse(exceptions.matches(null));
+	}
+
+	@Test
+	public void apiProxyExceptionsShouldMatchDomainSuffixes() {
+		final ApiProxyExceptions exceptions = ApiProxyExceptions.compile(new String[]{ "*.example.com", ".internal" });
+
+		assertTrue(exceptions.matches("example.com"));
+		assertTrue(exceptions.matches("api.example.com"));
+		assertTrue(exceptions.matches("v1.api.example.com"));
+		assertTrue(exceptions.matches("db.internal"));
+		assertFalse(exceptions.matches("badexample.com"));
+		assertFalse(exceptions.matches("example.org"));
+	}
+
+	@Test
+	public void apiProxyExceptionsShouldMatchCidrRanges() {
+		final ApiProxyExceptions exceptions = ApiProxyExceptions.compile(new String[]{ "10.0.0.0/8", "192.168.1.128/25", "fd00::/8" });
+
+		assertTrue(exceptions.matches("10.1.2.3"));
+		assertTrue(exceptions.matches("192.168.1.200"));
+		assertFalse(exceptions.matches("192.168.1.100"));
+		assertFalse(exceptions.matches("11.0.0.1"));
+		assertTrue(exceptions.matches("[fd12::1]"));
+		assertFalse(exceptions.matches("fe80::1"));
+		assertFalse(exceptions.matches("10.example.com"));
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void apiProxyExceptionsShouldRejectInvalidCidrRanges() {
+		ApiProxyExceptions.compile(new String[]{ "10.0.0.0/33" });
+	}
+}
@@ -0,0 +1,261 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * @see ApiTestClient
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestClientUnitTest {
+
+	@Mock
+	private IApiTestClientConfiguration clientConfiguration;
+	@Mock
+	private IApiTestTransport transport;
+	@Mock
+	private ApiTestResponse response;
+	private ApiTestClient client;
+	private ApiTestRequest request;
+	private CountDownLatch aborted;
+	private BlockingQueue<CompletableFuture<ApiTestResponse>> submitted;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.openMocks(this);
+		client = new ApiTestClient(clientConfiguration, transport);
+		request = new ApiTestRequest(ApiTestRequest.GET, URI.create("http://localhost/api"), null);
+		aborted = new CountDownLatch(1);
+		submitted = new LinkedBlockingQueue<>();
+	}
+
+	@Test
+	public void apiTestClientShouldAbortBlockingRequestsWhenTheyTimeOut() {
+		blockUntilAborted();
+		request.setRequestTimeout(50);
+
+		assertTimeout(50);
+		assertEquals(0, aborted.getCount());
+	}
+
+	@Test
+	public void apiTestClientShouldAbortBlockingRequestsWhenTheDeadlineExpires() {
+		blockUntilAborted();
+		request.setRequestTimeout(60000);
+
+		client.setDeadline(50, TimeUnit.MILLISECONDS);
+		try {
+			client.execute(request);
+			fail("Expected an ApiTestException");
+		} catch (ApiTestException ate) {
+			assertTrue(ate.getMessage(), ate.getMessage().contains("did not complete within"));
+		}
+
+		assertEquals(0, aborted.getCount());
+	}
+
+	@Test
+	public void apiTestClientShouldNotSendRequestsAfterTheDeadline() {
+		client.setDeadline(0, TimeUnit.MILLISECONDS);
+
+		try {
+			client.execute(request);
+			fail("Expected an ApiTestException");
+		} catch (ApiTestException ate) {
+			assertTrue(ate.getMessage(), ate.getMessage().startsWith("Deadline expired"));
+		}
+
+		verify(transport, never()).execute(any(ApiTestRequest.class));
+	}
+
+	@Test
+	public void apiTestClientShouldNotAbortRequestsCompletingInTime() throws InterruptedException {
+		when(transport.execute(request)).thenAnswer(invocation -> {
+			request.setCancellable(() -> {
+				aborted.countDown();
+				return true;
+			});
+			return response;
+		});
+		request.setRequestTimeout(50);
+
+		assertSame(response, client.execute(request));
+		assertFalse(aborted.await(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void apiTestClientShouldFailBlockingRequestsCompletingAfterTheirTimeout() {
+		when(transport.execute(request)).thenAnswer(invocation -> {
+			Thread.sleep(100);
+			return response;
+		});
+		request.setRequestTimeout(50);
+
+		assertTimeout(50);
+		verify(response).release();
+	}
+
+	@Test
+	public void apiTestClientShouldCancelAsynchronousRequestsWhenTheyTimeOut() throws InterruptedException {
+		final CompletableFuture<ApiTestResponse> future = new CompletableFuture<>();
+		when(transport.executeAsync(request)).thenReturn(future);
+		request.setRequestTimeout(50);
+
+		try {
+			client.executeAsync(request).get();
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof ApiTestException);
+			assertEquals("Request " + request + " did not complete within 50ms", ee.getCause().getMessage());
+		}
+
+		assertTrue(future.isCancelled());
+	}
+
+	@Test
+	public void apiTestClientShouldLimitTheNumberOfRequestsInFlight() throws Exception {
+		submitAsynchronously();
+
+		final CompletableFuture<List<ApiTestResponse>> result = CompletableFuture.supplyAsync(() -> client.executeAll(requests(4), 2));
+
+		final CompletableFuture<ApiTestResponse> first = nextSubmitted();
+		final CompletableFuture<ApiTestResponse> second = nextSubmitted();
+		assertNull(submitted.poll(100, TimeUnit.MILLISECONDS));
+
+		first.complete(response);
+		final CompletableFuture<ApiTestResponse> third = nextSubmitted();
+		assertNull(submitted.poll(100, TimeUnit.MILLISECONDS));
+
+		second.complete(response);
+		third.complete(response);
+		nextSubmitted().complete(response);
+
+		assertEquals(Arrays.asList(response, response, response, response), result.get(5, TimeUnit.SECONDS));
+		verify(transport, times(4)).executeAsync(any(ApiTestRequest.class));
+	}
+
+	@Test
+	public void apiTestClientShouldReturnResponsesInTheOrderOfTheRequests() throws Exception {
+		submitAsynchronously();
+
+		final CompletableFuture<List<ApiTestResponse>> result = CompletableFuture.supplyAsync(() -> client.executeAll(requests(3), 3));
+
+		final List<CompletableFuture<ApiTestResponse>> futures = Arrays.asList(nextSubmitted(), nextSubmitted(), nextSubmitted());
+		final List<ApiTestResponse> responses = Arrays.asList(mock(ApiTestResponse.class), mock(ApiTestResponse.class), mock(ApiTestResponse.class));
+		for (int i = futures.size() - 1; i >= 0; i--) {
+			futures.get(i).complete(responses.get(i));
+		}
+
+		assertEquals(responses, result.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void apiTestClientShouldStopSendingRequestsAndCancelThemAfterTheFirstFailure() throws Exception {
+		submitAsynchronously();
+
+		final CompletableFuture<List<ApiTestResponse>> result = CompletableFuture.supplyAsync(() -> client.executeAll(requests(4), 2));
+
+		final CompletableFuture<ApiTestResponse> first = nextSubmitted();
+		final CompletableFuture<ApiTestResponse> second = nextSubmitted();
+		first.completeExceptionally(new ApiTestException("Request failed"));
+
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof ApiTestException);
+			assertEquals("Request failed", ee.getCause().getMessage());
+		}
+
+		assertTrue(second.isCancelled());
+		assertNull(submitted.poll(100, TimeUnit.MILLISECONDS));
+		verify(transport, times(2)).executeAsync(any(ApiTestRequest.class));
+	}
+
+	@Test
+	public void apiTestClientShouldCancelRequestsInFlightWhenATransportThrows() throws InterruptedException {
+		final List<CompletableFuture<ApiTestResponse>> futures = new ArrayList<>();
+		when(transport.executeAsync(any(ApiTestRequest.class))).thenAnswer(invocation -> {
+			if (futures.size() == 2) {
+				throw new IllegalStateException("Transport failed");
+			}
+
+			final CompletableFuture<ApiTestResponse> future = new CompletableFuture<>();
+			futures.add(future);
+			return future;
+		});
+
+		try {
+			client.executeAll(requests(4), 4);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException ise) {
+			assertEquals("Transport failed", ise.getMessage());
+		}
+
+		assertEquals(2, futures.size());
+		assertTrue(futures.get(0).isCancelled());
+		assertTrue(futures.get(1).isCancelled());
+	}
+
+	private void blockUntilAborted() {
+		when(transport.execute(request)).thenAnswer(invocation -> {
+			request.setCancellable(() -> {
+				aborted.countDown();
+				return true;
+			});
+
+			if (!aborted.await(5, TimeUnit.SECONDS)) {
+				fail("The request was not aborted");
+			}
+
+			throw new ApiTestException("Request aborted");
+		});
+	}
+
+	private void assertTimeout(long timeout) {
+		try {
+			client.execute(request);
+			fail("Expected an ApiTestException");
+		} catch (ApiTestException ate) {
+			assertEquals("Request " + request + " did not complete within " + timeout + "ms", ate.getMessage());
+		}
+	}
+
+	private void submitAsynchronously() {
+		when(transport.executeAsync(any(ApiTestRequest.class))).thenAnswer(invocation -> {
+			final CompletableFuture<ApiTestResponse> future = new CompletableFuture<>();
+			submitted.add(future);
+			return future;
+		});
+	}
+
+	private CompletableFuture<ApiTestResponse> nextSubmitted() throws InterruptedException {
+		final CompletableFuture<ApiTestResponse> future = submitted.poll(5, TimeUnit.SECONDS);
+		assertNotNull("Expected a request to be sent", future);
+		return future;
+	}
+
+	private static List<ApiTestRequest> requests(int count) {
+		final List<ApiTestRequest> requests = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			requests.add(new ApiTestRequest(ApiTestRequest.GET, URI.create("http://localhost/api/items/" + i), null));
+		}
+
+		return requests;
+	}
+}
@@ -0,0 +1,165 @@
+package io.probedock.api.test.client;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+/**
+ * @see ApiTestJsonArrayAssertion
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestJsonArrayAssertionUnitTest {
+	private static final String ITEMS = "[{\"id\":1,\"status\":\"open\",\"amount\":10,\"tags\":[\"a\",null,true]},{\"id\":2,\"status\":\"paid\",\"amount\":32.5,\"parent\":{\"id\":1}},3,\"four\",false,null]";
+
+	@Test
+	public void jsonArrayAssertionsShouldCheckEachElement() throws IOException {
+		final AtomicInteger checked = new AtomicInteger();
+
+		response(ITEMS).assertJsonArray()
+			.each(notNullValue())
+			.each(element -> checked.incrementAndGet(), greaterThan(0))
+			.verify();
+
+		assertEquals(6, checked.get());
+	}
+
+	@Test
+	public void jsonArrayAssertionsShouldBuildNestedElements() throws IOException {
+		final List<JsonValue> expected;
+		try (JsonReader reader = Json.createReader(new StringReader(ITEMS))) {
+			expected = new ArrayList<>(reader.readArray());
+		}
+
+		response(ITEMS).assertJsonArray()
+			.collect("elements", Collectors.toList(), equalTo(expected))
+			.verify();
+	}
+
+	@Test
+	public void jsonArrayAssertionsShouldReportTheFirstElementWhichDoesNotMatch() throws IOException {
+		try {
+			response(ITEMS).assertJsonArray()
+				.each(element -> element.getValueType(), equalTo(JsonValue.ValueType.OBJECT))
+				.verify();
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertTrue(ae.getMessage(), ae.getMessage().startsWith("Expected value extracted from element 2 to be <OBJECT>"));
+		}
+	}
+
+	@Test
+	public void jsonArrayAssertionsShouldCollectAllElements() throws IOException {
+		response(ITEMS).assertJsonArray()
+			.collect("total", Collectors.summingDouble(element -> element instanceof JsonObject ? ((JsonObject) element).getJsonNumber("amount").doubleValue() : 0), equalTo(42.5))
+			.collect("numbers", Collectors.summingInt(element -> element instanceof JsonNumber ? 1 : 0), equalTo(1))
+			.verify();
+	}
+
+	@Test
+	public void jsonArrayAssertionsShouldReportAggregationsWhichDoNotMatch() throws IOException {
+		try {
+			response(ITEMS).assertJsonArray()
+				.collect("count", Collectors.counting(), equalTo(2L))
+				.verify();
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertTrue(ae.getMessage(), ae.getMessage().startsWith("Expected count to be <2L>"));
+		}
+	}
+
+	@Test
+	public void jsonArrayAssertionsShouldCheckTheSize() throws IOException {
+		response(ITEMS).assertJsonArray().size(equalTo(6)).verify();
+		response("[]").assertJsonArray().size(equalTo(0)).verify();
+
+		try {
+			response(ITEMS).assertJsonArray().size(lessThan(6)).verify();
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertTrue(ae.getMessage(), ae.getMessage().startsWith("Expected array size to be "));
+		}
+	}
+
+	@Test
+	public void jsonArrayAssertionsShouldStreamLargeArrays() throws IOException {
+		final int count = 200000;
+		final InputStream body = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+			new ByteArrayInputStream("[".getBytes(StandardCharsets.UTF_8)),
+			new InputStream() {
+				private int index;
+				private byte[] current = new byte[0];
+				private int position;
+
+				@Override
+				public int read() {
+					if (position == current.length) {
+						if (index == count) {
+							return -1;
+						}
+
+						current = ((index > 0 ? "," : "") + "{\"id\":" + index++ + "}").getBytes(StandardCharsets.UTF_8);
+						position = 0;
+					}
+
+					return current[position++];
+				}
+			},
+			new ByteArrayInputStream("]".getBytes(StandardCharsets.UTF_8)))));
+
+		final ApiTestResponse response = new ApiTestResponse(200, headers(), body, 1024);
+		try {
+			response.assertJsonArray()
+				.each(element -> ((JsonObject) element).getInt("id"), greaterThanOrEqualTo(0))
+				.collect("sum", Collectors.summingLong(element -> ((JsonObject) element).getInt("id")), equalTo((long) count * (count - 1) / 2))
+				.size(equalTo(count))
+				.verify();
+		} finally {
+			response.release();
+		}
+	}
+
+	@Test(expected = AssertionError.class)
+	public void jsonArrayAssertionsShouldRequireAnArray() throws IOException {
+		response("{\"id\":1}").assertJsonArray().verify();
+	}
+
+	@Test(expected = JsonException.class)
+	public void jsonArrayAssertionsShouldRejectInvalidJson() throws IOException {
+		response("[{\"id\":1},").assertJsonArray().verify();
+	}
+
+	@Test
+	public void jsonArrayAssertionsShouldDecodeTheCharsetOfTheResponse() throws IOException {
+		final ApiTestResponse response = new ApiTestResponse(200, headers(new BasicHeader("Content-Type", "application/json; charset=ISO-8859-1")), new ByteArrayInputStream("[\"café\"]".getBytes(StandardCharsets.ISO_8859_1)));
+		response.assertJsonArray().each(element -> element.toString(), equalTo("\"café\"")).verify();
+	}
+
+	private static ApiTestResponse response(String body) throws IOException {
+		return new ApiTestResponse(200, headers(new BasicHeader("Content-Type", "application/json")), new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static Header[] headers(Header... headers) {
+		return headers;
+	}
+}
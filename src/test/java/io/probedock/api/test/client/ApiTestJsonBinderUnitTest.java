@@ -0,0 +1,203 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import javax.json.JsonException;
+import org.junit.Test;
+
+/**
+ * @see ApiTestJsonBinder
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestJsonBinderUnitTest {
+
+	@Test
+	public void jsonBinderShouldBindFieldsOfSupportedTypes() {
+		final Item item = bind("{\"name\":\"Apples\",\"quantity\":3,\"price\":1.25,\"available\":true,\"grade\":\"A\",\"status\":\"PAID\",\"size\":12345678901,\"total\":\"12.50\",\"amount\":12.50}", Item.class);
+
+		assertEquals("Apples", item.name);
+		assertEquals(3, item.quantity);
+		assertEquals(1.25, item.price, 0);
+		assertTrue(item.available);
+		assertEquals(Character.valueOf('A'), item.grade);
+		assertEquals(Status.PAID, item.status);
+		assertEquals(Long.valueOf(12345678901L), item.size);
+		assertEquals("12.50", item.total);
+		assertEquals(new BigDecimal("12.50"), item.amount);
+	}
+
+	@Test
+	public void jsonBinderShouldBindArraysCollectionsAndMaps() {
+		final Item item = bind("{\"ids\":[1,2,3],\"tags\":[\"b\",\"a\",\"b\"],\"sorted\":[\"b\",\"a\"],\"counts\":[1,null,3],\"children\":{\"first\":{\"name\":\"child\"},\"second\":null},\"matrix\":[[1],[2,3]],\"lists\":[[\"a\"],[]]}", Item.class);
+
+		assertArrayEquals(new long[] { 1, 2, 3 }, item.ids);
+		assertEquals(LinkedHashSet.class, item.tags.getClass());
+		assertEquals(Arrays.asList("b", "a"), Arrays.asList(item.tags.toArray()));
+		assertEquals(TreeSet.class, item.sorted.getClass());
+		assertEquals("a", item.sorted.first());
+		assertEquals(Arrays.asList(1, null, 3), item.counts);
+		assertEquals(LinkedHashMap.class, item.children.getClass());
+		assertEquals("child", item.children.get("first").name);
+		assertTrue(item.children.containsKey("second"));
+		assertNull(item.children.get("second"));
+		assertArrayEquals(new int[][] { { 1 }, { 2, 3 } }, item.matrix);
+		assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList()), Arrays.asList(item.lists));
+	}
+
+	@Test
+	public void jsonBinderShouldBindUntypedValues() {
+		final Item item = bind("{\"extra\":{\"a\":[1,\"two\",false,null],\"b\":{\"c\":1.5}}}", Item.class);
+
+		final Map<?, ?> extra = (Map<?, ?>) item.extra;
+		assertEquals(Arrays.asList(new BigDecimal(1), "two", false, null), extra.get("a"));
+		assertEquals(new BigDecimal("1.5"), ((Map<?, ?>) extra.get("b")).get("c"));
+	}
+
+	@Test
+	public void jsonBinderShouldKeepDefaultsForMissingPropertiesAndNullPrimitives() {
+		final Item item = bind("{\"quantity\":null,\"name\":null}", Item.class);
+
+		assertEquals(42, item.quantity);
+		assertNull(item.name);
+		assertNull(item.status);
+		assertEquals("default", item.ignored);
+	}
+
+	@Test
+	public void jsonBinderShouldIgnoreUnknownStaticAndTransientProperties() {
+		final Item item = bind("{\"unknown\":{\"a\":[1,{\"b\":[]}]},\"ignored\":\"set\",\"CONSTANT\":\"set\",\"other\":[[{}]],\"name\":\"Apples\"}", Item.class);
+
+		assertEquals("Apples", item.name);
+		assertEquals("default", item.ignored);
+		assertEquals("constant", Item.CONSTANT);
+	}
+
+	@Test
+	public void jsonBinderShouldBindInheritedAndSelfReferencingFields() {
+		final SpecialItem item = bind("{\"name\":\"Apples\",\"discount\":10,\"parent\":{\"name\":\"Fruits\",\"parent\":{\"name\":\"Food\"}}}", SpecialItem.class);
+
+		final Item base = item;
+
+		assertEquals(10, item.discount);
+		assertEquals("Apples", base.name);
+		assertEquals("Fruits", base.parent.name);
+		assertEquals("Food", base.parent.parent.name);
+		assertNull(base.parent.parent.parent);
+	}
+
+	@Test
+	public void jsonBinderShouldBindLists() {
+		final List<Item> items = ApiTestJsonBinder.bindList(new StringReader("[{\"name\":\"a\"},null,{\"name\":\"b\"}]"), Item.class);
+
+		assertEquals(3, items.size());
+		assertEquals("a", items.get(0).name);
+		assertNull(items.get(1));
+		assertEquals("b", items.get(2).name);
+	}
+
+	@Test
+	public void jsonBinderShouldRejectUnknownEnumConstants() {
+		assertBindingError("{\"status\":\"LOST\"}", "Could not bind property status of " + Item.class.getName() + ": Cannot bind string \"LOST\" to " + Status.class.getName());
+	}
+
+	@Test
+	public void jsonBinderShouldRejectNumbersWhichDoNotFit() {
+		assertBindingError("{\"quantity\":3000000000}", "Could not bind property quantity of " + Item.class.getName() + ": Cannot bind number 3000000000 to int");
+		assertBindingError("{\"quantity\":1.5}", "Could not bind property quantity of " + Item.class.getName() + ": Cannot bind number 1.5 to int");
+	}
+
+	@Test
+	public void jsonBinderShouldRejectValuesOfTheWrongType() {
+		assertBindingError("{\"name\":1}", "Could not bind property name of " + Item.class.getName() + ": Cannot bind JSON number to java.lang.String");
+		assertBindingError("{\"ids\":{}}", "Could not bind property ids of " + Item.class.getName() + ": Cannot bind JSON object to long[]");
+		assertBindingError("{\"ids\":[1,null]}", "Could not bind property ids of " + Item.class.getName() + ": Cannot bind JSON null to long");
+		assertBindingError("{\"grade\":\"AB\"}", "Could not bind property grade of " + Item.class.getName() + ": Cannot bind string \"AB\" to java.lang.Character");
+	}
+
+	@Test
+	public void jsonBinderShouldOnlyRejectUnsupportedFieldsWhichArePresent() {
+		assertNull(bind("{\"name\":\"Apples\"}", Item.class).callback);
+
+		try {
+			bind("{\"callback\":{}}", Item.class);
+			fail("Expected an ApiTestException");
+		} catch (ApiTestException ate) {
+			assertEquals("Cannot bind JSON to java.lang.Runnable", ate.getMessage());
+		}
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void jsonBinderShouldRejectClassesWithoutDefaultConstructor() {
+		bind("{}", Immutable.class);
+	}
+
+	@Test(expected = JsonException.class)
+	public void jsonBinderShouldRejectEmptyDocuments() {
+		bind("", Item.class);
+	}
+
+	private static <T> T bind(String json, Class<T> type) {
+		return ApiTestJsonBinder.bind(new StringReader(json), type);
+	}
+
+	private static void assertBindingError(String json, String message) {
+		try {
+			bind(json, Item.class);
+			fail("Expected a JsonException");
+		} catch (JsonException je) {
+			assertEquals(message, je.getMessage());
+		}
+	}
+
+	private enum Status {
+		OPEN, PAID
+	}
+
+	@SuppressWarnings("unused")
+	private static class Item {
+		static String CONSTANT = "constant";
+
+		private String name;
+		private int quantity = 42;
+		private double price;
+		private boolean available;
+		private Character grade;
+		private Status status;
+		private Long size;
+		private String total;
+		private BigDecimal amount;
+		private long[] ids;
+		private Set<String> tags;
+		private SortedSet<String> sorted;
+		private List<Integer> counts;
+		private Map<String, Item> children;
+		private int[][] matrix;
+		private List<String>[] lists;
+		private Object extra;
+		private Item parent;
+		private Runnable callback;
+		private transient String ignored = "default";
+	}
+
+	private static class SpecialItem extends Item {
+		private int discount;
+	}
+
+	private static class Immutable {
+		private final String name;
+
+		Immutable(String name) {
+			this.name = name;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import javax.json.Json;
+import org.apache.http.HttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @see ApiTestRequestBody
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestRequestBodyUnitTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void byteArrayBodiesShouldBeRepeatableWithAContentLength() throws IOException {
+		final byte[] data = "hello world".getBytes(StandardCharsets.UTF_8);
+		final HttpEntity entity = new ApiTestRequestBody(data, "text/plain").toEntity();
+
+		assertTrue(entity.isRepeatable());
+		assertFalse(entity.isStreaming());
+		assertFalse(entity.isChunked());
+		assertEquals(data.length, entity.getContentLength());
+		assertEquals("text/plain; charset=UTF-8", entity.getContentType().getValue());
+		for (int i = 0; i < 2; i++) {
+			assertArrayEquals(data, write(entity));
+			try (InputStream in = entity.getContent()) {
+				assertArrayEquals(data, in.readAllBytes());
+			}
+		}
+	}
+
+	@Test
+	public void byteArrayBodiesShouldNotBeCopiedByTransports() throws IOException {
+		final byte[] data = "hello world".getBytes(StandardCharsets.UTF_8);
+		final HttpEntity entity = new ApiTestRequestBody(data, "text/plain").toEntity();
+
+		assertSame(data, ApiTestRequestBody.toByteArray(entity));
+		try (InputStream in = ApiTestRequestBody.toInputStream(entity)) {
+			assertArrayEquals(data, in.readAllBytes());
+		}
+	}
+
+	@Test
+	public void byteArrayBodiesShouldBeSharedByRequests() throws IOException {
+		final ApiTestRequestBody body = ApiTestRequestBody.fromJson("{\"name\":\"café\"}");
+		final ApiTestRequest first = new ApiTestRequest(ApiTestRequest.POST, new ApiUriBuilder("http://localhost/api").path("items"), body);
+		final ApiTestRequest second = new ApiTestRequest(ApiTestRequest.PUT, new ApiUriBuilder("http://localhost/api").path("items", "1"), body);
+
+		assertSame(first.getEntity(), second.getEntity());
+		assertArrayEquals(write(first.getEntity()), write(second.getEntity()));
+	}
+
+	@Test
+	public void jsonBodiesShouldBeEncodedWithUtf8() throws IOException {
+		final HttpEntity entity = ApiTestRequestBody.fromJson("{\"name\":\"café\"}").toEntity();
+
+		assertEquals("application/json; charset=UTF-8", entity.getContentType().getValue());
+		assertArrayEquals("{\"name\":\"café\"}".getBytes(StandardCharsets.UTF_8), write(entity));
+		assertTrue(entity.isRepeatable());
+	}
+
+	@Test
+	public void jsonStructureBodiesShouldBeRepeatableWithAContentLength() throws IOException {
+		final HttpEntity entity = ApiTestRequestBody.from(Json.createObjectBuilder().add("name", "café").build()).toEntity();
+		final byte[] expected = "{\"name\":\"café\"}".getBytes(StandardCharsets.UTF_8);
+
+		assertTrue(entity.isRepeatable());
+		assertEquals(expected.length, entity.getContentLength());
+		assertArrayEquals(expected, write(entity));
+		assertArrayEquals(expected, write(entity));
+	}
+
+	@Test
+	public void compressedByteArrayBodiesShouldBeRepeatableWithAContentLength() throws IOException {
+		final ApiTestRequestBody body = ApiTestRequestBody.fromJson("{\"name\":\"café\"}").gzip();
+		final HttpEntity entity = body.toEntity();
+
+		assertTrue(entity.isRepeatable());
+		assertEquals("gzip", entity.getContentEncoding().getValue());
+		assertEquals("application/json; charset=UTF-8", entity.getContentType().getValue());
+
+		final byte[] compressed = write(entity);
+		assertEquals(compressed.length, entity.getContentLength());
+		assertArrayEquals(compressed, write(entity));
+		assertEquals("{\"name\":\"café\"}", gunzip(compressed));
+		assertSame(body, body.gzip());
+	}
+
+	@Test
+	public void compressedStreamingBodiesShouldBeValidGzipEachTimeTheyAreWritten() throws IOException {
+		final HttpEntity entity = ApiTestRequestBody.stream(generator -> generator.writeStartArray().write(1).write("two").writeEnd()).gzip().toEntity();
+
+		assertEquals("gzip", entity.getContentEncoding().getValue());
+		for (int i = 0; i < 2; i++) {
+			assertEquals("[1,\"two\"]", gunzip(write(entity)));
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void streamingBodiesShouldNotBeGeneratedInMemory() throws IOException {
+		ApiTestRequestBody.stream(generator -> generator.writeStartArray().writeEnd()).toEntity().getContent();
+	}
+
+	@Test
+	public void streamingBodiesShouldBeProducedAsynchronouslyFromTheirWriter() throws Exception {
+		final HttpEntity entity = ApiTestRequestBody.stream(generator -> {
+			generator.writeStartArray();
+			for (int i = 0; i < 100000; i++) {
+				generator.write(i);
+			}
+			generator.writeEnd();
+		}).toEntity();
+
+		final HttpAsyncContentProducer producer = ApiTestRequestBody.createAsyncProducer(entity);
+		final CollectingEncoder encoder = new CollectingEncoder();
+		final IOControl ioctrl = mock(IOControl.class);
+
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (!encoder.isCompleted() && System.currentTimeMillis() < deadline) {
+			producer.produceContent(encoder, ioctrl);
+			Thread.sleep(1);
+		}
+		producer.close();
+
+		assertTrue(encoder.isCompleted());
+		assertArrayEquals(write(entity), encoder.out.toByteArray());
+	}
+
+	@Test
+	public void fileBodiesShouldBeReadEachTimeTheyAreWritten() throws IOException {
+		final Path file = temporaryFolder.newFile("body.json").toPath();
+		Files.write(file, "{\"name\":\"café\"}".getBytes(StandardCharsets.UTF_8));
+
+		final HttpEntity entity = ApiTestRequestBody.from(file, ApiTestRequestBody.APPLICATION_JSON).toEntity();
+
+		assertTrue(entity.isRepeatable());
+		assertEquals(Files.size(file), entity.getContentLength());
+		assertEquals("application/json", entity.getContentType().getValue());
+		for (int i = 0; i < 2; i++) {
+			assertArrayEquals(Files.readAllBytes(file), write(entity));
+		}
+		assertSame(file, ApiTestRequestBody.getFile(entity));
+	}
+
+	@Test
+	public void compressedFileBodiesShouldBeStreamed() throws IOException {
+		final Path file = temporaryFolder.newFile("body.txt").toPath();
+		Files.write(file, "hello".getBytes(StandardCharsets.UTF_8));
+
+		final HttpEntity entity = ApiTestRequestBody.from(file, "text/plain").gzip().toEntity();
+
+		assertEquals("gzip", entity.getContentEncoding().getValue());
+		assertEquals(-1, entity.getContentLength());
+		assertEquals("hello", gunzip(write(entity)));
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void fileBodiesShouldRequireAnExistingFile() {
+		ApiTestRequestBody.from(temporaryFolder.getRoot().toPath().resolve("missing.json"), ApiTestRequestBody.APPLICATION_JSON);
+	}
+
+	@Test
+	public void multipartBodiesOfKnownLengthShouldBeRepeatable() throws IOException {
+		final Path file = temporaryFolder.newFile("part.txt").toPath();
+		Files.write(file, "file part".getBytes(StandardCharsets.UTF_8));
+		final byte[] supplied = "supplied part".getBytes(StandardCharsets.UTF_8);
+
+		final HttpEntity entity = ApiTestRequestBody.from(new ApiTestMultipartFormData()
+			.addData("file", file, "text/plain")
+			.addData("supplied", () -> new ByteArrayInputStream(supplied), supplied.length, "text/plain", "supplied.txt")
+			.addData("text", "value")).toEntity();
+
+		assertTrue(entity.isRepeatable());
+		final byte[] first = write(entity);
+		assertEquals(entity.getContentLength(), first.length);
+		assertArrayEquals(first, write(entity));
+
+		final String content = new String(first, StandardCharsets.UTF_8);
+		assertTrue(content, content.contains("file part"));
+		assertTrue(content, content.contains("filename=\"supplied.txt\""));
+		assertTrue(content, content.contains("supplied part"));
+	}
+
+	@Test
+	public void multipartBodiesOfUnknownLengthShouldBeChunked() throws IOException {
+		final HttpEntity entity = ApiTestRequestBody.from(new ApiTestMultipartFormData()
+			.addData("supplied", () -> new ByteArrayInputStream(new byte[] { 1, 2, 3 }), -1, "application/octet-stream", null)).toEntity();
+
+		assertEquals(-1, entity.getContentLength());
+		assertFalse(entity.isRepeatable());
+		assertTrue(entity.isChunked());
+	}
+
+	@Test
+	public void multipartSuppliersShouldBeOpenedEachTimeTheBodyIsWrittenAndClosed() throws IOException {
+		final AtomicInteger opened = new AtomicInteger();
+		final AtomicInteger closed = new AtomicInteger();
+		final HttpEntity entity = ApiTestRequestBody.from(new ApiTestMultipartFormData().addData("supplied", () -> {
+			opened.incrementAndGet();
+			return new ByteArrayInputStream(new byte[] { 1, 2, 3 }) {
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+			};
+		}, 3, "application/octet-stream", null)).toEntity();
+
+		write(entity);
+		write(entity);
+
+		assertEquals(2, opened.get());
+		assertEquals(2, closed.get());
+	}
+
+	@Test
+	public void multipartSuppliersShouldFailIfTheirLengthIsWrong() {
+		final HttpEntity entity = ApiTestRequestBody.from(new ApiTestMultipartFormData()
+			.addData("supplied", () -> new ByteArrayInputStream(new byte[] { 1, 2, 3 }), 4, "application/octet-stream", null)).toEntity();
+
+		try {
+			write(entity);
+			fail("Expected an IOException");
+		} catch (IOException ioe) {
+			assertEquals("Multipart content supplier returned 3 bytes instead of 4", ioe.getMessage());
+		}
+	}
+
+	static byte[] write(HttpEntity entity) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		return out.toByteArray();
+	}
+
+	private static String gunzip(byte[] bytes) throws IOException {
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Encoder accepting at most 1000 bytes per write, like a busy connection.
+	 */
+	private static class CollectingEncoder implements ContentEncoder {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private boolean completed;
+
+		@Override
+		public int write(ByteBuffer src) {
+			final int n = Math.min(src.remaining(), 1000);
+			final byte[] bytes = new byte[n];
+			src.get(bytes);
+			out.write(bytes, 0, n);
+			return n;
+		}
+
+		@Override
+		public void complete() {
+			completed = true;
+		}
+
+		@Override
+		public boolean isCompleted() {
+			return completed;
+		}
+	}
+}
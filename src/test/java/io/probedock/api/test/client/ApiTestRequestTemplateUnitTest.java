@@ -0,0 +1,139 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.json.Json;
+import org.junit.Test;
+
+/**
+ * @see ApiTestRequestTemplate
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestRequestTemplateUnitTest {
+
+	@Test
+	public void requestTemplatesShouldExpandPathAndQueryVariables() {
+		final ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.GET, "http://localhost/api/", "users/{userId}/items")
+			.queryParam("q", "{query}")
+			.queryParam("fixed", "a b")
+			.build();
+
+		assertEquals(Arrays.asList("userId", "query"), template.getVariables());
+		assertEquals("http://localhost/api/users/42/items?q=caf%C3%A9%20%26%20co&fixed=a%20b", template.request(42, "café & co").getUri().toString());
+	}
+
+	@Test
+	public void requestTemplatesShouldEncodeLiteralPathCharacters() {
+		final ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.GET, "http://localhost/api", "/my items/{id}/ça%20va").build();
+
+		assertEquals("http://localhost/api/my%20items/1/%C3%A7a%20va", template.request(1).getUri().toString());
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void requestTemplatesShouldRejectInvalidBaseUris() {
+		ApiTestRequestTemplate.builder(ApiTestRequest.GET, "http://local host/api", "/users").build();
+	}
+
+	@Test
+	public void requestTemplatesShouldWriteVariablesInsideJsonStringsAsEscapedText() throws IOException {
+		final ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/users")
+			.jsonBody("{ \"greeting\": \"Hello {name}!\", \"quote\": \"\\\"{name}\\\"\" }")
+			.build();
+
+		final String body = body(template.request("\"Bob\"\n"));
+
+		assertEquals("{ \"greeting\": \"Hello \\\"Bob\\\"\\n!\", \"quote\": \"\\\"\\\"Bob\\\"\\n\\\"\" }", body);
+		assertEquals("Hello \"Bob\"\n!", Json.createReader(new StringReader(body)).readObject().getString("greeting"));
+	}
+
+	@Test
+	public void requestTemplatesShouldWriteVariablesOutsideJsonStringsAsJsonValues() throws IOException {
+		final ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/items")
+			.jsonBody("{\"quantity\":{quantity},\"active\":{active},\"name\":{name},\"tags\":{tags},\"parent\":{parent}}")
+			.build();
+
+		final String body = body(template.request(3, true, "Apples", Json.createArrayBuilder().add("a").build(), null));
+
+		assertEquals("{\"quantity\":3,\"active\":true,\"name\":\"Apples\",\"tags\":[\"a\"],\"parent\":null}", body);
+	}
+
+	@Test
+	public void requestTemplatesShouldNotTreatEscapedQuotesAsTheEndOfJsonStrings() throws IOException {
+		final ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/items")
+			.jsonBody("{\"a\":\"\\\\\",\"b\":{value}}")
+			.build();
+
+		assertEquals("{\"a\":\"\\\\\",\"b\":1.5}", body(template.request(1.5)));
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void requestTemplatesShouldRejectInvalidJsonSkeletons() {
+		ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/items").jsonBody("{\"name\":{name}").build();
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void requestTemplatesShouldRejectNumbersWhichAreNotJson() {
+		ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/items").jsonBody("{\"ratio\":{ratio}}").build().request(Double.NaN);
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void requestTemplatesShouldRejectNullValuesInJsonStrings() {
+		ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/items").jsonBody("{\"name\":\"{name}\"}").build().request((Object) null);
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void requestTemplatesShouldRejectNullValuesInUris() {
+		ApiTestRequestTemplate.builder(ApiTestRequest.GET, "http://localhost/api", "/items/{id}").build().request((Object) null);
+	}
+
+	@Test
+	public void requestTemplatesShouldRejectUnboundVariables() {
+		final ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.POST, "http://localhost/api", "/items/{id}")
+			.jsonBody("{\"name\":{name}}")
+			.build();
+
+		try {
+			template.bind().set("id", 1).toRequest();
+			fail("Expected an ApiTestException");
+		} catch (ApiTestException ate) {
+			assertEquals("Request template variable name is not bound", ate.getMessage());
+		}
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void requestTemplatesShouldRejectUnknownVariables() {
+		ApiTestRequestTemplate.builder(ApiTestRequest.GET, "http://localhost/api", "/items/{id}").build().bind().set("name", 1);
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void requestTemplatesShouldRejectBodiesOfGetRequests() {
+		ApiTestRequestTemplate.builder(ApiTestRequest.GET, "http://localhost/api", "/items").jsonBody("{}").build();
+	}
+
+	@Test
+	public void requestTemplatesShouldRouteRequestsByPathLikeUriBuilders() {
+		final List<String> routingKeys = new ArrayList<>();
+		final ApiEntryPointBalancer balancer = new ApiEntryPointBalancer(ApiEntryPoint.of("http://first/api", "http://second/api/"), (entryPoints, routingKey) -> {
+			routingKeys.add(routingKey);
+			return entryPoints.get(routingKeys.size() % 2);
+		});
+
+		final ApiTestRequestTemplate template = ApiTestRequestTemplate.builder(ApiTestRequest.GET, balancer, "/users/{userId}")
+			.queryParam("q", "{query}")
+			.build();
+
+		assertEquals("http://second/api/users/42?q=a", template.request(42, "a").getUri().toString());
+		assertEquals("http://first/api/users/42?q=a", new ApiTestRequest(ApiTestRequest.GET, new ApiUriBuilder(balancer).path("users", "42").queryParam("q", "a")).getUri().toString());
+		assertEquals(Arrays.asList("/users/42", "/users/42"), routingKeys);
+	}
+
+	private static String body(ApiTestRequest request) throws IOException {
+		return new String(ApiTestRequestBodyUnitTest.write(request.getEntity()), StandardCharsets.UTF_8);
+	}
+}
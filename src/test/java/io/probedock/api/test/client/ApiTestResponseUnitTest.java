@@ -0,0 +1,156 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+/**
+ * @see ApiTestResponse
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestResponseUnitTest {
+	private static final String BODY = "{\"name\":\"café\"}";
+
+	@Test
+	public void apiTestResponsesShouldDecodeGzipBodiesAndRemoveTheirEncodingHeaders() throws IOException {
+		final byte[] compressed = gzip(BODY.getBytes(StandardCharsets.UTF_8));
+		final ApiTestResponse response = new ApiTestResponse(200, headers(
+			new BasicHeader("Content-Type", "application/json"),
+			new BasicHeader("Content-Encoding", "gzip"),
+			new BasicHeader("Content-Length", String.valueOf(compressed.length))
+		), new ByteArrayInputStream(compressed));
+
+		assertEquals(BODY, response.getResponseAsString());
+		assertEquals(compressed.length, response.getCompressedLength());
+		assertEquals(BODY.getBytes(StandardCharsets.UTF_8).length, response.getUncompressedLength());
+		assertNull(response.getHeaderString("Content-Encoding"));
+		assertNull(response.getHeaderString("Content-Length"));
+		assertEquals("application/json", response.getHeaderString("Content-Type"));
+	}
+
+	@Test
+	public void apiTestResponsesShouldKeepTheHeadersOfUnsupportedEncodings() throws IOException {
+		final ApiTestResponse response = new ApiTestResponse(200, headers(
+			new BasicHeader("Content-Encoding", "br"),
+			new BasicHeader("Content-Length", "3")
+		), new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+
+		assertEquals("br", response.getHeaderString("Content-Encoding"));
+		assertEquals("3", response.getHeaderString("Content-Length"));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, response.getResponseAsBytes());
+	}
+
+	@Test
+	public void apiTestResponsesShouldNotTrustTheContentLengthToAllocateTheirBody() throws IOException {
+		final ApiTestResponse response = new ApiTestResponse(200, headers(new BasicHeader("Content-Length", String.valueOf(Integer.MAX_VALUE - 8))), new ByteArrayInputStream(new byte[0]));
+
+		assertEquals(0, response.getResponseAsBytes().length);
+		assertFalse(response.isSpilled());
+	}
+
+	@Test
+	public void apiTestResponsesShouldReadBodiesLongerThanTheirContentLength() throws IOException {
+		final byte[] body = bytes(100000);
+		final ApiTestResponse response = new ApiTestResponse(200, headers(new BasicHeader("Content-Length", "10")), new ByteArrayInputStream(body));
+
+		assertArrayEquals(body, response.getResponseAsBytes());
+		assertEquals(body.length, response.getUncompressedLength());
+	}
+
+	@Test
+	public void apiTestResponsesShouldReadBodiesShorterThanTheirContentLength() throws IOException {
+		final byte[] body = bytes(100000);
+		final ApiTestResponse response = new ApiTestResponse(200, headers(new BasicHeader("Content-Length", "200000")), new ByteArrayInputStream(body));
+
+		assertArrayEquals(body, response.getResponseAsBytes());
+	}
+
+	@Test
+	public void apiTestResponsesShouldReadBodiesOfTheirContentLength() throws IOException {
+		final byte[] body = bytes(100000);
+		final ApiTestResponse response = new ApiTestResponse(200, headers(new BasicHeader("Content-Length", "100000")), new ByteArrayInputStream(body));
+
+		assertArrayEquals(body, response.getResponseAsBytes());
+	}
+
+	@Test
+	public void apiTestResponsesShouldKeepBodiesBelowTheSpillThresholdInMemory() throws IOException {
+		final byte[] body = bytes(100);
+		final ApiTestResponse response = new ApiTestResponse(200, headers(), new ByteArrayInputStream(body), 100);
+
+		assertFalse(response.isSpilled());
+		assertArrayEquals(body, response.getResponseAsBytes());
+	}
+
+	@Test
+	public void apiTestResponsesShouldSpillBodiesOfUnknownLengthAboveTheThreshold() throws IOException {
+		final byte[] body = bytes(1000);
+		final ApiTestResponse response = new ApiTestResponse(200, headers(), new ByteArrayInputStream(body), 100);
+
+		try {
+			assertTrue(response.isSpilled());
+			assertArrayEquals(body, response.getResponseAsBytes());
+			assertEquals(body.length, response.getUncompressedLength());
+		} finally {
+			response.release();
+		}
+	}
+
+	@Test
+	public void apiTestResponsesShouldSpillBodiesWhoseContentLengthIsAboveTheThreshold() throws IOException {
+		final byte[] body = bytes(50);
+		final ApiTestResponse response = new ApiTestResponse(200, headers(new BasicHeader("Content-Length", "1000")), new ByteArrayInputStream(body), 100);
+
+		try {
+			assertTrue(response.isSpilled());
+			assertArrayEquals(body, response.getResponseAsBytes());
+		} finally {
+			response.release();
+		}
+	}
+
+	@Test
+	public void apiTestResponsesShouldReadWholeBodiesWhoseContentLengthIsBelowTheThreshold() throws IOException {
+		final byte[] body = bytes(1000);
+		final ApiTestResponse response = new ApiTestResponse(200, headers(new BasicHeader("Content-Length", "50")), new ByteArrayInputStream(body), 100);
+
+		assertFalse(response.isSpilled());
+		assertArrayEquals(body, response.getResponseAsBytes());
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void releasedSpilledResponsesShouldNoLongerBeReadable() throws IOException {
+		final ApiTestResponse response = new ApiTestResponse(200, headers(), new ByteArrayInputStream(bytes(1000)), 100);
+		response.release();
+		response.getResponseAsBytes();
+	}
+
+	private static byte[] bytes(int length) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+
+		return bytes;
+	}
+
+	private static Header[] headers(Header... headers) {
+		return headers;
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(bytes);
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,64 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import org.apache.http.client.utils.URIBuilder;
+import org.junit.Test;
+
+/**
+ * @see ApiUriBuilder
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiUriBuilderUnitTest {
+	private static final String[] VALUES = { "plain", "a b", "a+b", "a&b=c", "/path?#", "100%", "café", "😀", "-_.*", "!~'()", "\"<>\\^`{|}" };
+
+	@Test
+	public void apiUriBuildersShouldFormEncodeQueryParametersLikeApacheUriBuilders() throws URISyntaxException {
+		for (String value : VALUES) {
+			final URI uri = new ApiUriBuilder("http://localhost/api/").path("/users/").queryParam(value, value).build();
+			final URI expected = new URIBuilder("http://localhost/api/users").addParameter(value, value).build();
+
+			assertEquals(expected.toString(), uri.toString());
+		}
+	}
+
+	@Test
+	public void apiUriBuildersShouldEncodeSpacesAndSurrogatePairs() {
+		final URI uri = new ApiUriBuilder("http://localhost/api").queryParam("q", "hello world 😀").build();
+		assertEquals("http://localhost/api?q=hello+world+%F0%9F%98%80", uri.toString());
+	}
+
+	@Test
+	public void apiUriBuildersShouldAppendParametersToTheQueryOfTheBaseUri() throws URISyntaxException {
+		final URI uri = new ApiUriBuilder("http://localhost/api?key=1").queryParam("q", "a b").build();
+
+		assertEquals("http://localhost/api?key=1&q=a+b", uri.toString());
+		assertEquals(new URIBuilder("http://localhost/api?key=1").addParameter("q", "a b").build(), uri);
+	}
+
+	@Test
+	public void apiUriBuildersShouldKeepQueryPartsInTheOrderInWhichTheyWereAdded() {
+		final ApiUriTemplate template = ApiUriTemplate.compile("/orders{?page,size}");
+		final URI uri = new ApiUriBuilder("http://localhost/api")
+			.path("users", "42")
+			.queryParam("sort", "date")
+			.expand(template, 1, 20)
+			.queryParam("filter", "open", "paid")
+			.queryParam("sort", "total")
+			.build();
+
+		assertEquals("http://localhost/api/users/42/orders?sort=date&sort=total&page=1&size=20&filter=open&filter=paid", uri.toString());
+	}
+
+	@Test
+	public void apiUriBuildersShouldNotDuplicateSlashes() {
+		assertEquals("http://localhost/api/users/42", new ApiUriBuilder("http://localhost/api/").path("/users/", "/42").build().toString());
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void apiUriBuildersShouldRejectInvalidUris() {
+		new ApiUriBuilder("http://localhost/api").path("my items").build();
+	}
+}
@@ -0,0 +1,90 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * @see ApiUriTemplate
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiUriTemplateUnitTest {
+	private static final Map<String, Object> VARIABLES = new HashMap<>();
+
+	static {
+		VARIABLES.put("var", "value");
+		VARIABLES.put("hello", "Hello World!");
+		VARIABLES.put("path", "/foo/bar");
+		VARIABLES.put("x", 1024);
+		VARIABLES.put("y", 768);
+		VARIABLES.put("empty", "");
+		VARIABLES.put("list", Arrays.asList("red", "green", "blue"));
+	}
+
+	@Test
+	public void apiUriTemplatesShouldExpandSimpleAndReservedExpressions() {
+		assertExpansion("value", "{var}");
+		assertExpansion("Hello%20World%21", "{hello}");
+		assertExpansion("value", "{+var}");
+		assertExpansion("Hello%20World!", "{+hello}");
+		assertExpansion("/foo/bar/here", "{+path}/here");
+		assertExpansion("here?ref=/foo/bar", "here?ref={+path}");
+		assertExpansion("X#value", "X{#var}");
+		assertExpansion("X#Hello%20World!", "X{#hello}");
+	}
+
+	@Test
+	public void apiUriTemplatesShouldExpandLevel3Expressions() {
+		assertExpansion("map?1024,768", "map?{x,y}");
+		assertExpansion("1024,Hello%20World%21,768", "{x,hello,y}");
+		assertExpansion("1024,Hello%20World!,768", "{+x,hello,y}");
+		assertExpansion("/foo/bar,1024/here", "{+path,x}/here");
+		assertExpansion("#1024,Hello%20World!,768", "{#x,hello,y}");
+		assertExpansion("X.value", "X{.var}");
+		assertExpansion("X.1024.768", "X{.x,y}");
+		assertExpansion("/value/1024/here", "{/var,x}/here");
+		assertExpansion(";x=1024;y=768;empty", "{;x,y,empty}");
+		assertExpansion("?x=1024&y=768&empty=", "{?x,y,empty}");
+		assertExpansion("?fixed=yes&x=1024", "?fixed=yes{&x}");
+		assertExpansion("?x=1024", "{?x,undef}");
+		assertExpansion("", "{?undef}");
+		assertExpansion("/colors/red,green,blue", "/colors/{list}");
+	}
+
+	@Test
+	public void apiUriTemplatesShouldEncodeValuesAsUtf8() {
+		final ApiUriTemplate template = ApiUriTemplate.compile("/users/{name}{?q}");
+
+		assertEquals(Arrays.asList("name", "q"), template.getVariables());
+		assertEquals("/users/caf%C3%A9%2F1?q=%F0%9F%98%80%20%25", template.expand("caf\u00e9/1", "\ud83d\ude00 %"));
+		assertEquals("/users/a?q=%2541", ApiUriTemplate.compile("/users/{name}{?q}").expand("a", "%41"));
+		assertEquals("/users/%41", ApiUriTemplate.compile("/users/{+name}").expand("%41"));
+	}
+
+	@Test
+	public void apiUriTemplatesShouldBeCached() {
+		assertSame(ApiUriTemplate.compile("/users/{id}"), ApiUriTemplate.compile("/users/{id}"));
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void apiUriTemplatesShouldRejectUnclosedExpressions() {
+		ApiUriTemplate.compile("/users/{id");
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void apiUriTemplatesShouldRejectModifiers() {
+		ApiUriTemplate.compile("/users/{id*}");
+	}
+
+	@Test(expected = ApiTestException.class)
+	public void apiUriTemplatesShouldRejectMissingValues() {
+		ApiUriTemplate.compile("/users/{id}/{child}").expand(1);
+	}
+
+	private static void assertExpansion(String expected, String template) {
+		assertEquals(template, expected, ApiUriTemplate.compile(template).expand(VARIABLES));
+	}
+}
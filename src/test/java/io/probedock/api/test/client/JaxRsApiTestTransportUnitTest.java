@@ -0,0 +1,175 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @see JaxRsApiTestTransport
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class JaxRsApiTestTransportUnitTest {
+	private static final URI BASE_URI = URI.create("http://localhost/api/");
+
+	private static CountDownLatch started;
+	private static CountDownLatch interrupted;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private JaxRsApiTestTransport transport;
+
+	@Before
+	public void setUp() {
+		started = new CountDownLatch(1);
+		interrupted = new CountDownLatch(1);
+		transport = new JaxRsApiTestTransport(new ResourceConfig(TestResource.class), BASE_URI);
+	}
+
+	@After
+	public void tearDown() {
+		transport.close();
+	}
+
+	@Test
+	public void jaxRsTransportsShouldInvokeResourcesInProcess() {
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.GET, "thread", null));
+
+		assertEquals(200, response.getStatus());
+		assertEquals(Thread.currentThread().getName(), response.getResponseAsString());
+	}
+
+	@Test
+	public void jaxRsTransportsShouldSendRequestBodies() {
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.POST, "echo", ApiTestRequestBody.fromJson("{\"name\":\"café\"}")));
+
+		assertEquals(200, response.getStatus());
+		assertEquals("{\"name\":\"café\"}", response.getResponseAsString());
+	}
+
+	@Test
+	public void jaxRsTransportsShouldStreamFileBodies() throws IOException {
+		final ApiTestRequestBody body = ApiTestRequestBody.from(file("body.json", "{\"name\":\"file\"}"), ApiTestRequestBody.APPLICATION_JSON);
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.POST, "echo", body));
+
+		assertEquals(200, response.getStatus());
+		assertEquals("{\"name\":\"file\"}", response.getResponseAsString());
+	}
+
+	@Test
+	public void jaxRsTransportsShouldSendFileBodiesToResourcesIgnoringThem() throws IOException {
+		final ApiTestRequestBody body = ApiTestRequestBody.from(file("body.txt", "ignored"), "text/plain");
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.POST, "ignore", body));
+
+		assertEquals(204, response.getStatus());
+	}
+
+	@Test
+	public void jaxRsTransportsShouldExecuteAsynchronousRequestsOnTheirOwnThreads() throws Exception {
+		final ApiTestResponse response = transport.executeAsync(request(ApiTestRequest.GET, "thread", null)).get(5, TimeUnit.SECONDS);
+		assertTrue(response.getResponseAsString(), response.getResponseAsString().startsWith("api-test-jaxrs-transport-"));
+	}
+
+	@Test
+	public void jaxRsTransportsShouldInterruptCancelledAsynchronousRequests() throws Exception {
+		final CompletableFuture<ApiTestResponse> future = transport.executeAsync(request(ApiTestRequest.GET, "block", null));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		future.cancel(true);
+
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		try {
+			future.get();
+			fail("Expected a CancellationException");
+		} catch (CancellationException ce) {
+			// expected
+		}
+	}
+
+	@Test
+	public void closedJaxRsTransportsShouldRejectAsynchronousRequests() throws InterruptedException {
+		transport.close();
+
+		try {
+			transport.executeAsync(request(ApiTestRequest.GET, "thread", null)).get();
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof ApiTestException);
+		}
+	}
+
+	@Test
+	public void closingAJaxRsSessionShouldNotStopItsTransport() throws Exception {
+		transport.newSession().close();
+
+		final ApiTestResponse response = transport.executeAsync(request(ApiTestRequest.GET, "thread", null)).get(5, TimeUnit.SECONDS);
+		assertEquals(200, response.getStatus());
+	}
+
+	private java.nio.file.Path file(String name, String content) throws IOException {
+		final java.nio.file.Path file = temporaryFolder.newFile(name).toPath();
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static ApiTestRequest request(String method, String path, ApiTestRequestBody body) {
+		return new ApiTestRequest(method, BASE_URI.resolve(path), body);
+	}
+
+	@Path("/")
+	public static class TestResource {
+
+		@GET
+		@Path("thread")
+		@Produces("text/plain")
+		public String thread() {
+			return Thread.currentThread().getName();
+		}
+
+		@POST
+		@Path("echo")
+		@Consumes("application/json")
+		@Produces("application/json")
+		public String echo(String body) {
+			return body;
+		}
+
+		@POST
+		@Path("ignore")
+		public void ignore() {
+		}
+
+		@GET
+		@Path("block")
+		@Produces("text/plain")
+		public String block() {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+			} catch (InterruptedException ie) {
+				interrupted.countDown();
+			}
+
+			return "done";
+		}
+	}
+}
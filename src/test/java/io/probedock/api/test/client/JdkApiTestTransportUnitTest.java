@@ -0,0 +1,306 @@
+package io.probedock.api.test.client;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @see JdkApiTestTransport
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class JdkApiTestTransportUnitTest {
+	private static final String LARGE_BODY = String.join("", Collections.nCopies(1000, "a"));
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private URI baseUri;
+	private CountDownLatch started;
+	private CountDownLatch released;
+	private JdkApiTestTransport transport;
+
+	@Before
+	public void setUp() throws IOException {
+		started = new CountDownLatch(1);
+		released = new CountDownLatch(1);
+
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/api/", this::handle);
+		server.setExecutor(serverExecutor);
+		server.start();
+
+		baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/api/");
+		transport = new JdkApiTestTransport(new TestConfiguration(-1));
+	}
+
+	@After
+	public void tearDown() {
+		transport.close();
+		released.countDown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public void jdkTransportsShouldSendRequestHeaders() {
+		final ApiTestRequest request = request(ApiTestRequest.GET, "headers?name=X-Test", null);
+		request.addHeader("X-Test", "first");
+		request.addHeader("X-Test", "second");
+
+		final ApiTestResponse response = transport.execute(request);
+
+		assertEquals(200, response.getStatus());
+		assertEquals("first,second", response.getResponseAsString());
+	}
+
+	@Test
+	public void jdkTransportsShouldIgnoreHeadersSetByTheJdkClient() {
+		final ApiTestRequest request = request(ApiTestRequest.GET, "headers?name=Host", null);
+		request.setHeader("Host", "example.com");
+		request.setHeader("Connection", "close");
+
+		final ApiTestResponse response = transport.execute(request);
+
+		assertEquals(200, response.getStatus());
+		assertEquals(baseUri.getAuthority(), response.getResponseAsString());
+	}
+
+	@Test
+	public void jdkTransportsShouldRejectInvalidHeaders() throws InterruptedException {
+		final ApiTestRequest request = request(ApiTestRequest.GET, "headers?name=X-Test", null);
+		request.setHeader("X-Test", "first\nsecond");
+
+		try {
+			transport.execute(request);
+			fail("Expected an ApiTestException");
+		} catch (ApiTestException ate) {
+			assertTrue(ate.getMessage(), ate.getMessage().startsWith("Header X-Test of request "));
+			assertTrue(ate.getCause() instanceof IllegalArgumentException);
+		}
+
+		try {
+			transport.executeAsync(request).get();
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof ApiTestException);
+		}
+	}
+
+	@Test
+	public void jdkTransportsShouldKeepCookiesPerSession() {
+		final IApiTestTransport session = transport.newSession();
+		try {
+			assertEquals(204, transport.execute(request(ApiTestRequest.POST, "login?session=first", null)).getStatus());
+			assertEquals(204, session.execute(request(ApiTestRequest.POST, "login?session=second", null)).getStatus());
+
+			assertEquals("session=first", transport.execute(request(ApiTestRequest.GET, "headers?name=Cookie", null)).getResponseAsString());
+			assertEquals("session=second", session.execute(request(ApiTestRequest.GET, "headers?name=Cookie", null)).getResponseAsString());
+		} finally {
+			session.close();
+		}
+
+		assertEquals("session=first", transport.execute(request(ApiTestRequest.GET, "headers?name=Cookie", null)).getResponseAsString());
+	}
+
+	@Test
+	public void jdkTransportsShouldSendTheContentTypeOfEntities() {
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.POST, "echo", ApiTestRequestBody.fromJson("{\"name\":\"café\"}")));
+
+		assertEquals(200, response.getStatus());
+		assertEquals("application/json; charset=UTF-8", response.getHeaderString("Content-Type"));
+		assertEquals("{\"name\":\"café\"}", response.getResponseAsString());
+	}
+
+	@Test
+	public void jdkTransportsShouldPreferTheContentTypeOfRequests() {
+		final ApiTestRequest request = request(ApiTestRequest.POST, "echo", ApiTestRequestBody.fromJson("{}"));
+		request.setHeader("Content-Type", "application/vnd.test+json");
+
+		final ApiTestResponse response = transport.execute(request);
+
+		assertEquals("application/vnd.test+json", response.getHeaderString("Content-Type"));
+	}
+
+	@Test
+	public void jdkTransportsShouldSendFileBodies() throws IOException {
+		final Path file = temporaryFolder.newFile("body.json").toPath();
+		Files.write(file, "{\"name\":\"file\"}".getBytes(StandardCharsets.UTF_8));
+
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.POST, "echo", ApiTestRequestBody.from(file, ApiTestRequestBody.APPLICATION_JSON)));
+
+		assertEquals(200, response.getStatus());
+		assertEquals(ApiTestRequestBody.APPLICATION_JSON, response.getHeaderString("Content-Type"));
+		assertEquals("{\"name\":\"file\"}", response.getResponseAsString());
+	}
+
+	@Test
+	public void jdkTransportsShouldFollowRedirects() {
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.GET, "redirect", null));
+
+		assertEquals(200, response.getStatus());
+		assertEquals(LARGE_BODY, response.getResponseAsString());
+	}
+
+	@Test
+	public void jdkTransportsShouldSpillLargeResponseBodies() {
+		transport.close();
+		transport = new JdkApiTestTransport(new TestConfiguration(100));
+
+		final ApiTestResponse small = transport.execute(request(ApiTestRequest.GET, "headers?name=X-Test", null));
+		assertFalse(small.isSpilled());
+
+		final ApiTestResponse large = transport.execute(request(ApiTestRequest.GET, "large", null));
+		try {
+			assertTrue(large.isSpilled());
+			assertEquals(LARGE_BODY, large.getResponseAsString());
+		} finally {
+			large.release();
+		}
+	}
+
+	@Test
+	public void jdkTransportsShouldKeepResponseBodiesInMemoryByDefault() {
+		final ApiTestResponse response = transport.execute(request(ApiTestRequest.GET, "large", null));
+
+		assertFalse(response.isSpilled());
+		assertEquals(LARGE_BODY, response.getResponseAsString());
+	}
+
+	@Test
+	public void jdkTransportsShouldAbortBlockingRequests() throws Exception {
+		final ApiTestRequest request = request(ApiTestRequest.GET, "block", null);
+		final CompletableFuture<ApiTestResponse> result = CompletableFuture.supplyAsync(() -> transport.execute(request));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		request.abort();
+
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof ApiTestException);
+			assertEquals("Request " + request + " was aborted", ee.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void jdkTransportsShouldCancelAsynchronousRequests() throws Exception {
+		final CompletableFuture<ApiTestResponse> future = transport.executeAsync(request(ApiTestRequest.GET, "block", null));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		assertTrue(future.cancel(true));
+		assertTrue(future.isCancelled());
+	}
+
+	private ApiTestRequest request(String method, String path, ApiTestRequestBody body) {
+		return new ApiTestRequest(method, baseUri.resolve(path), body);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath().substring("/api/".length());
+		final String query = exchange.getRequestURI().getQuery();
+		final String parameter = query != null ? query.substring(query.indexOf('=') + 1) : null;
+
+		try (InputStream in = exchange.getRequestBody()) {
+			final byte[] requestBody = in.readAllBytes();
+			switch (path) {
+				case "headers":
+					respond(exchange, 200, String.join(",", exchange.getRequestHeaders().getOrDefault(parameter, Collections.emptyList())));
+					break;
+				case "echo":
+					exchange.getResponseHeaders().put("Content-Type", exchange.getRequestHeaders().get("Content-Type"));
+					respond(exchange, 200, new String(requestBody, StandardCharsets.UTF_8));
+					break;
+				case "login":
+					exchange.getResponseHeaders().put("Set-Cookie", Arrays.asList("session=" + parameter + "; Path=/api"));
+					exchange.sendResponseHeaders(204, -1);
+					break;
+				case "redirect":
+					exchange.getResponseHeaders().add("Location", "/api/large");
+					exchange.sendResponseHeaders(302, -1);
+					break;
+				case "large":
+					respond(exchange, 200, LARGE_BODY);
+					break;
+				case "block":
+					started.countDown();
+					released.await(5, TimeUnit.SECONDS);
+					respond(exchange, 200, "released");
+					break;
+				default:
+					exchange.sendResponseHeaders(404, -1);
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static class TestConfiguration implements IApiTestClientConfiguration {
+		private final long spillThreshold;
+
+		TestConfiguration(long spillThreshold) {
+			this.spillThreshold = spillThreshold;
+		}
+
+		@Override
+		public boolean isProxyEnabled() {
+			return false;
+		}
+
+		@Override
+		public String getProxyHost() {
+			return null;
+		}
+
+		@Override
+		public int getProxyPort() {
+			return 0;
+		}
+
+		@Override
+		public String[] getProxyExceptions() {
+			return new String[0];
+		}
+
+		@Override
+		public long getResponseSpillThreshold() {
+			return spillThreshold;
+		}
+	}
+}
@@ -1,10 +1,16 @@
 package io.probedock.api.test.headers;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import io.probedock.api.test.client.ApiTestRequest;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import org.apache.http.Header;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
@@ -25,7 +31,7 @@ public class ApiHeadersManagerUnitTest {
 	@Before
 	public void setUp() {
 		manager = new ApiHeadersManager();
-		MockitoAnnotations.initMocks(this);
+		MockitoAnnotations.openMocks(this);
 	}
 
 	@Test
@@ -37,7 +43,7 @@ public class ApiHeadersManagerUnitTest {
 		removeHeader(header("X-B", "foo"), false);
 		manager.applyConfiguration(request);
 
-		inOrder.verify(request, times(2)).removeHeader("X-A");
+		inOrder.verify(request).removeHeader("X-A");
 		inOrder.verify(request).removeHeader("X-B");
 		inOrder.verifyNoMoreInteractions();
 
@@ -69,7 +75,6 @@ public class ApiHeadersManagerUnitTest {
 		setHeader(header("X-B", "foo"), false);
 		manager.applyConfiguration(request);
 
-		inOrder.verify(request).setHeader("X-A", "foo");
 		inOrder.verify(request).setHeader("X-A", "bar");
 		inOrder.verify(request).setHeader("X-B", "foo");
 		inOrder.verifyNoMoreInteractions();
@@ -116,8 +121,8 @@ public class ApiHeadersManagerUnitTest {
 
 		inOrder.verify(request).addHeader("X-A", "foo");
 		inOrder.verify(request).addHeader("X-A", "bar");
-		inOrder.verify(request).addHeader("X-B", "bar");
 		inOrder.verify(request).addHeader("X-A", "baz");
+		inOrder.verify(request).addHeader("X-B", "bar");
 		inOrder.verifyNoMoreInteractions();
 
 		manager.applyConfiguration(request);
@@ -128,6 +133,80 @@ public class ApiHeadersManagerUnitTest {
 		inOrder.verifyNoMoreInteractions();
 	}
 
+	@Test
+	public void apiHeadersManagerShouldMergeOperationsOnTheSameHeaderName() {
+		final InOrder inOrder = inOrder(request);
+
+		removeHeader(header("X-A", "foo"), false);
+		addHeader(header("X-A", "bar"), true);
+		setHeader(header("x-b", "foo"), true);
+		addHeader(header("X-B", "bar"), true);
+		manager.applyConfiguration(request);
+
+		inOrder.verify(request).setHeader("X-A", "bar");
+		inOrder.verify(request).setHeader("x-b", "foo");
+		inOrder.verify(request).addHeader("X-B", "bar");
+		inOrder.verifyNoMoreInteractions();
+
+		manager.applyConfiguration(request);
+
+		inOrder.verify(request).addHeader("X-A", "bar");
+		inOrder.verify(request).setHeader("x-b", "foo");
+		inOrder.verify(request).addHeader("X-B", "bar");
+		inOrder.verifyNoMoreInteractions();
+	}
+
+	@Test
+	public void apiHeadersManagerShouldBindNextRequestHeadersToThreadsAndRequests() throws Exception {
+		setHeader(header("X-A", "all"), true);
+
+		final ApiTestRequest boundRequest = realRequest();
+		manager.configure(ApiHeadersManager.Operation.SET, header("X-A", "bound"), boundRequest);
+
+		final CyclicBarrier barrier = new CyclicBarrier(4);
+		final List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final String value = "thread-" + t;
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				final List<String> values = new ArrayList<>();
+				try {
+					barrier.await();
+					for (int i = 0; i < 1000; i++) {
+						manager.configure(ApiHeadersManager.Operation.SET, header("X-A", value), false);
+						manager.configure(ApiHeadersManager.Operation.ADD, header("X-" + value, "permanent"), true);
+
+						final ApiTestRequest request = realRequest();
+						manager.applyConfiguration(request);
+						values.add(headerValues(request, "X-A"));
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+
+				return values;
+			}));
+		}
+
+		for (int t = 0; t < futures.size(); t++) {
+			for (String value : futures.get(t).get()) {
+				assertEquals("thread-" + t, value);
+			}
+		}
+
+		final ApiTestRequest request = realRequest();
+		manager.applyConfiguration(request);
+		assertEquals("all", headerValues(request, "X-A"));
+
+		// no permanent header added concurrently was lost
+		assertEquals(1 + 4 * 1000, request.getHeaders().length);
+
+		manager.applyConfiguration(boundRequest);
+		assertEquals("bound", headerValues(boundRequest, "X-A"));
+
+		manager.applyConfiguration(boundRequest);
+		assertEquals("all", headerValues(boundRequest, "X-A"));
+	}
+
 	private void addHeader(final ApiHeader header, boolean forAllRequests) {
 		manager.configure(ApiHeadersManager.Operation.ADD, header, forAllRequests);
 	}
@@ -140,6 +219,21 @@ public class ApiHeadersManagerUnitTest {
 		manager.configure(ApiHeadersManager.Operation.REMOVE, header, forAllRequests);
 	}
 
+	private static ApiTestRequest realRequest() {
+		return new ApiTestRequest(ApiTestRequest.GET, URI.create("http://localhost/api"), null);
+	}
+
+	private static String headerValues(final ApiTestRequest request, final String name) {
+		final StringBuilder values = new StringBuilder();
+		for (Header header : request.getHeaders()) {
+			if (header.getName().equalsIgnoreCase(name)) {
+				values.append(values.length() > 0 ? "," : "").append(header.getValue());
+			}
+		}
+
+		return values.toString();
+	}
+
 	private static ApiHeader header(final String name, final String value) {
 		return new ApiHeader(name, value);
 	}
@@ -0,0 +1,206 @@
+package io.probedock.api.test.headers;
+
+import static org.junit.Assert.*;
+
+import io.probedock.api.test.client.ApiTestRequest;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @see CachingApiHeader
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class CachingApiHeaderUnitTest {
+
+	private AtomicLong clock;
+	private CountingApiHeader header;
+
+	@Before
+	public void setUp() {
+		clock = new AtomicLong();
+		header = new CountingApiHeader();
+	}
+
+	@Test
+	public void cachingApiHeaderShouldComputeValuesOncePerValidityWindow() {
+		final CachingApiHeader cached = cached(2, new CachingApiHeader.Attribute[0]);
+
+		assertEquals("X-Token", cached.getName());
+		assertEquals("value-1", cached.computeValue(request("GET", "http://localhost/api/users")));
+		assertEquals("value-1", cached.computeValue(request("POST", "http://example.com/api/items")));
+
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(2) - 1);
+		assertEquals("value-1", cached.computeValue(request("GET", "http://localhost/api/users")));
+
+		clock.incrementAndGet();
+		assertEquals("value-2", cached.computeValue(request("GET", "http://localhost/api/users")));
+		assertEquals(2, header.count.get());
+
+		cached.invalidate();
+		assertEquals("value-3", cached.computeValue(request("GET", "http://localhost/api/users")));
+	}
+
+	@Test
+	public void cachingApiHeaderShouldCacheValuesByRequestAttributes() {
+		final CachingApiHeader cached = cached(10, CachingApiHeader.Attribute.METHOD, CachingApiHeader.Attribute.PATH);
+
+		assertEquals("value-1", cached.computeValue(request("GET", "http://localhost/api/users?page=1")));
+		assertEquals("value-1", cached.computeValue(request("GET", "http://example.com:8080/api/users?page=2")));
+		assertEquals("value-2", cached.computeValue(request("POST", "http://localhost/api/users")));
+		assertEquals("value-3", cached.computeValue(request("GET", "http://localhost/api/items")));
+		assertEquals("value-2", cached.computeValue(request("POST", "http://localhost/api/users")));
+
+		final CachingApiHeader byHost = header.cached(10, TimeUnit.SECONDS, CachingApiHeader.Attribute.HOST);
+		assertEquals("value-4", byHost.computeValue(request("GET", "http://localhost/api/users")));
+		assertEquals("value-5", byHost.computeValue(request("GET", "http://localhost:8080/api/users")));
+		assertEquals("value-4", byHost.computeValue(request("DELETE", "http://localhost/api/items")));
+	}
+
+	@Test
+	public void cachingApiHeaderShouldBoundTheNumberOfCachedValues() {
+		final CachingApiHeader cached = new CachingApiHeader(header, 10, TimeUnit.SECONDS, 2, new CachingApiHeader.Attribute[]{ CachingApiHeader.Attribute.PATH }, clock::get);
+
+		assertEquals("value-1", cached.computeValue(request("GET", "http://localhost/a")));
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+		assertEquals("value-2", cached.computeValue(request("GET", "http://localhost/b")));
+
+		// the first value expires and is evicted when a third value is cached
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+		assertEquals("value-3", cached.computeValue(request("GET", "http://localhost/c")));
+		assertEquals("value-2", cached.computeValue(request("GET", "http://localhost/b")));
+
+		// the value expiring first is evicted when none has expired
+		assertEquals("value-4", cached.computeValue(request("GET", "http://localhost/d")));
+		assertEquals("value-3", cached.computeValue(request("GET", "http://localhost/c")));
+		assertEquals("value-5", cached.computeValue(request("GET", "http://localhost/b")));
+	}
+
+	@Test
+	public void cachingApiHeaderShouldNotBlockOtherKeysWhileComputingAValue() throws Exception {
+		final CountDownLatch computing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ApiHeader slowHeader = new ApiHeader("X-Token", null) {
+			@Override
+			public String computeValue(ApiTestRequest request) {
+				if (request.getUri().getPath().equals("/slow")) {
+					computing.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				return "value " + request.getUri().getPath();
+			}
+		};
+
+		final CachingApiHeader cached = slowHeader.cached(1, TimeUnit.MINUTES, CachingApiHeader.Attribute.PATH);
+		final CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> cached.computeValue(request("GET", "http://localhost/slow")));
+		assertTrue(computing.await(10, TimeUnit.SECONDS));
+
+		try {
+			for (int i = 0; i < 100; i++) {
+				assertEquals("value /fast" + i, cached.computeValue(request("GET", "http://localhost/fast" + i)));
+			}
+		} finally {
+			release.countDown();
+		}
+
+		assertEquals("value /slow", slow.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void cachingApiHeaderShouldNotCacheFailures() {
+		final AtomicInteger count = new AtomicInteger();
+		final ApiHeader failingHeader = new ApiHeader("X-Token", null) {
+			@Override
+			public String computeValue(ApiTestRequest request) {
+				if (count.incrementAndGet() == 1) {
+					throw new IllegalStateException("Token service unavailable");
+				}
+
+				return "value-" + count.get();
+			}
+		};
+
+		final CachingApiHeader cached = failingHeader.cached(1, TimeUnit.MINUTES);
+		try {
+			cached.computeValue(request("GET", "http://localhost/api"));
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException ise) {
+			assertEquals("Token service unavailable", ise.getMessage());
+		}
+
+		assertEquals("value-2", cached.computeValue(request("GET", "http://localhost/api")));
+		assertEquals("value-2", cached.computeValue(request("GET", "http://localhost/api")));
+	}
+
+	@Test
+	public void cachingApiHeaderShouldComputeValuesOnceForConcurrentRequests() throws Exception {
+		final CountDownLatch computing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ApiHeader slowHeader = new ApiHeader("X-Token", null) {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public String computeValue(ApiTestRequest request) {
+				computing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+
+				return "value-" + count.incrementAndGet();
+			}
+		};
+
+		final CachingApiHeader cached = slowHeader.cached(1, TimeUnit.MINUTES);
+		final List<CompletableFuture<String>> futures = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			futures.add(CompletableFuture.supplyAsync(() -> cached.computeValue(request("GET", "http://localhost/api"))));
+		}
+
+		computing.await();
+		release.countDown();
+
+		for (CompletableFuture<String> future : futures) {
+			assertEquals("value-1", future.get(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cachingApiHeaderShouldRequireAPositiveTimeToLive() {
+		header.cached(0, TimeUnit.SECONDS);
+	}
+
+	private CachingApiHeader cached(long seconds, CachingApiHeader.Attribute... attributes) {
+		return new CachingApiHeader(header, seconds, TimeUnit.SECONDS, CachingApiHeader.DEFAULT_MAX_SIZE, attributes, clock::get);
+	}
+
+	private static ApiTestRequest request(String method, String uri) {
+		return new ApiTestRequest(method, URI.create(uri), null);
+	}
+
+	private static class CountingApiHeader extends ApiHeader {
+		private final AtomicInteger count = new AtomicInteger();
+
+		CountingApiHeader() {
+			super("X-Token", null);
+		}
+
+		@Override
+		public String computeValue(ApiTestRequest request) {
+			return "value-" + count.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package io.probedock.api.test.rules;
+
+import static org.junit.Assert.*;
+
+import io.probedock.api.test.client.IApiTestClientConfiguration;
+import org.junit.Test;
+
+/**
+ * @see ApiTestSharedClients
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class ApiTestSharedClientsUnitTest {
+
+	@Test
+	public void jvmClientsShouldBeSharedByConfigurationsOfTheSameClass() {
+		assertSame(ApiTestSharedClients.getJvmClient(new ClientConfiguration(null)), ApiTestSharedClients.getJvmClient(new ClientConfiguration(null)));
+	}
+
+	@Test
+	public void jvmClientsShouldBeSharedBySharedClientKey() {
+		assertSame(ApiTestSharedClients.getJvmClient(new ClientConfiguration("a")), ApiTestSharedClients.getJvmClient(new ClientConfiguration("a")));
+		assertNotSame(ApiTestSharedClients.getJvmClient(new ClientConfiguration("a")), ApiTestSharedClients.getJvmClient(new ClientConfiguration("b")));
+	}
+
+	private static class ClientConfiguration implements IApiTestClientConfiguration {
+		private final String key;
+
+		ClientConfiguration(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean isProxyEnabled() {
+			return false;
+		}
+
+		@Override
+		public String getProxyHost() {
+			return null;
+		}
+
+		@Override
+		public int getProxyPort() {
+			return 0;
+		}
+
+		@Override
+		public String[] getProxyExceptions() {
+			return new String[0];
+		}
+
+		@Override
+		public Object getSharedClientKey() {
+			return key != null ? key : IApiTestClientConfiguration.super.getSharedClientKey();
+		}
+	}
+}
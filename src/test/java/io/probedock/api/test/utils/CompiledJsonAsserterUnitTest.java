@@ -0,0 +1,73 @@
+package io.probedock.api.test.utils;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import org.junit.Test;
+
+/**
+ * @see CompiledJsonAsserter
+ * @author Simon Oulevay <simon.oulevay@probedock.io>
+ */
+public class CompiledJsonAsserterUnitTest {
+	private final CompiledJsonAsserter asserter = new CompiledJsonAsserter(JsonPath.parse("{\"name\":\"probe\",\"tags\":[\"a\",\"b\"]}").json());
+
+	@Test
+	public void compiledJsonAssertersShouldMatchPaths() {
+		asserter.assertThat("$.name", equalTo("probe")).assertThat("$.tags", hasSize(2), "two tags").assertNotDefined("$.missing").assertNotDefined("$.missing", "no missing");
+	}
+
+	@Test
+	public void compiledJsonAssertersShouldFailWithAnAssertionErrorForMissingPaths() {
+		try {
+			asserter.assertThat("$.missing", equalTo("probe"));
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertEquals("Error reading JSON path [$.missing]", ae.getMessage());
+			assertTrue(ae.getCause() instanceof PathNotFoundException);
+		}
+	}
+
+	@Test
+	public void compiledJsonAssertersShouldFailWithAnAssertionErrorAndTheMessageForMissingPaths() {
+		try {
+			asserter.assertThat("$.missing", equalTo("probe"), "the name should be set");
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertEquals("JSON Assert Error: the name should be set\nError reading JSON path [$.missing]", ae.getMessage());
+			assertTrue(ae.getCause() instanceof PathNotFoundException);
+		}
+	}
+
+	@Test
+	public void compiledJsonAssertersShouldIncludeTheMessageOfMismatches() {
+		try {
+			asserter.assertThat("$.name", equalTo("other"), "the name should be other");
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertTrue(ae.getMessage(), ae.getMessage().startsWith("JSON Assert Error: the name should be other\n"));
+		}
+	}
+
+	@Test
+	public void compiledJsonAssertersShouldFailForDefinedPaths() {
+		try {
+			asserter.assertNotDefined("$.name");
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertEquals("Document contains the path <$.name> but was expected not to.", ae.getMessage());
+		}
+	}
+
+	@Test
+	public void compiledJsonAssertersShouldIncludeTheMessageOfDefinedPaths() {
+		try {
+			asserter.assertNotDefined("$.name", "the name should be hidden");
+			fail("Expected an AssertionError");
+		} catch (AssertionError ae) {
+			assertEquals("JSON Assert Error: the name should be hidden\nDocument contains the path <$.name> but was expected not to.", ae.getMessage());
+		}
+	}
+}